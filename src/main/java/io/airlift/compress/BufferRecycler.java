@@ -17,161 +17,290 @@
  */
 package io.airlift.compress;
 
-import java.lang.ref.SoftReference;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * Simple helper class to encapsulate details of basic buffer
- * recycling scheme, which helps a lot (as per profiling) for
- * smaller encoding cases.
+ * Pool of the buffers used for encoding and decoding, shared by all threads.
+ * <p>
+ * The pool is a fixed array of slots that threads claim and fill with
+ * compare-and-set, so it never blocks.  Each thread starts probing at a slot
+ * derived from its id, which spreads concurrent threads over different parts
+ * of the array.  Because the pool is not tied to threads, applications with
+ * very many short lived threads share a small set of buffers instead of
+ * retaining one set per thread.
+ * <p>
+ * The slots are split into stripes, one per processor, and a thread only
+ * probes the slots of the stripe its start slot falls in.  Each stripe keeps
+ * its own statistics and its own share of the size cap, so threads working in
+ * different stripes never update the same counters.  Buffers released beyond
+ * the cap of a stripe are left to the garbage collector.  A pooled buffer only
+ * serves requests of at least half its size.
  *
  * @author tatu
  */
-class BufferRecycler
+public final class BufferRecycler
 {
-    private final static int MIN_ENCODING_BUFFER = 4000;
+    public static final long DEFAULT_MAX_POOLED_BYTES = 16 * 1024 * 1024;
 
-    private final static int MIN_OUTPUT_BUFFER = 8000;
-
-    /**
-     * This <code>ThreadLocal</code> contains a {@link java.lang.ref.SoftReference}
-     * to a {@link BufferRecycler} used to provide a low-cost
-     * buffer recycling for buffers we need for encoding, decoding.
-     */
-    final protected static ThreadLocal<SoftReference<BufferRecycler>> recyclerRef
-            = new ThreadLocal<SoftReference<BufferRecycler>>();
+    // number of slots searched by each alloc or release before giving up
+    private static final int PROBES = 8;
 
+    // counters kept for each stripe, spaced a cache line apart
+    private static final int POOLED_BYTES = 0;
+    private static final int HITS = 1;
+    private static final int MISSES = 2;
+    private static final int ALLOCATED_BYTES = 3;
+    private static final int STRIPE_STRIDE = 8;
 
-    private byte[] inputBuffer;
-    private byte[] outputBuffer;
+    private static final BufferRecycler INSTANCE = new BufferRecycler(Runtime.getRuntime().availableProcessors());
 
-    private byte[] decodingBuffer;
-    private byte[] encodingBuffer;
-
-    private short[] encodingHash;
+    private final AtomicReferenceArray<byte[]> buffers;
+    private final AtomicReferenceArray<short[]> encodingHashes;
+    private final int mask;
+    private final int stripeShift;
+    private final int stripeMask;
+    private final int stripes;
+    private final AtomicLongArray counters;
 
+    private volatile long maxPooledBytes = DEFAULT_MAX_POOLED_BYTES;
+    private volatile long maxStripePooledBytes;
 
     /**
-     * Accessor to get thread-local recycler instance
+     * Returns the process wide pool.
      */
     public static BufferRecycler instance()
     {
-        SoftReference<BufferRecycler> ref = recyclerRef.get();
-
-        BufferRecycler bufferRecycler;
-        if (ref == null) {
-            bufferRecycler = null;
-        }
-        else {
-            bufferRecycler = ref.get();
-        }
+        return INSTANCE;
+    }
 
-        if (bufferRecycler == null) {
-            bufferRecycler = new BufferRecycler();
-            recyclerRef.set(new SoftReference<BufferRecycler>(bufferRecycler));
+    BufferRecycler(int concurrency)
+    {
+        int stripes = 1;
+        while (stripes < concurrency) {
+            stripes <<= 1;
         }
-        return bufferRecycler;
+        // at least 16 slots per stripe, so the probes of a thread stay inside its stripe
+        int slots = Math.max(64, stripes * 16);
+        buffers = new AtomicReferenceArray<byte[]>(slots);
+        encodingHashes = new AtomicReferenceArray<short[]>(slots);
+        mask = slots - 1;
+        stripeShift = Integer.numberOfTrailingZeros(slots / stripes);
+        stripeMask = (slots / stripes) - 1;
+        this.stripes = stripes;
+        counters = new AtomicLongArray((stripes + 1) * STRIPE_STRIDE);
+        maxStripePooledBytes = DEFAULT_MAX_POOLED_BYTES / stripes;
     }
 
     ///////////////////////////////////////////////////////////////////////
-    // Buffers for encoding (output)
+    // Byte buffers
     ///////////////////////////////////////////////////////////////////////
 
-    public byte[] allocEncodingBuffer(int minSize)
+    byte[] allocBuffer(int minSize)
     {
-        byte[] buf = encodingBuffer;
-        if (buf == null || buf.length < minSize) {
-            buf = new byte[Math.max(minSize, MIN_ENCODING_BUFFER)];
+        int start = startSlot();
+        int stripe = counterBase(start);
+        for (int i = 0; i < PROBES; i++) {
+            int slot = probeSlot(start, i);
+            byte[] buffer = buffers.get(slot);
+            if (buffer != null && fits(buffer.length, minSize) && buffers.compareAndSet(slot, buffer, null)) {
+                counters.addAndGet(stripe + POOLED_BYTES, -buffer.length);
+                counters.incrementAndGet(stripe + HITS);
+                return buffer;
+            }
         }
-        else {
-            encodingBuffer = null;
+        counters.incrementAndGet(stripe + MISSES);
+        counters.addAndGet(stripe + ALLOCATED_BYTES, minSize);
+        return new byte[minSize];
+    }
+
+    void releaseBuffer(byte[] buffer)
+    {
+        if (buffer == null) {
+            return;
+        }
+        int start = startSlot();
+        int stripe = counterBase(start);
+        if (!reserve(stripe, buffer.length)) {
+            return;
         }
-        return buf;
+        for (int i = 0; i < PROBES; i++) {
+            if (buffers.compareAndSet(probeSlot(start, i), null, buffer)) {
+                return;
+            }
+        }
+        counters.addAndGet(stripe + POOLED_BYTES, -buffer.length);
     }
 
-    public void releaseEncodeBuffer(byte[] buffer)
+    ///////////////////////////////////////////////////////////////////////
+    // Hash tables for encoding
+    ///////////////////////////////////////////////////////////////////////
+
+    short[] allocEncodingHash(int minSize)
     {
-        if (encodingBuffer == null || buffer.length > encodingBuffer.length) {
-            encodingBuffer = buffer;
+        int start = startSlot();
+        int stripe = counterBase(start);
+        for (int i = 0; i < PROBES; i++) {
+            int slot = probeSlot(start, i);
+            short[] table = encodingHashes.get(slot);
+            if (table != null && fits(table.length, minSize) && encodingHashes.compareAndSet(slot, table, null)) {
+                counters.addAndGet(stripe + POOLED_BYTES, -2L * table.length);
+                counters.incrementAndGet(stripe + HITS);
+                return table;
+            }
         }
+        counters.incrementAndGet(stripe + MISSES);
+        counters.addAndGet(stripe + ALLOCATED_BYTES, 2L * minSize);
+        return new short[minSize];
     }
 
-    public byte[] allocOutputBuffer(int minSize)
+    void releaseEncodingHash(short[] table)
     {
-        byte[] buf = outputBuffer;
-        if (buf == null || buf.length < minSize) {
-            buf = new byte[Math.max(minSize, MIN_OUTPUT_BUFFER)];
+        if (table == null) {
+            return;
         }
-        else {
-            outputBuffer = null;
+        int start = startSlot();
+        int stripe = counterBase(start);
+        if (!reserve(stripe, 2L * table.length)) {
+            return;
         }
-        return buf;
+        for (int i = 0; i < PROBES; i++) {
+            if (encodingHashes.compareAndSet(probeSlot(start, i), null, table)) {
+                return;
+            }
+        }
+        counters.addAndGet(stripe + POOLED_BYTES, -2L * table.length);
     }
 
-    public void releaseOutputBuffer(byte[] buffer)
+    ///////////////////////////////////////////////////////////////////////
+    // Configuration and statistics
+    ///////////////////////////////////////////////////////////////////////
+
+    /**
+     * Sets the maximum total size of the buffers kept in the pool.  The limit
+     * is divided evenly between the stripes.  Lowering the limit does not
+     * discard buffers already pooled; call {@link #trim()} for that.
+     */
+    public void setMaxPooledBytes(long maxPooledBytes)
     {
-        if (outputBuffer == null || (buffer != null && buffer.length > outputBuffer.length)) {
-            outputBuffer = buffer;
+        if (maxPooledBytes < 0) {
+            throw new IllegalArgumentException("maxPooledBytes is negative");
         }
+        this.maxPooledBytes = maxPooledBytes;
+        this.maxStripePooledBytes = maxPooledBytes / stripes;
     }
 
-    public short[] allocEncodingHash(int suggestedSize)
+    public long getMaxPooledBytes()
     {
-        short[] buf = encodingHash;
-        if (buf == null || buf.length < suggestedSize) {
-            buf = new short[suggestedSize];
-        }
-        else {
-            encodingHash = null;
-        }
-        return buf;
+        return maxPooledBytes;
     }
 
-    public void releaseEncodingHash(short[] buffer)
+    /**
+     * Drops all pooled buffers so they can be garbage collected.
+     */
+    public void trim()
     {
-        if (encodingHash == null || (buffer != null && buffer.length > encodingHash.length)) {
-            encodingHash = buffer;
+        for (int slot = 0; slot <= mask; slot++) {
+            int stripe = counterBase(slot);
+            byte[] buffer = buffers.getAndSet(slot, null);
+            if (buffer != null) {
+                counters.addAndGet(stripe + POOLED_BYTES, -buffer.length);
+            }
+            short[] table = encodingHashes.getAndSet(slot, null);
+            if (table != null) {
+                counters.addAndGet(stripe + POOLED_BYTES, -2L * table.length);
+            }
         }
     }
 
-    ///////////////////////////////////////////////////////////////////////
-    // Buffers for decoding (input)
-    ///////////////////////////////////////////////////////////////////////
+    /**
+     * Returns the total size in bytes of the buffers currently in the pool.
+     */
+    public long getPooledBytes()
+    {
+        return sum(POOLED_BYTES);
+    }
 
-    public byte[] allocInputBuffer(int minSize)
+    /**
+     * Returns the number of allocations served from the pool.
+     */
+    public long getHits()
     {
-        byte[] buf = inputBuffer;
-        if (buf == null || buf.length < minSize) {
-            buf = new byte[Math.max(minSize, MIN_OUTPUT_BUFFER)];
-        }
-        else {
-            inputBuffer = null;
-        }
-        return buf;
+        return sum(HITS);
     }
 
-    public void releaseInputBuffer(byte[] buffer)
+    /**
+     * Returns the number of allocations that had to create a new buffer.
+     */
+    public long getMisses()
     {
-        if (inputBuffer == null || (buffer != null && buffer.length > inputBuffer.length)) {
-            inputBuffer = buffer;
-        }
+        return sum(MISSES);
     }
 
-    public byte[] allocDecodeBuffer(int size)
+    /**
+     * Returns the total size in bytes of the buffers created on misses.
+     */
+    public long getAllocatedBytes()
     {
-        byte[] buf = decodingBuffer;
-        if (buf == null || buf.length < size) {
-            buf = new byte[size];
-        }
-        else {
-            decodingBuffer = null;
+        return sum(ALLOCATED_BYTES);
+    }
+
+    /**
+     * Returns true if a pooled buffer of the given length can serve a request
+     * for minSize.  Larger buffers are left for larger requests, so a small
+     * request does not hold on to a large buffer.
+     */
+    private static boolean fits(int length, int minSize)
+    {
+        return length >= minSize && length <= 2L * minSize;
+    }
+
+    /**
+     * Adds size to the pooled bytes of the stripe if that keeps it within the
+     * cap of the stripe.  Concurrent releases into the same stripe can overshoot
+     * the cap by at most one buffer each, which is cheaper than a retry loop.
+     */
+    private boolean reserve(int stripe, long size)
+    {
+        if (counters.get(stripe + POOLED_BYTES) + size > maxStripePooledBytes) {
+            return false;
         }
-        return buf;
+        counters.addAndGet(stripe + POOLED_BYTES, size);
+        return true;
     }
 
-    public void releaseDecodeBuffer(byte[] buffer)
+    private long sum(int counter)
     {
-        if (decodingBuffer == null || (buffer != null && buffer.length > decodingBuffer.length)) {
-            decodingBuffer = buffer;
+        long sum = 0;
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            sum += counters.get((stripe + 1) * STRIPE_STRIDE + counter);
         }
+        return sum;
+    }
+
+    /**
+     * Returns the index of the first counter of the stripe containing the slot.
+     * The counters of the first stripe start one cache line into the array, so
+     * they do not share a line with the array header.
+     */
+    private int counterBase(int slot)
+    {
+        return (((slot & mask) >>> stripeShift) + 1) * STRIPE_STRIDE;
+    }
+
+    /**
+     * Returns the slot for the given probe, wrapping around inside the stripe
+     * of the start slot.
+     */
+    private int probeSlot(int start, int probe)
+    {
+        return (start & mask & ~stripeMask) | ((start + probe) & stripeMask);
+    }
+
+    private int startSlot()
+    {
+        // spread consecutive thread ids over the slots
+        int hash = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
     }
 }
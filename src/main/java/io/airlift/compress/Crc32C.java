@@ -17,6 +17,7 @@
  */
 package io.airlift.compress;
 
+import java.lang.reflect.Constructor;
 import java.util.zip.Checksum;
 
 
@@ -24,12 +25,24 @@ import java.util.zip.Checksum;
  * A pure-java implementation of the CRC32 checksum that uses
  * the CRC32-C polynomial, the same polynomial used by iSCSI
  * and implemented on many Intel chipsets supporting SSE4.2.
+ * <p/>
+ * On Java 9 and later the checksum is computed by java.util.zip.CRC32C,
+ * which hot spot compiles to the CRC32 instructions of the processor.
+ * The class is found with reflection, as this code targets Java 6.
  */
 // this code was taken from Apache Hadoop
 class Crc32C implements Checksum
 {
     private static final int MASK_DELTA = 0xa282ead8;
 
+    // reversed representation of the CRC32-C polynomial
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    // x^(2^k) modulo the polynomial, for k = 0..31
+    private static final int[] X_2N_TABLE = createPowerOfXTable();
+
+    private static final Constructor<? extends Checksum> INTRINSIC_CONSTRUCTOR = findIntrinsic();
+
     public static int maskedCrc32c(byte[] data)
     {
         return maskedCrc32c(data, 0, data.length);
@@ -64,6 +77,98 @@ class Crc32C implements Checksum
         return ((rot >>> 17) | (rot << 15));
     }
 
+    /**
+     * Returns the CRC of the concatenation of two byte sequences, given the
+     * CRC of each sequence and the length of the second one.  The CRCs are
+     * the unmasked values returned by {@link #getIntValue()}.
+     * <p/>
+     * Appending a sequence to the data is a linear function of the CRC over
+     * GF(2), so the CRC of the first sequence is advanced over lengthB zero
+     * bytes by multiplying it by x^(8 * lengthB) modulo the polynomial, and
+     * then combined with the CRC of the second sequence.  This takes time
+     * logarithmic in lengthB, and does not need the data.
+     */
+    public static int combine(int crcA, int crcB, long lengthB)
+    {
+        if (lengthB < 0) {
+            throw new IllegalArgumentException("lengthB is negative");
+        }
+        if (lengthB == 0) {
+            return crcA;
+        }
+        return multiplyModP(powerOfXModP(lengthB, 3), crcA) ^ crcB;
+    }
+
+    /**
+     * Returns x^(n * 2^k) modulo the polynomial.
+     */
+    private static int powerOfXModP(long n, int k)
+    {
+        int p = 1 << 31; // x^0
+        while (n != 0) {
+            if ((n & 1) != 0) {
+                p = multiplyModP(X_2N_TABLE[k & 31], p);
+            }
+            n >>>= 1;
+            k++;
+        }
+        return p;
+    }
+
+    /**
+     * Multiplies two polynomials modulo the polynomial.  The polynomials are
+     * reflected, as in the CRC itself: the high bit is the x^0 coefficient.
+     */
+    private static int multiplyModP(int a, int b)
+    {
+        int product = 0;
+        for (int m = 1 << 31; m != 0; m >>>= 1) {
+            if ((a & m) != 0) {
+                product ^= b;
+                if ((a & (m - 1)) == 0) {
+                    break;
+                }
+            }
+            b = (b & 1) != 0 ? (b >>> 1) ^ POLYNOMIAL : b >>> 1;
+        }
+        return product;
+    }
+
+    private static int[] createPowerOfXTable()
+    {
+        int[] table = new int[32];
+        int p = 1 << 30; // x^1
+        table[0] = p;
+        for (int i = 1; i < table.length; i++) {
+            p = multiplyModP(p, p);
+            table[i] = p;
+        }
+        return table;
+    }
+
+    /**
+     * Returns true if the checksum is computed by java.util.zip.CRC32C.
+     */
+    static boolean isIntrinsicAvailable()
+    {
+        return INTRINSIC_CONSTRUCTOR != null;
+    }
+
+    private static Constructor<? extends Checksum> findIntrinsic()
+    {
+        try {
+            return Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class).getConstructor();
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * the JDK checksum that computes the CRC, or null to use the tables below
+     */
+    private final Checksum intrinsic;
+
     /**
      * the current CRC value, bit-flipped
      */
@@ -74,9 +179,28 @@ class Crc32C implements Checksum
      */
     public Crc32C()
     {
+        this(true);
+    }
+
+    Crc32C(boolean useIntrinsic)
+    {
+        intrinsic = useIntrinsic ? newIntrinsic() : null;
         reset();
     }
 
+    private static Checksum newIntrinsic()
+    {
+        if (INTRINSIC_CONSTRUCTOR == null) {
+            return null;
+        }
+        try {
+            return INTRINSIC_CONSTRUCTOR.newInstance();
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
     public int getMaskedValue()
     {
         return mask(getIntValue());
@@ -84,22 +208,36 @@ class Crc32C implements Checksum
 
     public int getIntValue()
     {
+        if (intrinsic != null) {
+            return (int) intrinsic.getValue();
+        }
         return ~crc;
     }
 
     public long getValue()
     {
+        if (intrinsic != null) {
+            return intrinsic.getValue();
+        }
         long ret = crc;
         return (~ret) & 0xffffffffL;
     }
 
     public void reset()
     {
+        if (intrinsic != null) {
+            intrinsic.reset();
+        }
         crc = 0xffffffff;
     }
 
     public void update(byte[] b, int off, int len)
     {
+        if (intrinsic != null) {
+            intrinsic.update(b, off, len);
+            return;
+        }
+
         int localCrc = crc;
         while (len > 7) {
             int c0 = b[off++] ^ localCrc;
@@ -125,6 +263,10 @@ class Crc32C implements Checksum
 
     public void update(int b)
     {
+        if (intrinsic != null) {
+            intrinsic.update(b);
+            return;
+        }
         crc = (crc >>> 8) ^ T8_0[(crc ^ b) & 0xff];
     }
 
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A Snappy output stream that ends the stream with a {@link SnappyBlockIndex},
+ * so that the file can be read from any position by {@link SeekableSnappyInput}.
+ * <p/>
+ * The index is written as a block that {@link SnappyInputStream} skips, so the
+ * stream remains readable as a plain Snappy stream by this library.  Other
+ * implementations of the stream format reject the unknown block type.
+ */
+public class IndexedSnappyOutputStream
+        extends SnappyOutputStream
+{
+    private final SnappyBlockIndex.Builder index = new SnappyBlockIndex.Builder();
+
+    public IndexedSnappyOutputStream(OutputStream out)
+            throws IOException
+    {
+        super(out, true);
+    }
+
+    @Override
+    void blockStarted(long compressedPosition, long uncompressedPosition)
+    {
+        index.add(compressedPosition, uncompressedPosition);
+    }
+
+    @Override
+    void finish(OutputStream out, long compressedPosition, long uncompressedPosition)
+            throws IOException
+    {
+        index.build(uncompressedPosition).writeTo(out, compressedPosition);
+    }
+}
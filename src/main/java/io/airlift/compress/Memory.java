@@ -17,19 +17,35 @@
  */
 package io.airlift.compress;
 
+import java.nio.Buffer;
+
+/**
+ * Memory is addressed with a base object and an address relative to that object,
+ * in the same way as {@code sun.misc.Unsafe}.  For a byte array the base is the
+ * array and the address is {@link #getByteArrayBaseOffset()} plus the index.  For
+ * off-heap memory the base is null and the address is the absolute address.
+ */
 interface Memory
 {
     boolean fastAccessSupported();
 
+    boolean directBufferAccessSupported();
+
+    long getByteArrayBaseOffset();
+
+    long getDirectBufferAddress(Buffer buffer);
+
     int lookupShort(short[] data, int index);
 
-    int loadByte(byte[] data, int index);
+    int loadByte(Object base, long address);
+
+    int loadInt(Object base, long address);
 
-    int loadInt(byte[] data, int index);
+    long loadLong(Object base, long address);
 
-    void copyLong(byte[] src, int srcIndex, byte[] dest, int destIndex);
+    void storeByte(Object base, long address, int value);
 
-    long loadLong(byte[] data, int index);
+    void copyLong(Object srcBase, long srcAddress, Object destBase, long destAddress);
 
-    void copyMemory(byte[] input, int inputIndex, byte[] output, int outputIndex, int length);
+    void copyMemory(Object inputBase, long inputAddress, Object outputBase, long outputAddress, int length);
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static io.airlift.compress.SnappyInternalUtils.checkArgument;
+import static io.airlift.compress.SnappyInternalUtils.checkNotNull;
+import static io.airlift.compress.SnappyInternalUtils.checkPositionIndexes;
+
+/**
+ * Computes the CRC32-C of a large buffer with several threads.  The buffer is
+ * split into chunks that are checksummed in parallel, and the chunk CRCs are
+ * merged in order with {@link Crc32C#combine(int, int, long)}.  The result is
+ * the unmasked CRC, the same as {@link Crc32C#getIntValue()} after updating
+ * a single checksum with the whole buffer.
+ */
+final class ParallelCrc32C
+{
+    // large enough that the cost of a task and of the combine is negligible
+    static final int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+    // direct buffers are copied to the heap in pieces of this size
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+
+    private ParallelCrc32C()
+    {
+    }
+
+    public static int crc32c(byte[] data, int offset, int length, ExecutorService executor)
+            throws InterruptedException
+    {
+        return crc32c(data, offset, length, executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    public static int crc32c(final byte[] data, int offset, int length, ExecutorService executor, int chunkSize)
+            throws InterruptedException
+    {
+        checkNotNull(data, "data is null");
+        checkPositionIndexes(offset, offset + length, data.length);
+        checkArgument(chunkSize > 0, "chunkSize must be positive");
+
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        for (int position = 0; position < length; ) {
+            final int start = offset + position;
+            final int chunkLength = Math.min(chunkSize, length - position);
+            position += chunkLength;
+            chunks.add(new Chunk(chunkLength, new Callable<Integer>()
+            {
+                @Override
+                public Integer call()
+                {
+                    Crc32C crc32c = new Crc32C();
+                    crc32c.update(data, start, chunkLength);
+                    return crc32c.getIntValue();
+                }
+            }));
+        }
+        return combineChunks(chunks, executor);
+    }
+
+    /**
+     * Computes the CRC of the remaining bytes of the buffer.  The position of
+     * the buffer is not changed.
+     */
+    public static int crc32c(ByteBuffer buffer, ExecutorService executor)
+            throws InterruptedException
+    {
+        return crc32c(buffer, executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    public static int crc32c(final ByteBuffer buffer, ExecutorService executor, int chunkSize)
+            throws InterruptedException
+    {
+        checkNotNull(buffer, "buffer is null");
+        checkArgument(chunkSize > 0, "chunkSize must be positive");
+        if (buffer.hasArray()) {
+            return crc32c(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), executor, chunkSize);
+        }
+
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        for (int position = buffer.position(); position < buffer.limit(); ) {
+            final int start = position;
+            final int chunkLength = Math.min(chunkSize, buffer.limit() - position);
+            position += chunkLength;
+            chunks.add(new Chunk(chunkLength, new Callable<Integer>()
+            {
+                @Override
+                public Integer call()
+                {
+                    // each task reads through its own view of the buffer
+                    ByteBuffer view = buffer.duplicate();
+                    view.position(start);
+                    view.limit(start + chunkLength);
+
+                    Crc32C crc32c = new Crc32C();
+                    byte[] copy = new byte[Math.min(COPY_BUFFER_SIZE, chunkLength)];
+                    while (view.hasRemaining()) {
+                        int size = Math.min(copy.length, view.remaining());
+                        view.get(copy, 0, size);
+                        crc32c.update(copy, 0, size);
+                    }
+                    return crc32c.getIntValue();
+                }
+            }));
+        }
+        return combineChunks(chunks, executor);
+    }
+
+    private static int combineChunks(List<Chunk> chunks, ExecutorService executor)
+            throws InterruptedException
+    {
+        checkNotNull(executor, "executor is null");
+
+        if (chunks.isEmpty()) {
+            return new Crc32C().getIntValue();
+        }
+
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>(chunks.size());
+        try {
+            for (Chunk chunk : chunks) {
+                futures.add(executor.submit(chunk.task));
+            }
+
+            int crc = getChunkCrc(futures.get(0));
+            for (int i = 1; i < chunks.size(); i++) {
+                crc = Crc32C.combine(crc, getChunkCrc(futures.get(i)), chunks.get(i).length);
+            }
+            return crc;
+        }
+        finally {
+            // only has an effect when a chunk failed or the thread was interrupted
+            for (Future<Integer> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static int getChunkCrc(Future<Integer> future)
+            throws InterruptedException
+    {
+        try {
+            return future.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static final class Chunk
+    {
+        private final int length;
+        private final Callable<Integer> task;
+
+        private Chunk(int length, Callable<Integer> task)
+        {
+            this.length = length;
+            this.task = task;
+        }
+    }
+}
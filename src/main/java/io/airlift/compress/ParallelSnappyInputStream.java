@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.airlift.compress.SnappyInputStream.readInput;
+import static io.airlift.compress.SnappyInternalUtils.checkArgument;
+import static io.airlift.compress.SnappyInternalUtils.checkNotNull;
+import static io.airlift.compress.SnappyInternalUtils.checkPositionIndexes;
+import static java.lang.Math.min;
+
+/**
+ * An input stream for the format read by {@link SnappyInputStream} that reads
+ * ahead and decompresses and verifies blocks on the threads of an executor,
+ * while the caller consumes earlier blocks.  Blocks are returned in stream order.
+ * <p/>
+ * Up to {@code maxBlocksInFlight} blocks are read ahead.  Each holds at most
+ * two buffers of the block size, which bounds the memory used by the stream.  The underlying
+ * stream is read by the thread that reads from this stream, so read ahead only
+ * happens during calls to this stream.
+ */
+public class ParallelSnappyInputStream
+        extends InputStream
+{
+    private final InputStream in;
+    private final ExecutorService executor;
+    private final boolean verifyChecksums;
+    private final int maxBlocksInFlight;
+    private final BufferRecycler recycler;
+    private final Queue<DecodeTask> inFlight = new ArrayDeque<DecodeTask>();
+    private final SnappyBlockHeaderReader headerReader;
+
+    private DecodedBlock current;
+    private int position;
+    private boolean closed;
+    private boolean eof;
+
+    /**
+     * Creates a stream that verifies checksums and reads ahead up to twice as
+     * many blocks as there are processors.
+     */
+    public ParallelSnappyInputStream(InputStream in, ExecutorService executor)
+            throws IOException
+    {
+        this(in, executor, true, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelSnappyInputStream(InputStream in, ExecutorService executor, boolean verifyChecksums, int maxBlocksInFlight)
+            throws IOException
+    {
+        this(in, executor, verifyChecksums, maxBlocksInFlight, BufferRecycler.instance());
+    }
+
+    ParallelSnappyInputStream(InputStream in, ExecutorService executor, boolean verifyChecksums, int maxBlocksInFlight, BufferRecycler recycler)
+            throws IOException
+    {
+        this.in = checkNotNull(in, "in is null");
+        this.executor = checkNotNull(executor, "executor is null");
+        this.verifyChecksums = verifyChecksums;
+        checkArgument(maxBlocksInFlight > 0, "maxBlocksInFlight must be positive");
+        this.maxBlocksInFlight = maxBlocksInFlight;
+        this.recycler = checkNotNull(recycler, "recycler is null");
+
+        headerReader = new SnappyBlockHeaderReader(in);
+        headerReader.readStreamHeader();
+    }
+
+    @Override
+    public int read()
+            throws IOException
+    {
+        if (closed) {
+            return -1;
+        }
+        if (!ensureBuffer()) {
+            return -1;
+        }
+        return current.buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] output, int offset, int length)
+            throws IOException
+    {
+        checkNotNull(output, "output is null");
+        checkPositionIndexes(offset, offset + length, output.length);
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+
+        if (length == 0) {
+            return 0;
+        }
+        if (!ensureBuffer()) {
+            return -1;
+        }
+
+        int size = min(length, available());
+        System.arraycopy(current.buffer, position, output, offset, size);
+        position += size;
+        return size;
+    }
+
+    @Override
+    public int available()
+            throws IOException
+    {
+        if (closed || current == null) {
+            return 0;
+        }
+        return current.valid - position;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        try {
+            in.close();
+        }
+        finally {
+            if (!closed) {
+                closed = true;
+                for (DecodeTask task : inFlight) {
+                    task.abandon();
+                }
+                inFlight.clear();
+                releaseCurrent();
+            }
+        }
+    }
+
+    private boolean ensureBuffer()
+            throws IOException
+    {
+        // a compressed block may hold no data, so loop until data is found
+        while (available() == 0) {
+            releaseCurrent();
+
+            // keep the workers busy while waiting for the next block
+            readAhead();
+            if (inFlight.isEmpty()) {
+                return false;
+            }
+            current = takeOldestBlock();
+            position = 0;
+
+            // refill the slot freed by this block
+            readAhead();
+        }
+        return true;
+    }
+
+    private DecodedBlock takeOldestBlock()
+            throws IOException
+    {
+        DecodedBlock block;
+        try {
+            block = inFlight.peek().future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a block to be decompressed");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+        inFlight.remove();
+        return block;
+    }
+
+    private void readAhead()
+            throws IOException
+    {
+        while (!eof && inFlight.size() < maxBlocksInFlight) {
+            if (!headerReader.next()) {
+                eof = true;
+                return;
+            }
+            int blockSize = headerReader.getMaxBlockSize();
+            int length = headerReader.getLength();
+
+            byte[] input = recycler.allocBuffer(blockSize);
+            try {
+                readInput(in, input, length);
+            }
+            catch (IOException e) {
+                recycler.releaseBuffer(input);
+                throw e;
+            }
+            DecodeTask task = new DecodeTask(recycler, input, length, headerReader.isCompressed(), blockSize, verifyChecksums, headerReader.getCrc32c());
+            try {
+                task.future = executor.submit(task);
+            }
+            catch (RuntimeException e) {
+                recycler.releaseBuffer(input);
+                throw e;
+            }
+            inFlight.add(task);
+        }
+    }
+
+    private void releaseCurrent()
+    {
+        if (current != null) {
+            recycler.releaseBuffer(current.input);
+            recycler.releaseBuffer(current.uncompressed);
+            current = null;
+        }
+    }
+
+    /**
+     * Decodes one block.  The buffers of a block that is never consumed are
+     * returned to the pool by whichever of the stream and the task is last to
+     * touch them, as tracked by the state of the task.
+     */
+    private static final class DecodeTask
+            implements Callable<DecodedBlock>
+    {
+        private static final int PENDING = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+        private static final int ABANDONED = 3;
+
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private Future<DecodedBlock> future;
+
+        private final BufferRecycler recycler;
+        private final byte[] input;
+        private final int length;
+        private final boolean compressed;
+        private final int blockSize;
+        private final boolean verifyChecksum;
+        private final int expectedCrc32c;
+
+        private DecodeTask(BufferRecycler recycler, byte[] input, int length, boolean compressed, int blockSize, boolean verifyChecksum, int expectedCrc32c)
+        {
+            this.recycler = recycler;
+            this.input = input;
+            this.length = length;
+            this.compressed = compressed;
+            this.blockSize = blockSize;
+            this.verifyChecksum = verifyChecksum;
+            this.expectedCrc32c = expectedCrc32c;
+        }
+
+        @Override
+        public DecodedBlock call()
+                throws IOException
+        {
+            if (!state.compareAndSet(PENDING, RUNNING)) {
+                // the stream was closed before the task started and released the input
+                return null;
+            }
+
+            DecodedBlock block = null;
+            try {
+                block = decode();
+                return block;
+            }
+            finally {
+                if (block == null) {
+                    // the block is corrupt, so nobody will consume its input
+                    recycler.releaseBuffer(input);
+                }
+                if (!state.compareAndSet(RUNNING, DONE) && block != null) {
+                    // the stream was closed while the block was decoded
+                    recycler.releaseBuffer(block.input);
+                    recycler.releaseBuffer(block.uncompressed);
+                }
+            }
+        }
+
+        private DecodedBlock decode()
+                throws IOException
+        {
+            // the checksum of a compressed block is computed while decompressing
+            Crc32C checksum = verifyChecksum ? new Crc32C() : null;
+            DecodedBlock block;
+            if (compressed) {
+                byte[] uncompressed = recycler.allocBuffer(blockSize);
+                try {
+                    block = new DecodedBlock(input, uncompressed, uncompressed, Snappy.uncompress(input, 0, length, uncompressed, 0, checksum));
+                }
+                catch (CorruptionException e) {
+                    recycler.releaseBuffer(uncompressed);
+                    throw new IOException("Corrupt input", e);
+                }
+                catch (RuntimeException e) {
+                    recycler.releaseBuffer(uncompressed);
+                    throw e;
+                }
+            }
+            else {
+                block = new DecodedBlock(input, null, input, length);
+                if (verifyChecksum) {
+                    checksum.update(input, 0, length);
+                }
+            }
+
+            if (verifyChecksum) {
+                int actualCrc32c = checksum.getMaskedValue();
+                if (expectedCrc32c != actualCrc32c) {
+                    recycler.releaseBuffer(block.uncompressed);
+                    throw new IOException("Corrupt input: invalid checksum");
+                }
+            }
+            return block;
+        }
+
+        /**
+         * Gives up on the block after the stream is closed, returning its buffers
+         * to the pool unless the task is still running and will do so itself.
+         */
+        private void abandon()
+        {
+            if (state.compareAndSet(PENDING, ABANDONED)) {
+                future.cancel(false);
+                recycler.releaseBuffer(input);
+                return;
+            }
+            if (state.compareAndSet(RUNNING, ABANDONED)) {
+                return;
+            }
+
+            // the task is done, but the block was never consumed
+            try {
+                DecodedBlock block = future.get();
+                recycler.releaseBuffer(block.input);
+                recycler.releaseBuffer(block.uncompressed);
+            }
+            catch (ExecutionException ignored) {
+                // the block is corrupt, so its task already released the buffers
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class DecodedBlock
+    {
+        private final byte[] input;
+        private final byte[] uncompressed;
+
+        // the buffer holding the data of the block, and the number of valid bytes in it
+        private final byte[] buffer;
+        private final int valid;
+
+        private DecodedBlock(byte[] input, byte[] uncompressed, byte[] buffer, int valid)
+        {
+            this.input = input;
+            this.uncompressed = uncompressed;
+            this.buffer = buffer;
+            this.valid = valid;
+        }
+    }
+}
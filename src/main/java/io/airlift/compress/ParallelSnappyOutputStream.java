@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.airlift.compress.SnappyInternalUtils.checkArgument;
+import static io.airlift.compress.SnappyInternalUtils.checkNotNull;
+import static io.airlift.compress.SnappyInternalUtils.checkPositionIndexes;
+import static io.airlift.compress.SnappyOutputStream.MAX_BLOCK_SIZE;
+import static io.airlift.compress.SnappyOutputStream.compressBlock;
+import static io.airlift.compress.SnappyOutputStream.STREAM_HEADER;
+import static io.airlift.compress.SnappyOutputStream.writeBlock;
+
+/**
+ * An output stream that writes the same format as {@link SnappyOutputStream},
+ * but checksums and compresses blocks on the threads of an executor.  Full
+ * blocks are handed to the executor as soon as they are filled, and written to
+ * the underlying stream in order by the thread that writes to this stream.
+ * <p/>
+ * At most {@code maxBlocksInFlight} blocks are being compressed or waiting to
+ * be written at any time; a write that would exceed this waits for the oldest
+ * block.  Each block in flight holds about 70KB of buffers, which bounds the
+ * memory used by the stream.
+ * <p/>
+ * For the same sequence of writes and flushes the output is identical to that
+ * of {@link SnappyOutputStream}.  Like other streams, instances must not be
+ * used by several threads at once.
+ */
+public class ParallelSnappyOutputStream
+        extends OutputStream
+{
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int maxBlocksInFlight;
+    private final BufferRecycler recycler;
+    private final Queue<CompressTask> inFlight = new ArrayDeque<CompressTask>();
+
+    private byte[] buffer;
+    private int position;
+    private boolean closed;
+
+    /**
+     * Creates a stream that keeps up to twice as many blocks in flight as there
+     * are processors.
+     */
+    public ParallelSnappyOutputStream(OutputStream out, ExecutorService executor)
+            throws IOException
+    {
+        this(out, executor, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelSnappyOutputStream(OutputStream out, ExecutorService executor, int maxBlocksInFlight)
+            throws IOException
+    {
+        this(out, executor, maxBlocksInFlight, BufferRecycler.instance());
+    }
+
+    ParallelSnappyOutputStream(OutputStream out, ExecutorService executor, int maxBlocksInFlight, BufferRecycler recycler)
+            throws IOException
+    {
+        this.out = checkNotNull(out, "out is null");
+        this.executor = checkNotNull(executor, "executor is null");
+        checkArgument(maxBlocksInFlight > 0, "maxBlocksInFlight must be positive");
+        this.maxBlocksInFlight = maxBlocksInFlight;
+        this.recycler = checkNotNull(recycler, "recycler is null");
+        buffer = recycler.allocBuffer(MAX_BLOCK_SIZE);
+        out.write(STREAM_HEADER);
+    }
+
+    @Override
+    public void write(int b)
+            throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        if (position >= MAX_BLOCK_SIZE) {
+            submitBuffer();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] input, int offset, int length)
+            throws IOException
+    {
+        checkNotNull(input, "input is null");
+        checkPositionIndexes(offset, offset + length, input.length);
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+
+        while (length > 0) {
+            if (position >= MAX_BLOCK_SIZE) {
+                submitBuffer();
+            }
+            // the input must be copied since the caller may reuse it once this method returns
+            int size = Math.min(length, MAX_BLOCK_SIZE - position);
+            System.arraycopy(input, offset, buffer, position, size);
+            position += size;
+            offset += size;
+            length -= size;
+        }
+    }
+
+    @Override
+    public void flush()
+            throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        if (position > 0) {
+            submitBuffer();
+        }
+        while (!inFlight.isEmpty()) {
+            writeOldestBlock();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            out.close();
+        }
+        finally {
+            closed = true;
+            for (CompressTask task : inFlight) {
+                task.abandon();
+            }
+            inFlight.clear();
+            recycler.releaseBuffer(buffer);
+            buffer = null;
+        }
+    }
+
+    private void submitBuffer()
+            throws IOException
+    {
+        while (inFlight.size() >= maxBlocksInFlight) {
+            writeOldestBlock();
+        }
+
+        CompressTask task = new CompressTask(recycler, buffer, position);
+        task.future = executor.submit(task);
+        inFlight.add(task);
+        buffer = recycler.allocBuffer(MAX_BLOCK_SIZE);
+        position = 0;
+
+        // write blocks that are already done, so they do not wait for the next full buffer
+        while (!inFlight.isEmpty() && inFlight.peek().future.isDone()) {
+            writeOldestBlock();
+        }
+    }
+
+    private void writeOldestBlock()
+            throws IOException
+    {
+        CompressedBlock block;
+        try {
+            block = inFlight.peek().future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a block to be compressed");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+        inFlight.remove();
+
+        try {
+            if (block.compressedLength < 0) {
+                writeBlock(out, block.input, 0, block.length, false, block.crc32c);
+            }
+            else {
+                writeBlock(out, block.output, 0, block.compressedLength, true, block.crc32c);
+            }
+        }
+        finally {
+            recycler.releaseBuffer(block.input);
+            recycler.releaseBuffer(block.output);
+        }
+    }
+
+    /**
+     * Compresses one block.  The buffers of a block that is never written are
+     * returned to the pool by whichever of the stream and the task is last to
+     * touch them, as tracked by the state of the task.
+     */
+    private static final class CompressTask
+            implements Callable<CompressedBlock>
+    {
+        private static final int PENDING = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+        private static final int ABANDONED = 3;
+
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private Future<CompressedBlock> future;
+
+        private final BufferRecycler recycler;
+        private final byte[] input;
+        private final int length;
+
+        private CompressTask(BufferRecycler recycler, byte[] input, int length)
+        {
+            this.recycler = recycler;
+            this.input = input;
+            this.length = length;
+        }
+
+        @Override
+        public CompressedBlock call()
+        {
+            if (!state.compareAndSet(PENDING, RUNNING)) {
+                // the stream was closed before the task started and released the input
+                return null;
+            }
+
+            byte[] output = null;
+            CompressedBlock block = null;
+            try {
+                // crc is based on the user supplied input data, and computed while compressing
+                Crc32C checksum = new Crc32C();
+                output = recycler.allocBuffer(Snappy.maxCompressedLength(MAX_BLOCK_SIZE));
+                int compressed = compressBlock(input, 0, length, output, checksum);
+                int crc32c = checksum.getMaskedValue();
+                block = new CompressedBlock(input, length, output, compressed, crc32c);
+                return block;
+            }
+            finally {
+                // release the buffers if the block failed or the stream was closed while it was compressed
+                if (!state.compareAndSet(RUNNING, DONE) || block == null) {
+                    recycler.releaseBuffer(input);
+                    recycler.releaseBuffer(output);
+                }
+            }
+        }
+
+        /**
+         * Gives up on the block after the stream is closed, returning its buffers
+         * to the pool unless the task is still running and will do so itself.
+         */
+        private void abandon()
+        {
+            if (state.compareAndSet(PENDING, ABANDONED)) {
+                future.cancel(false);
+                recycler.releaseBuffer(input);
+                return;
+            }
+            if (state.compareAndSet(RUNNING, ABANDONED)) {
+                return;
+            }
+
+            // the task is done, but the block was never written
+            try {
+                CompressedBlock block = future.get();
+                recycler.releaseBuffer(block.input);
+                recycler.releaseBuffer(block.output);
+            }
+            catch (ExecutionException ignored) {
+                // the block failed, so its task already released the buffers
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class CompressedBlock
+    {
+        private final byte[] input;
+        private final int length;
+        private final byte[] output;
+        private final int compressedLength;
+        private final int crc32c;
+
+        private CompressedBlock(byte[] input, int length, byte[] output, int compressedLength, int crc32c)
+        {
+            this.input = input;
+            this.length = length;
+            this.output = output;
+            this.compressedLength = compressedLength;
+            this.crc32c = crc32c;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import static io.airlift.compress.SnappyInputStream.getCrc32c;
+import static io.airlift.compress.SnappyInputStream.getHeaderCompressedFlag;
+import static io.airlift.compress.SnappyInputStream.getHeaderLength;
+import static io.airlift.compress.SnappyInternalUtils.checkArgument;
+import static io.airlift.compress.SnappyInternalUtils.checkNotNull;
+import static io.airlift.compress.SnappyInternalUtils.checkPositionIndexes;
+import static io.airlift.compress.SnappyOutputStream.MAX_BLOCK_SIZE;
+import static java.lang.Math.min;
+
+/**
+ * Reads the uncompressed data of a Snappy stream stored in a file at any
+ * position.  Only the blocks containing the requested data are read and
+ * decompressed, using the {@link SnappyBlockIndex} stored at the end of files
+ * written by {@link IndexedSnappyOutputStream}.  For other files the index is
+ * built by reading the header of every block when the file is opened.
+ * <p/>
+ * The last block read is kept, so small sequential reads decompress each
+ * block once.  Readers of the same files can also share a
+ * {@link SnappyBlockCache}, which keeps the most recently used blocks of all of
+ * the files.  Reads are synchronized.
+ */
+public class SeekableSnappyInput
+        implements Closeable
+{
+    private final FileChannel channel;
+    private final SnappyBlockIndex index;
+    private final boolean verifyChecksums;
+    private final SnappyBlockCache cache;
+    private final Object fileId;
+    private final BufferRecycler recycler = BufferRecycler.instance();
+    private final byte[] header = new byte[7];
+    private final Crc32C checksum = new Crc32C();
+    private final byte[] input;
+    private final byte[] uncompressed;
+
+    // the block held in buffer
+    private int block = -1;
+    private byte[] buffer;
+    private int valid;
+    private boolean closed;
+
+    public SeekableSnappyInput(FileChannel channel)
+            throws IOException
+    {
+        this(channel, true);
+    }
+
+    public SeekableSnappyInput(FileChannel channel, boolean verifyChecksums)
+            throws IOException
+    {
+        this(channel, readOrScanIndex(checkNotNull(channel, "channel is null")), verifyChecksums);
+    }
+
+    /**
+     * Creates a reader using an existing index for the file, such as one built by
+     * {@link SnappyBlockIndex#scan(FileChannel)} for a file of concatenated
+     * indexed streams, whose stored index only covers the last stream.
+     */
+    public SeekableSnappyInput(FileChannel channel, SnappyBlockIndex index, boolean verifyChecksums)
+    {
+        this(channel, index, verifyChecksums, null, null);
+    }
+
+    /**
+     * Creates a reader that looks up blocks in the cache under the specified
+     * file id before reading them from the file.
+     */
+    public SeekableSnappyInput(FileChannel channel, SnappyBlockIndex index, boolean verifyChecksums, SnappyBlockCache cache, Object fileId)
+    {
+        this.channel = checkNotNull(channel, "channel is null");
+        this.index = checkNotNull(index, "index is null");
+        this.verifyChecksums = verifyChecksums;
+        checkArgument((cache == null) == (fileId == null), "cache and fileId must both be set or both be null");
+        this.cache = cache;
+        this.fileId = fileId;
+        input = recycler.allocBuffer(MAX_BLOCK_SIZE);
+        uncompressed = recycler.allocBuffer(MAX_BLOCK_SIZE);
+    }
+
+    public SnappyBlockIndex getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Returns the length of the uncompressed data.
+     */
+    public long length()
+    {
+        return index.getUncompressedLength();
+    }
+
+    /**
+     * Reads up to {@code length} bytes of the uncompressed data starting at
+     * {@code position}.
+     *
+     * @return the number of bytes read, or -1 if the position is at or past the
+     *         end of the data
+     */
+    public synchronized int read(long position, byte[] output, int offset, int length)
+            throws IOException
+    {
+        checkNotNull(output, "output is null");
+        checkPositionIndexes(offset, offset + length, output.length);
+        checkArgument(position >= 0, "position is negative");
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        if (position >= length()) {
+            return -1;
+        }
+
+        int read = 0;
+        while (read < length && position < length()) {
+            int currentBlock = index.findBlock(position);
+            loadBlock(currentBlock);
+
+            int blockOffset = (int) (position - index.getUncompressedPosition(currentBlock));
+            int size = min(length - read, valid - blockOffset);
+            if (size <= 0 && read < length) {
+                throw new IOException("Corrupt input: block " + currentBlock + " does not contain position " + position);
+            }
+            System.arraycopy(buffer, blockOffset, output, offset + read, size);
+            read += size;
+            position += size;
+        }
+        return read;
+    }
+
+    /**
+     * Reads exactly {@code length} bytes of the uncompressed data starting at
+     * {@code position}.
+     *
+     * @throws EOFException if the data ends before {@code length} bytes are read
+     */
+    public void readFully(long position, byte[] output, int offset, int length)
+            throws IOException
+    {
+        int read = read(position, output, offset, length);
+        if (read < length) {
+            throw new EOFException("encountered EOF while reading data");
+        }
+    }
+
+    @Override
+    public synchronized void close()
+            throws IOException
+    {
+        try {
+            channel.close();
+        }
+        finally {
+            if (!closed) {
+                closed = true;
+                recycler.releaseBuffer(input);
+                recycler.releaseBuffer(uncompressed);
+            }
+        }
+    }
+
+    private void loadBlock(final int block)
+            throws IOException
+    {
+        if (this.block == block) {
+            return;
+        }
+        // invalidate the current block in case decoding fails
+        this.block = -1;
+
+        if (cache == null) {
+            decodeBlock(block);
+        }
+        else {
+            buffer = cache.get(fileId, index.getCompressedPosition(block), new Callable<byte[]>()
+            {
+                @Override
+                public byte[] call()
+                        throws IOException
+                {
+                    decodeBlock(block);
+                    return Arrays.copyOf(buffer, valid);
+                }
+            });
+            valid = buffer.length;
+        }
+        this.block = block;
+    }
+
+    private void decodeBlock(int block)
+            throws IOException
+    {
+        long position = index.getCompressedPosition(block);
+        readFully(ByteBuffer.wrap(header), position);
+        boolean compressed = getHeaderCompressedFlag(header);
+        int length = getHeaderLength(header);
+        readFully(ByteBuffer.wrap(input, 0, length), position + header.length);
+
+        // the checksum of a compressed block is computed while decompressing
+        checksum.reset();
+        if (compressed) {
+            buffer = uncompressed;
+            try {
+                valid = Snappy.uncompress(input, 0, length, uncompressed, 0, verifyChecksums ? checksum : null);
+            }
+            catch (CorruptionException e) {
+                throw new IOException("Corrupt input", e);
+            }
+        }
+        else {
+            buffer = input;
+            valid = length;
+            if (verifyChecksums) {
+                checksum.update(input, 0, length);
+            }
+        }
+
+        long expectedLength = nextUncompressedPosition(block) - index.getUncompressedPosition(block);
+        if (valid != expectedLength) {
+            throw new IOException("Corrupt input: block length does not match index");
+        }
+        if (verifyChecksums && getCrc32c(header) != checksum.getMaskedValue()) {
+            throw new IOException("Corrupt input: invalid checksum");
+        }
+    }
+
+    private long nextUncompressedPosition(int block)
+    {
+        if (block + 1 < index.getBlockCount()) {
+            return index.getUncompressedPosition(block + 1);
+        }
+        return index.getUncompressedLength();
+    }
+
+    private void readFully(ByteBuffer buffer, long position)
+            throws IOException
+    {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            int size = channel.read(buffer, position + buffer.position() - start);
+            if (size == -1) {
+                throw new EOFException("encountered EOF while reading block data");
+            }
+        }
+    }
+
+    private static SnappyBlockIndex readOrScanIndex(FileChannel channel)
+            throws IOException
+    {
+        SnappyBlockIndex index = SnappyBlockIndex.readIndex(channel);
+        if (index == null) {
+            index = SnappyBlockIndex.scan(channel);
+        }
+        return index;
+    }
+}
@@ -17,6 +17,12 @@
  */
 package io.airlift.compress;
 
+import java.nio.Buffer;
+
+/**
+ * Fallback implementation used when {@code sun.misc.Unsafe} is not available.
+ * Only byte arrays are supported, and the address of an element is its index.
+ */
 class SlowMemory implements Memory
 {
     @Override
@@ -25,6 +31,24 @@ class SlowMemory implements Memory
         return false;
     }
 
+    @Override
+    public boolean directBufferAccessSupported()
+    {
+        return false;
+    }
+
+    @Override
+    public long getByteArrayBaseOffset()
+    {
+        return 0;
+    }
+
+    @Override
+    public long getDirectBufferAddress(Buffer buffer)
+    {
+        throw new UnsupportedOperationException("Direct buffers are not supported");
+    }
+
     @Override
     public int lookupShort(short[] data, int index)
     {
@@ -32,14 +56,16 @@ class SlowMemory implements Memory
     }
 
     @Override
-    public int loadByte(byte[] data, int index)
+    public int loadByte(Object base, long address)
     {
-        return data[index] & 0xFF;
+        return ((byte[]) base)[(int) address] & 0xFF;
     }
 
     @Override
-    public int loadInt(byte[] data, int index)
+    public int loadInt(Object base, long address)
     {
+        byte[] data = (byte[]) base;
+        int index = (int) address;
         return (data[index] & 0xff) |
                 (data[index + 1] & 0xff) << 8 |
                 (data[index + 2] & 0xff) << 16 |
@@ -47,16 +73,10 @@ class SlowMemory implements Memory
     }
 
     @Override
-    public void copyLong(byte[] src, int srcIndex, byte[] dest, int destIndex)
-    {
-        for (int i = 0; i < 8; i++) {
-            dest[destIndex + i] = src[srcIndex + i];
-        }
-    }
-
-    @Override
-    public long loadLong(byte[] data, int index)
+    public long loadLong(Object base, long address)
     {
+        byte[] data = (byte[]) base;
+        int index = (int) address;
         return (data[index] & 0xffL) |
                 (data[index + 1] & 0xffL) << 8 |
                 (data[index + 2] & 0xffL) << 16 |
@@ -68,8 +88,26 @@ class SlowMemory implements Memory
     }
 
     @Override
-    public void copyMemory(byte[] input, int inputIndex, byte[] output, int outputIndex, int length)
+    public void storeByte(Object base, long address, int value)
+    {
+        ((byte[]) base)[(int) address] = (byte) value;
+    }
+
+    @Override
+    public void copyLong(Object srcBase, long srcAddress, Object destBase, long destAddress)
+    {
+        byte[] src = (byte[]) srcBase;
+        byte[] dest = (byte[]) destBase;
+        int srcIndex = (int) srcAddress;
+        int destIndex = (int) destAddress;
+        for (int i = 0; i < 8; i++) {
+            dest[destIndex + i] = src[srcIndex + i];
+        }
+    }
+
+    @Override
+    public void copyMemory(Object inputBase, long inputAddress, Object outputBase, long outputAddress, int length)
     {
-        System.arraycopy(input, inputIndex, output, outputIndex, length);
+        System.arraycopy(inputBase, (int) inputAddress, outputBase, (int) outputAddress, length);
     }
 }
@@ -17,8 +17,18 @@
  */
 package io.airlift.compress;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 
+import static io.airlift.compress.SnappyRawCompressor.MAX_HASH_TABLE_SIZE;
+
+/**
+ * Static entry points for Snappy block compression.  These borrow compression
+ * scratch state from the shared {@link BufferRecycler} pool; callers that
+ * compress at a high rate can instead keep their own {@link SnappyCompressor}
+ * and {@link SnappyDecompressor} instances.
+ */
 public final class Snappy
 {
     private Snappy()
@@ -28,24 +38,86 @@ public final class Snappy
     public static int getUncompressedLength(byte[] compressed, int compressedOffset)
             throws CorruptionException
     {
-        return SnappyDecompressor.getUncompressedLength(compressed, compressedOffset);
+        return SnappyRawDecompressor.getUncompressedLength(compressed, compressedOffset);
     }
 
     public static byte[] uncompress(byte[] compressed, int compressedOffset, int compressedSize)
             throws CorruptionException
     {
-        return SnappyDecompressor.uncompress(compressed, compressedOffset, compressedSize);
+        return SnappyRawDecompressor.uncompress(compressed, compressedOffset, compressedSize);
     }
 
     public static int uncompress(byte[] compressed, int compressedOffset, int compressedSize, byte[] uncompressed, int uncompressedOffset)
             throws CorruptionException
     {
-        return SnappyDecompressor.uncompress(compressed, compressedOffset, compressedSize, uncompressed, uncompressedOffset);
+        return SnappyRawDecompressor.uncompress(compressed, compressedOffset, compressedSize, uncompressed, uncompressedOffset);
+    }
+
+    /**
+     * Uncompresses the input and adds the uncompressed data to the checksum, if it
+     * is not null, in a single pass.
+     */
+    static int uncompress(byte[] compressed, int compressedOffset, int compressedSize, byte[] uncompressed, int uncompressedOffset, Crc32C checksum)
+            throws CorruptionException
+    {
+        return SnappyRawDecompressor.uncompress(compressed, compressedOffset, compressedSize, uncompressed, uncompressedOffset, checksum);
+    }
+
+    /**
+     * Reads the uncompressed length from the remaining bytes of a compressed
+     * buffer.  The position of the buffer is not changed.
+     */
+    public static int getUncompressedLength(ByteBuffer compressed)
+            throws CorruptionException
+    {
+        return SnappyRawDecompressor.getUncompressedLength(compressed);
+    }
+
+    /**
+     * Uncompresses the remaining bytes of the compressed buffer into the
+     * uncompressed buffer.  Heap and direct buffers are accessed in place.
+     * On return the position of the compressed buffer is at its limit and the
+     * position of the uncompressed buffer has advanced past the uncompressed data.
+     *
+     * @return the number of uncompressed bytes written
+     */
+    public static int uncompress(ByteBuffer compressed, ByteBuffer uncompressed)
+            throws CorruptionException
+    {
+        return SnappyRawDecompressor.uncompress(compressed, uncompressed);
+    }
+
+    /**
+     * Reads the uncompressed length from compressed data in off-heap memory.
+     * The length can be up to 2^32 - 1 bytes.
+     */
+    public static long getUncompressedLength(long compressedAddress, long compressedLength)
+            throws CorruptionException
+    {
+        return SnappyRawDecompressor.getUncompressedLength(compressedAddress, compressedLength);
+    }
+
+    /**
+     * Uncompresses data in off-heap memory, such as a memory mapped file or a
+     * native {@code MemorySegment} (using its {@code address()} and {@code byteSize()}).
+     * The caller must guarantee both address ranges stay valid during the call.
+     *
+     * @return the number of uncompressed bytes written
+     */
+    public static long uncompress(long compressedAddress, long compressedLength, long uncompressedAddress, long uncompressedLength)
+            throws CorruptionException
+    {
+        return SnappyRawDecompressor.uncompress(compressedAddress, compressedLength, uncompressedAddress, uncompressedLength);
     }
 
     public static int maxCompressedLength(int sourceLength)
     {
-        return SnappyCompressor.maxCompressedLength(sourceLength);
+        return SnappyRawCompressor.maxCompressedLength(sourceLength);
+    }
+
+    public static long maxCompressedLength(long sourceLength)
+    {
+        return SnappyRawCompressor.maxCompressedLength(sourceLength);
     }
 
     public static int compress(
@@ -55,13 +127,174 @@ public final class Snappy
             byte[] compressed,
             int compressedOffset)
     {
-        return SnappyCompressor.compress(uncompressed,
-                uncompressedOffset,
-                uncompressedLength,
-                compressed,
-                compressedOffset);
+        BufferRecycler recycler = BufferRecycler.instance();
+        short[] table = recycler.allocEncodingHash(MAX_HASH_TABLE_SIZE);
+        try {
+            return SnappyRawCompressor.compress(uncompressed,
+                    uncompressedOffset,
+                    uncompressedLength,
+                    compressed,
+                    compressedOffset,
+                    table);
+        }
+        finally {
+            recycler.releaseEncodingHash(table);
+        }
+    }
+
+    /**
+     * Compresses the input and adds it to the checksum in a single pass.
+     */
+    static int compress(
+            byte[] uncompressed,
+            int uncompressedOffset,
+            int uncompressedLength,
+            byte[] compressed,
+            int compressedOffset,
+            Crc32C checksum)
+    {
+        BufferRecycler recycler = BufferRecycler.instance();
+        short[] table = recycler.allocEncodingHash(MAX_HASH_TABLE_SIZE);
+        try {
+            return SnappyRawCompressor.compress(uncompressed,
+                    uncompressedOffset,
+                    uncompressedLength,
+                    compressed,
+                    compressedOffset,
+                    table,
+                    checksum);
+        }
+        finally {
+            recycler.releaseEncodingHash(table);
+        }
+    }
+
+    /**
+     * Compresses the input using the threads of the executor.  The input is split
+     * into groups of whole 32KB fragments which are compressed concurrently, and
+     * the result is identical to {@link #compress(byte[], int, int, byte[], int)}.
+     * The calling thread waits for the tasks, so the executor must not be one
+     * whose threads are all blocked in this call.
+     *
+     * @return the number of compressed bytes written
+     */
+    public static int compressParallel(
+            byte[] uncompressed,
+            int uncompressedOffset,
+            int uncompressedLength,
+            byte[] compressed,
+            int compressedOffset,
+            ExecutorService executor)
+            throws InterruptedException
+    {
+        return SnappyParallelCompressor.compress(uncompressed, uncompressedOffset, uncompressedLength, compressed, compressedOffset, executor);
     }
 
+    /**
+     * Returns the CRC32-C of the data.  The CRC is unmasked, the same value
+     * computed by {@code java.util.zip.CRC32C}; the Snappy framing format
+     * stores the {@link #maskCrc32c(int) masked} value instead.
+     */
+    public static int crc32c(byte[] data, int offset, int length)
+    {
+        SnappyInternalUtils.checkNotNull(data, "data is null");
+        SnappyInternalUtils.checkPositionIndexes(offset, offset + length, data.length);
+        Crc32C crc32c = new Crc32C();
+        crc32c.update(data, offset, length);
+        return crc32c.getIntValue();
+    }
+
+    /**
+     * Returns the unmasked CRC32-C of the data, computed in chunks using the
+     * threads of the executor.  The result is identical to
+     * {@link #crc32c(byte[], int, int)}.
+     */
+    public static int crc32cParallel(byte[] data, int offset, int length, ExecutorService executor)
+            throws InterruptedException
+    {
+        return ParallelCrc32C.crc32c(data, offset, length, executor);
+    }
+
+    /**
+     * Returns the unmasked CRC32-C of the remaining bytes of the buffer,
+     * computed in chunks using the threads of the executor.  The position of
+     * the buffer is not changed.
+     */
+    public static int crc32cParallel(ByteBuffer data, ExecutorService executor)
+            throws InterruptedException
+    {
+        return ParallelCrc32C.crc32c(data, executor);
+    }
+
+    /**
+     * Returns the CRC32-C of the concatenation of two byte sequences, given the
+     * CRC of each sequence and the length of the second one.  Both CRCs and the
+     * result are unmasked; unmask stored CRCs with {@link #unmaskCrc32c(int)}
+     * before combining them.
+     */
+    public static int combineCrc32c(int crcA, int crcB, long lengthB)
+    {
+        return Crc32C.combine(crcA, crcB, lengthB);
+    }
+
+    /**
+     * Returns the masked representation of a CRC32-C, as stored in the
+     * checksums of the Snappy framing format.
+     */
+    public static int maskCrc32c(int crc)
+    {
+        return Crc32C.mask(crc);
+    }
+
+    /**
+     * Returns the CRC32-C whose masked representation is the given value.
+     */
+    public static int unmaskCrc32c(int maskedCrc)
+    {
+        return Crc32C.unmask(maskedCrc);
+    }
+
+    /**
+     * Compresses the remaining bytes of the uncompressed buffer into the compressed
+     * buffer, which must have at least {@link #maxCompressedLength(int)} bytes
+     * remaining.  Heap and direct buffers are accessed in place.  On return the
+     * position of the uncompressed buffer is at its limit and the position of the
+     * compressed buffer has advanced past the compressed data.
+     *
+     * @return the number of compressed bytes written
+     */
+    public static int compress(ByteBuffer uncompressed, ByteBuffer compressed)
+    {
+        BufferRecycler recycler = BufferRecycler.instance();
+        short[] table = recycler.allocEncodingHash(MAX_HASH_TABLE_SIZE);
+        try {
+            return SnappyRawCompressor.compress(uncompressed, compressed, table);
+        }
+        finally {
+            recycler.releaseEncodingHash(table);
+        }
+    }
+
+    /**
+     * Compresses data in off-heap memory, such as a memory mapped file or a
+     * native {@code MemorySegment} (using its {@code address()} and {@code byteSize()}).
+     * The input can be up to 2^32 - 1 bytes, and the output must have space for
+     * {@link #maxCompressedLength(long)} bytes.  The caller must guarantee both
+     * address ranges stay valid during the call.
+     *
+     * @return the number of compressed bytes written
+     */
+    public static long compress(long uncompressedAddress, long uncompressedLength, long compressedAddress, long compressedLength)
+    {
+        BufferRecycler recycler = BufferRecycler.instance();
+        short[] table = recycler.allocEncodingHash(MAX_HASH_TABLE_SIZE);
+        try {
+            return SnappyRawCompressor.compress(uncompressedAddress, uncompressedLength, compressedAddress, compressedLength, table);
+        }
+        finally {
+            recycler.releaseEncodingHash(table);
+        }
+    }
 
     public static byte[] compress( byte[] data) {
         byte[] compressedOut = new byte[maxCompressedLength(data.length)];
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.airlift.compress.SnappyInternalUtils.checkArgument;
+import static io.airlift.compress.SnappyInternalUtils.checkNotNull;
+
+/**
+ * Cache of decompressed blocks, shared by the {@link SeekableSnappyInput}s
+ * reading a set of files.  Blocks are keyed by a caller supplied file id and
+ * the position of the block in the file, and the least recently used blocks
+ * are evicted when the total size of the cached blocks exceeds the limit.
+ * <p/>
+ * A block is loaded at most once at a time: threads requesting a block that
+ * another thread is loading wait for that load instead of decompressing the
+ * block again.  Such requests count as hits.
+ * <p/>
+ * Cached blocks are shared and must not be modified.
+ */
+public final class SnappyBlockCache
+{
+    private final long maxBytes;
+
+    // guarded by itself
+    private final LinkedHashMap<BlockKey, byte[]> blocks = new LinkedHashMap<BlockKey, byte[]>(16, 0.75f, true);
+    private long cachedBytes;
+
+    private final ConcurrentMap<BlockKey, BlockLoad> loading = new ConcurrentHashMap<BlockKey, BlockLoad>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public SnappyBlockCache(long maxBytes)
+    {
+        checkArgument(maxBytes >= 0, "maxBytes is negative");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached block, or loads it with the loader and caches it.
+     */
+    public byte[] get(Object fileId, long blockPosition, Callable<byte[]> loader)
+            throws IOException
+    {
+        checkNotNull(fileId, "fileId is null");
+        checkNotNull(loader, "loader is null");
+        BlockKey key = new BlockKey(fileId, blockPosition);
+
+        byte[] block = getIfPresent(key);
+        if (block != null) {
+            hits.incrementAndGet();
+            return block;
+        }
+
+        BlockLoad load = new BlockLoad(key, loader);
+        BlockLoad existing = loading.putIfAbsent(key, load);
+        if (existing != null) {
+            hits.incrementAndGet();
+            load = existing;
+        }
+        else {
+            try {
+                load.task.run();
+            }
+            finally {
+                loading.remove(key, load);
+            }
+        }
+
+        try {
+            return load.task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a block to be loaded");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Removes the blocks of the specified file.  Blocks of the file that are
+     * being loaded are returned to the threads waiting for them, but are not
+     * cached, and later requests load the blocks again.
+     */
+    public void invalidate(Object fileId)
+    {
+        checkNotNull(fileId, "fileId is null");
+        synchronized (blocks) {
+            for (Iterator<Map.Entry<BlockKey, byte[]>> iterator = blocks.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<BlockKey, byte[]> entry = iterator.next();
+                if (entry.getKey().fileId.equals(fileId)) {
+                    cachedBytes -= entry.getValue().length;
+                    iterator.remove();
+                }
+            }
+            for (Iterator<BlockLoad> iterator = loading.values().iterator(); iterator.hasNext(); ) {
+                BlockLoad load = iterator.next();
+                if (load.key.fileId.equals(fileId)) {
+                    load.invalidated = true;
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public void invalidateAll()
+    {
+        synchronized (blocks) {
+            blocks.clear();
+            cachedBytes = 0;
+            for (Iterator<BlockLoad> iterator = loading.values().iterator(); iterator.hasNext(); ) {
+                iterator.next().invalidated = true;
+                iterator.remove();
+            }
+        }
+    }
+
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the total size of the cached blocks.
+     */
+    public long getCachedBytes()
+    {
+        synchronized (blocks) {
+            return cachedBytes;
+        }
+    }
+
+    public int getBlockCount()
+    {
+        synchronized (blocks) {
+            return blocks.size();
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    private byte[] getIfPresent(BlockKey key)
+    {
+        synchronized (blocks) {
+            return blocks.get(key);
+        }
+    }
+
+    private void put(BlockLoad load, byte[] block)
+    {
+        if (block.length > maxBytes) {
+            return;
+        }
+        synchronized (blocks) {
+            if (load.invalidated) {
+                return;
+            }
+            byte[] previous = blocks.put(load.key, block);
+            if (previous != null) {
+                cachedBytes -= previous.length;
+            }
+            cachedBytes += block.length;
+
+            Iterator<byte[]> iterator = blocks.values().iterator();
+            while (cachedBytes > maxBytes) {
+                cachedBytes -= iterator.next().length;
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Loads a block once for all the threads requesting it.
+     */
+    private final class BlockLoad
+            implements Callable<byte[]>
+    {
+        private final BlockKey key;
+        private final Callable<byte[]> loader;
+        private final FutureTask<byte[]> task = new FutureTask<byte[]>(this);
+
+        // set when the file is invalidated during the load; guarded by blocks
+        private boolean invalidated;
+
+        private BlockLoad(BlockKey key, Callable<byte[]> loader)
+        {
+            this.key = key;
+            this.loader = loader;
+        }
+
+        @Override
+        public byte[] call()
+                throws Exception
+        {
+            // the block may have been loaded since the lookup in get
+            byte[] block = getIfPresent(key);
+            if (block != null) {
+                hits.incrementAndGet();
+                return block;
+            }
+            misses.incrementAndGet();
+            block = checkNotNull(loader.call(), "loader returned null");
+            put(this, block);
+            return block;
+        }
+    }
+
+    private static final class BlockKey
+    {
+        private final Object fileId;
+        private final long blockPosition;
+
+        private BlockKey(Object fileId, long blockPosition)
+        {
+            this.fileId = fileId;
+            this.blockPosition = blockPosition;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return blockPosition == other.blockPosition && fileId.equals(other.fileId);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * fileId.hashCode() + (int) (blockPosition ^ (blockPosition >>> 32));
+        }
+    }
+}
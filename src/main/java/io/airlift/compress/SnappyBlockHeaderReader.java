@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static io.airlift.compress.SnappyInputStream.getHeaderCompressedFlag;
+import static io.airlift.compress.SnappyInputStream.getHeaderLength;
+import static io.airlift.compress.SnappyInputStream.skipInput;
+import static io.airlift.compress.SnappyOutputStream.LARGE_BLOCK_STREAM_VERSION;
+import static io.airlift.compress.SnappyOutputStream.MAX_BLOCK_SIZE;
+import static io.airlift.compress.SnappyOutputStream.MAX_LARGE_BLOCK_SIZE;
+import static io.airlift.compress.SnappyOutputStream.MIN_LARGE_BLOCK_SIZE;
+import static io.airlift.compress.SnappyOutputStream.STREAM_HEADER;
+
+/**
+ * Reads the block headers of a stream in either version of the format written
+ * by {@link SnappyOutputStream}.  The stream headers of concatenated streams,
+ * which may change the version and block size, and block indexes are consumed
+ * by {@link #next()}, so the caller only sees data blocks.
+ */
+final class SnappyBlockHeaderReader
+{
+    // the longest header is that of a block index: block header and block count
+    private static final int INDEX_HEADER_SIZE = 11;
+
+    private final InputStream in;
+    private final byte[] header = new byte[INDEX_HEADER_SIZE];
+    private int filled;
+
+    private boolean largeBlocks;
+    private int maxBlockSize = MAX_BLOCK_SIZE;
+
+    private boolean compressed;
+    private int length;
+    private int crc32c;
+
+    SnappyBlockHeaderReader(InputStream in)
+    {
+        this.in = in;
+    }
+
+    /**
+     * Reads the stream header which must begin the stream.
+     */
+    void readStreamHeader()
+            throws IOException
+    {
+        filled = 0;
+        if (!fill(STREAM_HEADER.length, "stream header")) {
+            throw new EOFException("encountered EOF while reading stream header");
+        }
+        handleStreamHeader();
+    }
+
+    /**
+     * Reads the header of the next data block.
+     *
+     * @return false if the stream ended cleanly before the header
+     */
+    boolean next()
+            throws IOException
+    {
+        while (true) {
+            filled = 0;
+            if (!fill(largeBlocks ? 6 : 7, "block header")) {
+                return false;
+            }
+
+            int flag = header[0] & 0xFF;
+            if (flag == STREAM_HEADER[0]) {
+                // concatenated streams
+                fill(STREAM_HEADER.length, "stream header");
+                handleStreamHeader();
+                continue;
+            }
+            if (flag == SnappyBlockIndex.INDEX_BLOCK_FLAG) {
+                // skip the block index written by IndexedSnappyOutputStream
+                fill(INDEX_HEADER_SIZE, "block header");
+                int blockCount = getInt(header, 7);
+                if (blockCount < 0) {
+                    throw new IOException("invalid block count in index: " + blockCount);
+                }
+                skipInput(in, SnappyBlockIndex.getIndexBlockSize(blockCount) - INDEX_HEADER_SIZE);
+                continue;
+            }
+
+            compressed = getHeaderCompressedFlag(header);
+            if (largeBlocks) {
+                int offset = readVarintLength();
+                fill(offset + 4, "block header");
+                crc32c = getInt(header, offset);
+            }
+            else {
+                length = getHeaderLength(header);
+                crc32c = getInt(header, 3);
+            }
+            return true;
+        }
+    }
+
+    boolean isCompressed()
+    {
+        return compressed;
+    }
+
+    /**
+     * Returns the length of the block data in the stream.
+     */
+    int getLength()
+    {
+        return length;
+    }
+
+    int getCrc32c()
+    {
+        return crc32c;
+    }
+
+    /**
+     * Returns the largest block that can follow in the current stream, compressed
+     * or uncompressed.
+     */
+    int getMaxBlockSize()
+    {
+        return maxBlockSize;
+    }
+
+    private void handleStreamHeader()
+            throws IOException
+    {
+        for (int i = 0; i < STREAM_HEADER.length - 1; i++) {
+            if (header[i] != STREAM_HEADER[i]) {
+                throw new IOException("invalid stream header");
+            }
+        }
+        int version = header[STREAM_HEADER.length - 1];
+        if (version == 0) {
+            largeBlocks = false;
+            maxBlockSize = MAX_BLOCK_SIZE;
+        }
+        else if (version == LARGE_BLOCK_STREAM_VERSION) {
+            fill(STREAM_HEADER.length + 1, "stream header");
+            int shift = header[STREAM_HEADER.length];
+            if (shift < Integer.numberOfTrailingZeros(MIN_LARGE_BLOCK_SIZE) || shift > Integer.numberOfTrailingZeros(MAX_LARGE_BLOCK_SIZE)) {
+                throw new IOException("invalid block size in stream header: " + shift);
+            }
+            largeBlocks = true;
+            maxBlockSize = 1 << shift;
+        }
+        else {
+            throw new IOException("invalid stream header");
+        }
+    }
+
+    /**
+     * Reads the varint length following the flag, and returns the offset of the
+     * byte after it.
+     */
+    private int readVarintLength()
+            throws IOException
+    {
+        // a four byte varint holds 28 bits, more than the largest block size
+        int result = 0;
+        int offset = 1;
+        for (int shift = 0; shift < 28; shift += 7) {
+            fill(offset + 1, "block header");
+            int b = header[offset++] & 0xFF;
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (result <= 0 || result > maxBlockSize) {
+                    throw new IOException("invalid block size in header: " + result);
+                }
+                length = result;
+                return offset;
+            }
+        }
+        throw new IOException("invalid block size in header: varint too long");
+    }
+
+    /**
+     * Reads until the header holds the specified number of bytes.
+     *
+     * @return false if the stream ended before the first byte of the header
+     */
+    private boolean fill(int size, String description)
+            throws IOException
+    {
+        while (filled < size) {
+            int bytes = in.read(header, filled, size - filled);
+            if (bytes == -1) {
+                if (filled == 0) {
+                    return false;
+                }
+                throw new EOFException("encountered EOF while reading " + description);
+            }
+            filled += bytes;
+        }
+        return true;
+    }
+
+    private static int getInt(byte[] bytes, int offset)
+    {
+        return ((bytes[offset] & 0xFF) << 24) |
+                ((bytes[offset + 1] & 0xFF) << 16) |
+                ((bytes[offset + 2] & 0xFF) << 8) |
+                (bytes[offset + 3] & 0xFF);
+    }
+}
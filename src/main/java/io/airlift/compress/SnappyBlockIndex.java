@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static io.airlift.compress.SnappyOutputStream.LARGE_BLOCK_STREAM_VERSION;
+import static io.airlift.compress.SnappyOutputStream.MAX_BLOCK_SIZE;
+import static io.airlift.compress.SnappyOutputStream.STREAM_HEADER;
+
+/**
+ * The positions of the blocks of a Snappy stream, both in the stream and in
+ * the uncompressed data, which allows reading from any position without
+ * decompressing the preceding blocks.
+ * <p/>
+ * An index is either read from the end of a stream written by
+ * {@link IndexedSnappyOutputStream}, or built for any stream with 32k blocks by
+ * {@link #scan(FileChannel)}.  The index is stored as a block with the flag
+ * 0x02, which readers of the stream skip, followed by a fixed size trailer:
+ * <pre>
+ * index block := flag (0x02), two zero bytes, masked crc32c of the payload,
+ *                payload, index block position (8 bytes), magic (8 bytes)
+ * payload     := block count (4 bytes),
+ *                (compressed position (8 bytes), uncompressed position (8 bytes)) * block count,
+ *                uncompressed length (8 bytes)
+ * </pre>
+ * All numbers are big endian.
+ */
+public final class SnappyBlockIndex
+{
+    static final int INDEX_BLOCK_FLAG = 0x02;
+    static final long INDEX_MAGIC = 0x734e61507059695aL; // "sNaPpYiZ"
+    static final int TRAILER_SIZE = 16;
+
+    private static final int HEADER_SIZE = 7;
+
+    private final long[] compressedPositions;
+    private final long[] uncompressedPositions;
+    private final long uncompressedLength;
+
+    SnappyBlockIndex(long[] compressedPositions, long[] uncompressedPositions, long uncompressedLength)
+    {
+        this.compressedPositions = compressedPositions;
+        this.uncompressedPositions = uncompressedPositions;
+        this.uncompressedLength = uncompressedLength;
+    }
+
+    public int getBlockCount()
+    {
+        return compressedPositions.length;
+    }
+
+    /**
+     * Returns the position of the header of the block in the stream.
+     */
+    public long getCompressedPosition(int block)
+    {
+        return compressedPositions[block];
+    }
+
+    /**
+     * Returns the position of the first byte of the block in the uncompressed data.
+     */
+    public long getUncompressedPosition(int block)
+    {
+        return uncompressedPositions[block];
+    }
+
+    public long getUncompressedLength()
+    {
+        return uncompressedLength;
+    }
+
+    /**
+     * Returns the block containing the specified position of the uncompressed
+     * data, or -1 if the position is outside of the data.
+     */
+    public int findBlock(long uncompressedPosition)
+    {
+        if (uncompressedPosition < 0 || uncompressedPosition >= uncompressedLength) {
+            return -1;
+        }
+        int block = Arrays.binarySearch(uncompressedPositions, uncompressedPosition);
+        if (block < 0) {
+            // the insertion point is the block after the one containing the position
+            block = -block - 2;
+        }
+        return block;
+    }
+
+    /**
+     * Builds the index of a stream by reading the header of each block, and for
+     * compressed blocks the uncompressed length at the start of the data.
+     */
+    public static SnappyBlockIndex scan(FileChannel channel)
+            throws IOException
+    {
+        Builder builder = new Builder();
+        long size = channel.size();
+
+        // block header followed by the longest possible uncompressed length
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 5);
+        byte[] header = buffer.array();
+
+        readFully(channel, buffer, 0, STREAM_HEADER.length);
+        if (!isStreamHeader(header)) {
+            throw new IOException("invalid stream header");
+        }
+
+        long position = STREAM_HEADER.length;
+        long uncompressedPosition = 0;
+        while (position < size) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), size - position));
+            readFully(channel, buffer, position, buffer.limit());
+            if (buffer.limit() < HEADER_SIZE) {
+                throw new EOFException("encountered EOF while reading block header");
+            }
+
+            // concatenated streams
+            if (isStreamHeader(header)) {
+                position += STREAM_HEADER.length;
+                continue;
+            }
+            if ((header[0] & 0xFF) == INDEX_BLOCK_FLAG) {
+                if (buffer.limit() < HEADER_SIZE + 4) {
+                    throw new EOFException("encountered EOF while reading index block");
+                }
+                // a negative count would move the scan backwards
+                int blockCount = buffer.getInt(HEADER_SIZE);
+                if (blockCount < 0) {
+                    throw new IOException("Corrupt index: invalid block count " + blockCount);
+                }
+                position += getIndexBlockSize(blockCount);
+                continue;
+            }
+
+            boolean compressed = SnappyInputStream.getHeaderCompressedFlag(header);
+            int length = SnappyInputStream.getHeaderLength(header);
+            if (position + HEADER_SIZE + length > size) {
+                throw new EOFException("encountered EOF while reading block data");
+            }
+
+            int blockLength = length;
+            if (compressed) {
+                int lengthBytes = Math.min(length, buffer.limit() - HEADER_SIZE);
+                blockLength = SnappyInputStream.getUncompressedBlockLength(header, HEADER_SIZE, lengthBytes, MAX_BLOCK_SIZE);
+            }
+            if (blockLength == 0) {
+                // the writers never produce empty blocks, and reads could not advance past one
+                throw new IOException("Corrupt input: empty block at position " + position);
+            }
+
+            builder.add(position, uncompressedPosition);
+            position += HEADER_SIZE + length;
+            uncompressedPosition += blockLength;
+        }
+        return builder.build(uncompressedPosition);
+    }
+
+    private static boolean isStreamHeader(byte[] header)
+            throws IOException
+    {
+        if (Arrays.equals(Arrays.copyOf(header, STREAM_HEADER.length), STREAM_HEADER)) {
+            return true;
+        }
+        if (Arrays.equals(Arrays.copyOf(header, STREAM_HEADER.length - 1), Arrays.copyOf(STREAM_HEADER, STREAM_HEADER.length - 1)) &&
+                header[STREAM_HEADER.length - 1] == LARGE_BLOCK_STREAM_VERSION) {
+            throw new IOException("streams with large blocks can not be indexed");
+        }
+        return false;
+    }
+
+    /**
+     * Reads the index stored at the end of the file, or returns null if the file
+     * does not end with an index.
+     */
+    static SnappyBlockIndex readIndex(FileChannel channel)
+            throws IOException
+    {
+        long size = channel.size();
+        if (size < STREAM_HEADER.length + HEADER_SIZE + 12 + TRAILER_SIZE) {
+            return null;
+        }
+
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, size - TRAILER_SIZE, TRAILER_SIZE);
+        if (trailer.getLong(8) != INDEX_MAGIC) {
+            return null;
+        }
+
+        long indexPosition = trailer.getLong(0);
+        long indexSize = size - TRAILER_SIZE - indexPosition;
+        if (indexPosition < STREAM_HEADER.length || indexSize < HEADER_SIZE + 12 || indexSize > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt index: invalid index position " + indexPosition);
+        }
+
+        ByteBuffer index = ByteBuffer.allocate((int) indexSize);
+        readFully(channel, index, indexPosition, (int) indexSize);
+        if ((index.get(0) & 0xFF) != INDEX_BLOCK_FLAG) {
+            throw new IOException("Corrupt index: invalid index block flag");
+        }
+        int blockCount = index.getInt(HEADER_SIZE);
+        if (blockCount < 0 || getIndexBlockSize(blockCount) != indexSize + TRAILER_SIZE) {
+            throw new IOException("Corrupt index: invalid block count " + blockCount);
+        }
+        if (index.getInt(3) != Crc32C.maskedCrc32c(index.array(), HEADER_SIZE, (int) indexSize - HEADER_SIZE)) {
+            throw new IOException("Corrupt index: invalid checksum");
+        }
+
+        long[] compressedPositions = new long[blockCount];
+        long[] uncompressedPositions = new long[blockCount];
+        index.position(HEADER_SIZE + 4);
+        for (int i = 0; i < blockCount; i++) {
+            compressedPositions[i] = index.getLong();
+            uncompressedPositions[i] = index.getLong();
+        }
+        long uncompressedLength = index.getLong();
+
+        // every block must hold data, or reads could not advance past it
+        long previous = -1;
+        for (int i = 0; i < blockCount; i++) {
+            if (uncompressedPositions[i] <= previous || compressedPositions[i] < STREAM_HEADER.length || compressedPositions[i] >= indexPosition) {
+                throw new IOException("Corrupt index: invalid position of block " + i);
+            }
+            previous = uncompressedPositions[i];
+        }
+        if (uncompressedLength <= previous || (blockCount == 0 && uncompressedLength != 0)) {
+            throw new IOException("Corrupt index: invalid uncompressed length " + uncompressedLength);
+        }
+        return new SnappyBlockIndex(compressedPositions, uncompressedPositions, uncompressedLength);
+    }
+
+    /**
+     * Writes this index as an index block followed by the trailer.
+     */
+    void writeTo(OutputStream out, long indexPosition)
+            throws IOException
+    {
+        int blockCount = getBlockCount();
+        ByteBuffer index = ByteBuffer.allocate((int) getIndexBlockSize(blockCount));
+        index.put((byte) INDEX_BLOCK_FLAG);
+        index.putShort((short) 0);
+        index.putInt(0);
+        index.putInt(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            index.putLong(compressedPositions[i]);
+            index.putLong(uncompressedPositions[i]);
+        }
+        index.putLong(uncompressedLength);
+        index.putInt(3, Crc32C.maskedCrc32c(index.array(), HEADER_SIZE, index.position() - HEADER_SIZE));
+
+        index.putLong(indexPosition);
+        index.putLong(INDEX_MAGIC);
+        out.write(index.array(), 0, index.position());
+    }
+
+    /**
+     * Returns the size of an index block including the trailer.
+     */
+    static long getIndexBlockSize(int blockCount)
+    {
+        return HEADER_SIZE + 4 + 16L * blockCount + 8 + TRAILER_SIZE;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length)
+            throws IOException
+    {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            int size = channel.read(buffer, position + buffer.position());
+            if (size == -1) {
+                throw new EOFException("encountered EOF while reading " + channel);
+            }
+        }
+    }
+
+    static final class Builder
+    {
+        private long[] compressedPositions = new long[64];
+        private long[] uncompressedPositions = new long[64];
+        private int blockCount;
+
+        void add(long compressedPosition, long uncompressedPosition)
+        {
+            if (blockCount == compressedPositions.length) {
+                compressedPositions = Arrays.copyOf(compressedPositions, blockCount * 2);
+                uncompressedPositions = Arrays.copyOf(uncompressedPositions, blockCount * 2);
+            }
+            compressedPositions[blockCount] = compressedPosition;
+            uncompressedPositions[blockCount] = uncompressedPosition;
+            blockCount++;
+        }
+
+        SnappyBlockIndex build(long uncompressedLength)
+        {
+            return new SnappyBlockIndex(
+                    Arrays.copyOf(compressedPositions, blockCount),
+                    Arrays.copyOf(uncompressedPositions, blockCount),
+                    uncompressedLength);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+
+import static io.airlift.compress.SnappyInternalUtils.BYTE_ARRAY_OFFSET;
+import static io.airlift.compress.SnappyInternalUtils.checkArgument;
+import static io.airlift.compress.SnappyInternalUtils.checkOffHeapAccessSupported;
+import static io.airlift.compress.SnappyInternalUtils.checkPositionIndexes;
+import static io.airlift.compress.SnappyInternalUtils.getBufferAddress;
+import static io.airlift.compress.SnappyInternalUtils.getBufferBase;
+import static io.airlift.compress.SnappyInternalUtils.isAddressable;
+import static io.airlift.compress.SnappyInternalUtils.loadByte;
+import static io.airlift.compress.SnappyInternalUtils.loadInt;
+import static io.airlift.compress.SnappyRawCompressor.BLOCK_SIZE;
+import static io.airlift.compress.SnappyRawCompressor.INPUT_MARGIN_BYTES;
+import static io.airlift.compress.SnappyRawCompressor.MAX_HASH_TABLE_SIZE;
+import static io.airlift.compress.SnappyRawCompressor.MAX_UNCOMPRESSED_LENGTH;
+import static io.airlift.compress.SnappyRawCompressor.checkOutputSize;
+import static io.airlift.compress.SnappyRawCompressor.emitCopy;
+import static io.airlift.compress.SnappyRawCompressor.emitLiteral;
+import static io.airlift.compress.SnappyRawCompressor.findMatchLength;
+import static io.airlift.compress.SnappyRawCompressor.getHashTableSize;
+import static io.airlift.compress.SnappyRawCompressor.hashBytes;
+import static io.airlift.compress.SnappyRawCompressor.log2Floor;
+import static io.airlift.compress.SnappyRawCompressor.maxCompressedLength;
+import static io.airlift.compress.SnappyRawCompressor.writeUncompressedLength;
+
+/**
+ * Compresses to the standard Snappy format more slowly than
+ * {@link SnappyRawCompressor}, for a better compression ratio.  Instead of
+ * one position per hash, every position of a fragment is kept in a chain
+ * of the earlier positions with the same hash, and the longest match among
+ * the most recent ones is used.  With lazy matching, a match is deferred by
+ * one byte when a longer match starts at the next byte.
+ * <p/>
+ * The output is split into 32KB fragments like that of the fast compressor,
+ * so it can be read by any Snappy decoder.  Instances hold the hash chains,
+ * and are not thread safe.
+ */
+final class SnappyHighCompressor
+{
+    static final int MIN_LEVEL = 2;
+    static final int MAX_LEVEL = 9;
+
+    private static final int MIN_MATCH_LENGTH = 4;
+
+    // a copy element holds at most 64 bytes, so below the top level no longer match is searched for
+    private static final int NICE_MATCH_LENGTH = 64;
+
+    private static final short NO_POSITION = -1;
+
+    // after no match is found for each 1 << SKIP_SHIFT bytes, one more position is skipped
+    private static final int SKIP_SHIFT = 8;
+
+    private final int maxChainLength;
+    private final boolean lazy;
+    private final int niceMatchLength;
+
+    // the most recent position with each hash, and the previous position with the same hash as each position
+    private final short[] head = new short[MAX_HASH_TABLE_SIZE];
+    private final short[] chain = new short[BLOCK_SIZE];
+
+    // offset of the match found by the last call to findLongestMatch
+    private int matchOffset;
+
+    /**
+     * Level 2 searches 4 positions per hash, and each level above it twice as
+     * many, with lazy matching, up to level 8.  Level 9 searches 4096
+     * positions per hash, for matches of any length.
+     */
+    SnappyHighCompressor(int level)
+    {
+        checkArgument(level >= MIN_LEVEL && level <= MAX_LEVEL, "level must be between %s and %s: %s", MIN_LEVEL, MAX_LEVEL, level);
+        maxChainLength = level == MAX_LEVEL ? 4096 : 1 << level;
+        lazy = level > MIN_LEVEL;
+        niceMatchLength = level == MAX_LEVEL ? BLOCK_SIZE : NICE_MATCH_LENGTH;
+    }
+
+    public int compress(byte[] uncompressed, int uncompressedOffset, int uncompressedLength, byte[] compressed, int compressedOffset)
+    {
+        checkPositionIndexes(uncompressedOffset, uncompressedOffset + uncompressedLength, uncompressed.length);
+        checkPositionIndexes(compressedOffset, compressedOffset, compressed.length);
+        checkOutputSize(uncompressedLength, compressed.length - compressedOffset);
+
+        return (int) compress(
+                uncompressed,
+                BYTE_ARRAY_OFFSET + uncompressedOffset,
+                uncompressedLength,
+                compressed,
+                BYTE_ARRAY_OFFSET + compressedOffset);
+    }
+
+    /**
+     * Compresses the remaining bytes of the uncompressed buffer into the compressed
+     * buffer.  See {@link SnappyRawCompressor#compress(ByteBuffer, ByteBuffer, short[])}.
+     */
+    public int compress(ByteBuffer uncompressed, ByteBuffer compressed)
+    {
+        if (compressed.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        int uncompressedLength = uncompressed.remaining();
+        checkOutputSize(uncompressedLength, compressed.remaining());
+
+        if (!isAddressable(uncompressed) || !isAddressable(compressed)) {
+            byte[] input = new byte[uncompressedLength];
+            uncompressed.get(input);
+            byte[] output = new byte[maxCompressedLength(uncompressedLength)];
+            int compressedSize = compress(input, 0, uncompressedLength, output, 0);
+            compressed.put(output, 0, compressedSize);
+            return compressedSize;
+        }
+
+        int compressedSize = (int) compress(
+                getBufferBase(uncompressed),
+                getBufferAddress(uncompressed),
+                uncompressedLength,
+                getBufferBase(compressed),
+                getBufferAddress(compressed));
+
+        uncompressed.position(uncompressed.limit());
+        compressed.position(compressed.position() + compressedSize);
+        return compressedSize;
+    }
+
+    /**
+     * Compresses off-heap memory.  See {@link SnappyRawCompressor#compress(long, long, long, long, short[])}.
+     */
+    public long compress(long inputAddress, long inputLength, long outputAddress, long outputLength)
+    {
+        checkOffHeapAccessSupported();
+        if (inputLength < 0 || inputLength > MAX_UNCOMPRESSED_LENGTH) {
+            throw new IllegalArgumentException(String.format("Input length %s must be between 0 and %s", inputLength, MAX_UNCOMPRESSED_LENGTH));
+        }
+        long required = maxCompressedLength(inputLength);
+        if (outputLength < required) {
+            throw new IllegalArgumentException(String.format("Output buffer must be at least %s bytes, but is %s bytes", required, outputLength));
+        }
+
+        return compress(null, inputAddress, inputLength, null, outputAddress);
+    }
+
+    private long compress(Object inputBase, long inputAddress, long inputLength, Object outputBase, long outputAddress)
+    {
+        long output = writeUncompressedLength(outputBase, outputAddress, inputLength);
+        for (long read = 0; read < inputLength; read += BLOCK_SIZE) {
+            int fragmentSize = (int) Math.min(inputLength - read, BLOCK_SIZE);
+            output = compressFragment(inputBase, inputAddress + read, fragmentSize, outputBase, output);
+        }
+        return output - outputAddress;
+    }
+
+    private long compressFragment(Object inputBase, long inputAddress, int inputSize, Object outputBase, long output)
+    {
+        int hashTableSize = getHashTableSize(inputSize);
+        int shift = 32 - log2Floor(hashTableSize);
+        Arrays.fill(head, 0, hashTableSize, NO_POSITION);
+
+        // bytes in [nextEmit, position) will be emitted as a literal
+        int nextEmit = 0;
+
+        if (inputSize >= INPUT_MARGIN_BYTES) {
+            // like the fast compressor, stop looking for matches near the end,
+            // so literals can be copied 16 bytes at a time
+            int positionLimit = inputSize - INPUT_MARGIN_BYTES;
+
+            // positions before this one have been added to the hash chains
+            int inserted = 0;
+
+            int position = 0;
+            while (position < positionLimit) {
+                inserted = insert(inputBase, inputAddress, inserted, position, shift);
+                int matchLength = findLongestMatch(inputBase, inputAddress, position, inputSize, shift);
+                if (matchLength < MIN_MATCH_LENGTH) {
+                    // like the fast compressor, look at fewer positions the longer no match is found,
+                    // but much more slowly, and only add the positions looked at to the hash chains
+                    insert(inputBase, inputAddress, position, position + 1, shift);
+                    position += 1 + ((position - nextEmit) >>> SKIP_SHIFT);
+                    inserted = position;
+                    continue;
+                }
+                int offset = matchOffset;
+
+                // a longer match at the next position is worth emitting this byte as a literal
+                while (lazy && matchLength < niceMatchLength && position + 1 < positionLimit) {
+                    inserted = insert(inputBase, inputAddress, inserted, position + 1, shift);
+                    int nextMatchLength = findLongestMatch(inputBase, inputAddress, position + 1, inputSize, shift);
+                    if (nextMatchLength <= matchLength) {
+                        break;
+                    }
+                    position++;
+                    matchLength = nextMatchLength;
+                    offset = matchOffset;
+                }
+
+                if (nextEmit < position) {
+                    output = emitLiteral(outputBase, output, inputBase, inputAddress + nextEmit, position - nextEmit, true);
+                }
+                output = emitCopy(outputBase, output, offset, matchLength);
+                position += matchLength;
+                nextEmit = position;
+            }
+        }
+
+        if (nextEmit < inputSize) {
+            output = emitLiteral(outputBase, output, inputBase, inputAddress + nextEmit, inputSize - nextEmit, false);
+        }
+        return output;
+    }
+
+    /**
+     * Adds the positions from start up to end to the hash chains, and returns end.
+     */
+    private int insert(Object inputBase, long inputAddress, int start, int end, int shift)
+    {
+        for (int position = start; position < end; position++) {
+            int hash = hashBytes(loadInt(inputBase, inputAddress + position), shift);
+            chain[position] = head[hash];
+            head[hash] = (short) position;
+        }
+        return Math.max(start, end);
+    }
+
+    /**
+     * Returns the length of the longest match for the bytes at position among
+     * the earlier positions in its hash chain, and sets matchOffset to the
+     * distance to the nearest match of that length.  Returns 0 if there is no
+     * match of at least four bytes.
+     */
+    private int findLongestMatch(Object inputBase, long inputAddress, int position, int inputSize, int shift)
+    {
+        long current = inputAddress + position;
+        long inputEnd = inputAddress + inputSize;
+        int currentInt = loadInt(inputBase, current);
+        int maxMatchLength = Math.min(niceMatchLength, inputSize - position);
+
+        int bestLength = 0;
+        int candidate = head[hashBytes(currentInt, shift)];
+        for (int remaining = maxChainLength; candidate != NO_POSITION && remaining > 0; remaining--) {
+            long candidateAddress = inputAddress + candidate;
+
+            // a longer match must also match at the byte after the best match so far
+            if (loadByte(inputBase, candidateAddress + bestLength) == loadByte(inputBase, current + bestLength) &&
+                    loadInt(inputBase, candidateAddress) == currentInt) {
+                int length = MIN_MATCH_LENGTH + findMatchLength(inputBase, candidateAddress + MIN_MATCH_LENGTH, current + MIN_MATCH_LENGTH, inputEnd);
+                if (length > bestLength) {
+                    bestLength = length;
+                    matchOffset = position - candidate;
+                    if (bestLength >= maxMatchLength) {
+                        break;
+                    }
+                }
+            }
+            candidate = chain[candidate];
+        }
+        return bestLength;
+    }
+}
@@ -20,30 +20,32 @@ package io.airlift.compress;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 import static java.lang.Math.min;
 import static java.lang.String.format;
 import static io.airlift.compress.SnappyInternalUtils.checkNotNull;
 import static io.airlift.compress.SnappyInternalUtils.checkPositionIndexes;
-import static io.airlift.compress.SnappyOutputStream.STREAM_HEADER;
 import static io.airlift.compress.SnappyOutputStream.MAX_BLOCK_SIZE;
 
 /**
  * This class implements an input stream for reading Snappy compressed data
- * of the format produced by {@link SnappyOutputStream}.
+ * of the format produced by {@link SnappyOutputStream}, with either 32k blocks
+ * or larger blocks.
  */
 public class SnappyInputStream
         extends InputStream
 {
-    // The buffer size is the same as the block size.
+    // The buffer size is the same as the block size, and grows when a
+    // concatenated stream uses larger blocks.
     // This works because the original data is not allowed to expand.
     private final BufferRecycler recycler;
-    private final byte[] input;
-    private final byte[] uncompressed;
-    private final byte[] header = new byte[7];
+    private byte[] input;
+    private byte[] uncompressed;
+    private final SnappyBlockHeaderReader headerReader;
     private final InputStream in;
     private final boolean verifyChecksums;
+    private final Crc32C checksum = new Crc32C();
 
     // Buffer is a reference to the real buffer for the current block:
     // uncompressed if the block is compressed, or input if it is not.
@@ -76,21 +78,10 @@ public class SnappyInputStream
         this.in = in;
         this.verifyChecksums = verifyChecksums;
         recycler = BufferRecycler.instance();
-        input = recycler.allocInputBuffer(MAX_BLOCK_SIZE);
-        uncompressed = recycler.allocDecodeBuffer(MAX_BLOCK_SIZE);
-
-        // stream must begin with stream header
-        int offset = 0;
-        while (offset < header.length) {
-            int size = in.read(header, offset, header.length - offset);
-            if (size == -1) {
-                throw new EOFException("encountered EOF while reading stream header");
-            }
-            offset += size;
-        }
-        if (!Arrays.equals(header, STREAM_HEADER)) {
-            throw new IOException("invalid stream header");
-        }
+        headerReader = new SnappyBlockHeaderReader(in);
+        headerReader.readStreamHeader();
+        input = recycler.allocBuffer(headerReader.getMaxBlockSize());
+        uncompressed = recycler.allocBuffer(headerReader.getMaxBlockSize());
     }
 
     @Override
@@ -129,6 +120,64 @@ public class SnappyInputStream
         return size;
     }
 
+    /**
+     * Skips over whole blocks by reading only their headers.  When checksums are
+     * not verified, skipped blocks are not decompressed; the length of a
+     * compressed block is read from the start of its compressed data.
+     */
+    @Override
+    public long skip(long n)
+            throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        if (n <= 0) {
+            return 0;
+        }
+
+        long skipped = min(n, available());
+        position += skipped;
+
+        while (skipped < n && !eof) {
+            if (verifyChecksums) {
+                // the data must be decompressed to verify the checksum
+                if (!ensureBuffer()) {
+                    break;
+                }
+                int size = (int) min(n - skipped, available());
+                position += size;
+                skipped += size;
+                continue;
+            }
+
+            if (!readBlockHeader()) {
+                eof = true;
+                break;
+            }
+            boolean compressed = headerReader.isCompressed();
+            int length = headerReader.getLength();
+
+            // read enough of the block to find the uncompressed length
+            int lengthBytes = compressed ? min(length, 5) : 0;
+            readInput(in, input, 0, lengthBytes);
+            int uncompressedLength = compressed ? getUncompressedBlockLength(input, 0, lengthBytes, headerReader.getMaxBlockSize()) : length;
+
+            if (uncompressedLength <= n - skipped) {
+                skipInput(in, length - lengthBytes);
+                skipped += uncompressedLength;
+            }
+            else {
+                // the skip ends within this block
+                readInput(in, input, lengthBytes, length - lengthBytes);
+                handleInput(length, compressed);
+                position = (int) (n - skipped);
+                skipped = n;
+            }
+        }
+        return skipped;
+    }
+
     @Override
     public int available()
             throws IOException
@@ -149,8 +198,8 @@ public class SnappyInputStream
         finally {
             if (!closed) {
                 closed = true;
-                recycler.releaseInputBuffer(input);
-                recycler.releaseDecodeBuffer(uncompressed);
+                recycler.releaseBuffer(input);
+                recycler.releaseBuffer(uncompressed);
             }
         }
     }
@@ -169,10 +218,10 @@ public class SnappyInputStream
             eof = true;
             return false;
         }
-        boolean compressed = getHeaderCompressedFlag();
-        int length = getHeaderLength();
+        boolean compressed = headerReader.isCompressed();
+        int length = headerReader.getLength();
 
-        readInput(length);
+        readInput(in, input, length);
 
         handleInput(length, compressed);
 
@@ -182,10 +231,12 @@ public class SnappyInputStream
     private void handleInput(int length, boolean compressed)
             throws IOException
     {
+        // the checksum of a compressed block is computed while decompressing
+        checksum.reset();
         if (compressed) {
             buffer = uncompressed;
             try {
-                valid = Snappy.uncompress(input, 0, length, uncompressed, 0);
+                valid = Snappy.uncompress(input, 0, length, uncompressed, 0, verifyChecksums ? checksum : null);
             }
             catch (CorruptionException e) {
                 throw new IOException("Corrupt input", e);
@@ -194,11 +245,14 @@ public class SnappyInputStream
         else {
             buffer = input;
             valid = length;
+            if (verifyChecksums) {
+                checksum.update(input, 0, length);
+            }
         }
 
         if (verifyChecksums) {
-            int expectedCrc32c = getCrc32c();
-            int actualCrc32c = Crc32C.maskedCrc32c(buffer, 0, valid);
+            int expectedCrc32c = headerReader.getCrc32c();
+            int actualCrc32c = checksum.getMaskedValue();
             if (expectedCrc32c != actualCrc32c) {
                 throw new IOException("Corrupt input: invalid checksum");
             }
@@ -207,12 +261,54 @@ public class SnappyInputStream
         position = 0;
     }
 
-    private void readInput(int length)
+    private boolean readBlockHeader()
+            throws IOException
+    {
+        if (!headerReader.next()) {
+            return false;
+        }
+
+        // a concatenated stream may use larger blocks
+        int maxBlockSize = headerReader.getMaxBlockSize();
+        if (input.length < maxBlockSize) {
+            recycler.releaseBuffer(input);
+            input = recycler.allocBuffer(maxBlockSize);
+        }
+        if (uncompressed.length < maxBlockSize) {
+            recycler.releaseBuffer(uncompressed);
+            uncompressed = recycler.allocBuffer(maxBlockSize);
+        }
+        return true;
+    }
+
+    static int getUncompressedBlockLength(byte[] input, int offset, int lengthBytes, int maxBlockSize)
+            throws IOException
+    {
+        int uncompressedLength;
+        try {
+            uncompressedLength = Snappy.getUncompressedLength(ByteBuffer.wrap(input, offset, lengthBytes));
+        }
+        catch (CorruptionException e) {
+            throw new IOException("Corrupt input", e);
+        }
+        if (uncompressedLength > maxBlockSize) {
+            throw new IOException("Corrupt input: uncompressed block size is " + uncompressedLength);
+        }
+        return uncompressedLength;
+    }
+
+    static void readInput(InputStream in, byte[] input, int length)
             throws IOException
     {
-        int offset = 0;
-        while (offset < length) {
-            int size = in.read(input, offset, length - offset);
+        readInput(in, input, 0, length);
+    }
+
+    static void readInput(InputStream in, byte[] input, int offset, int length)
+            throws IOException
+    {
+        int end = offset + length;
+        while (offset < end) {
+            int size = in.read(input, offset, end - offset);
             if (size == -1) {
                 throw new EOFException("encountered EOF while reading block data");
             }
@@ -220,27 +316,23 @@ public class SnappyInputStream
         }
     }
 
-    private boolean readBlockHeader()
+    static void skipInput(InputStream in, long length)
             throws IOException
     {
-        do {
-            int offset = 0;
-            while (offset < header.length) {
-                int size = in.read(header, offset, header.length - offset);
-                if (size == -1) {
-                    // EOF on first byte means the stream ended cleanly
-                    if (offset == 0) {
-                        return false;
-                    }
-                    throw new EOFException("encountered EOF while reading block header");
+        while (length > 0) {
+            long size = in.skip(length);
+            if (size <= 0) {
+                // skip may return zero before the end of the stream, so check with a read
+                if (in.read() == -1) {
+                    throw new EOFException("encountered EOF while reading block data");
                 }
-                offset += size;
+                size = 1;
             }
-        } while (Arrays.equals(header, STREAM_HEADER));
-        return true;
+            length -= size;
+        }
     }
 
-    private boolean getHeaderCompressedFlag()
+    static boolean getHeaderCompressedFlag(byte[] header)
             throws IOException
     {
         int x = header[0] & 0xFF;
@@ -254,7 +346,7 @@ public class SnappyInputStream
         }
     }
 
-    private int getHeaderLength()
+    static int getHeaderLength(byte[] header)
             throws IOException
     {
         int a = header[1] & 0xFF;
@@ -266,7 +358,7 @@ public class SnappyInputStream
         return length;
     }
 
-    private int getCrc32c()
+    static int getCrc32c(byte[] header)
             throws IOException
     {
         return ((header[3] & 0xFF) << 24) |
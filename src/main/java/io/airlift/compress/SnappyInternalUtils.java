@@ -17,6 +17,8 @@
  */
 package io.airlift.compress;
 
+import java.nio.ByteBuffer;
+
 final class SnappyInternalUtils
 {
     private SnappyInternalUtils()
@@ -31,7 +33,7 @@ final class SnappyInternalUtils
         try {
             Class<? extends Memory> unsafeMemoryClass = SnappyInternalUtils.class.getClassLoader().loadClass("io.airlift.compress.UnsafeMemory").asSubclass(Memory.class);
             Memory unsafeMemory = unsafeMemoryClass.newInstance();
-            if (unsafeMemory.loadInt(new byte[4], 0) == 0) {
+            if (unsafeMemory.loadInt(new byte[4], unsafeMemory.getByteArrayBaseOffset()) == 0) {
                 memoryInstance = unsafeMemory;
             }
         }
@@ -41,7 +43,7 @@ final class SnappyInternalUtils
             try {
                 Class<? extends Memory> slowMemoryClass = SnappyInternalUtils.class.getClassLoader().loadClass("io.airlift.compress.SlowMemory").asSubclass(Memory.class);
                 Memory slowMemory = slowMemoryClass.newInstance();
-                if (slowMemory.loadInt(new byte[4], 0) == 0) {
+                if (slowMemory.loadInt(new byte[4], slowMemory.getByteArrayBaseOffset()) == 0) {
                     memoryInstance = slowMemory;
                 } else {
                     throw new AssertionError("SlowMemory class is broken!");
@@ -56,6 +58,8 @@ final class SnappyInternalUtils
 
     static final boolean HAS_UNSAFE = memory.fastAccessSupported();
 
+    static final long BYTE_ARRAY_OFFSET = memory.getByteArrayBaseOffset();
+
     static boolean equals(byte[] left, int leftIndex, byte[] right, int rightIndex, int length)
     {
         checkPositionIndexes(leftIndex, leftIndex + length, left.length);
@@ -69,34 +73,87 @@ final class SnappyInternalUtils
         return true;
     }
 
+    static boolean equals(Object leftBase, long leftAddress, Object rightBase, long rightAddress, int length)
+    {
+        for (int i = 0; i < length; i++) {
+            if (loadByte(leftBase, leftAddress + i) != loadByte(rightBase, rightAddress + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void checkOffHeapAccessSupported()
+    {
+        if (!HAS_UNSAFE) {
+            throw new UnsupportedOperationException("Off-heap memory access is not supported by this JVM");
+        }
+    }
+
+    /**
+     * Returns true if the contents of the buffer can be accessed in place with
+     * {@link #getBufferBase} and {@link #getBufferAddress}.
+     */
+    static boolean isAddressable(ByteBuffer buffer)
+    {
+        if (buffer.isDirect()) {
+            return memory.directBufferAccessSupported();
+        }
+        return buffer.hasArray();
+    }
+
+    static Object getBufferBase(ByteBuffer buffer)
+    {
+        if (buffer.isDirect()) {
+            return null;
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Returns the address of the current position of the buffer.
+     */
+    static long getBufferAddress(ByteBuffer buffer)
+    {
+        if (buffer.isDirect()) {
+            return memory.getDirectBufferAddress(buffer) + buffer.position();
+        }
+        return BYTE_ARRAY_OFFSET + buffer.arrayOffset() + buffer.position();
+    }
+
     public static int lookupShort(short[] data, int index)
     {
         return memory.lookupShort(data, index);
     }
 
-    public static int loadByte(byte[] data, int index)
+    public static int loadByte(Object base, long address)
     {
-        return memory.loadByte(data, index);
+        return memory.loadByte(base, address);
     }
 
-    static int loadInt(byte[] data, int index)
+    static int loadInt(Object base, long address)
     {
-        return memory.loadInt(data, index);
+        return memory.loadInt(base, address);
     }
 
-    static void copyLong(byte[] src, int srcIndex, byte[] dest, int destIndex)
+    static long loadLong(Object base, long address)
     {
-        memory.copyLong(src, srcIndex, dest, destIndex);
+        return memory.loadLong(base, address);
     }
 
-    static long loadLong(byte[] data, int index)
+    static void storeByte(Object base, long address, int value)
     {
-        return memory.loadLong(data, index);
+        memory.storeByte(base, address, value);
     }
 
-    static void copyMemory(byte[] input, int inputIndex, byte[] output, int outputIndex, int length)
+    static void copyLong(Object srcBase, long srcAddress, Object destBase, long destAddress)
     {
-        memory.copyMemory(input, inputIndex, output, outputIndex, length);
+        memory.copyLong(srcBase, srcAddress, destBase, destAddress);
+    }
+
+    static void copyMemory(Object inputBase, long inputAddress, Object outputBase, long outputAddress, int length)
+    {
+        memory.copyMemory(inputBase, inputAddress, outputBase, outputAddress, length);
     }
 
     //
@@ -117,6 +174,14 @@ final class SnappyInternalUtils
         }
     }
 
+    // Overload used on hot paths to avoid allocating the varargs array and boxing the arguments
+    static void checkArgument(boolean expression, String errorMessageTemplate, int arg1, int arg2)
+    {
+        if (!expression) {
+            throw new IllegalArgumentException(String.format(errorMessageTemplate, arg1, arg2));
+        }
+    }
+
     static void checkPositionIndexes(int start, int end, int size)
     {
         // Carefully optimized for execution by hotspot (explanatory comment above)
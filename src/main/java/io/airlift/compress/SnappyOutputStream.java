@@ -20,9 +20,10 @@ package io.airlift.compress;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import static io.airlift.compress.Crc32C.maskedCrc32c;
+import static io.airlift.compress.SnappyInternalUtils.checkArgument;
 import static io.airlift.compress.SnappyInternalUtils.checkNotNull;
 import static io.airlift.compress.SnappyInternalUtils.checkPositionIndexes;
+import static io.airlift.compress.SnappyRawCompressor.MAX_HASH_TABLE_SIZE;
 
 /**
  * This class implements an output stream for writing Snappy compressed data.
@@ -41,6 +42,26 @@ import static io.airlift.compress.SnappyInternalUtils.checkPositionIndexes;
  * <p/>
  * An uncompressed block is simply copied from the input, thus guaranteeing
  * that the output is never larger than the input (not including the header).
+ * <p/>
+ * Streams created with a block size use a second version of the format for
+ * larger blocks.  The stream header is "snappy\1" followed by one byte with the
+ * base two logarithm of the block size, which is a power of two from 64k
+ * (1 << 16) to 4m (1 << 22).  The length in the block header is a varint of
+ * one to four bytes instead of two bytes.  {@link SnappyInputStream} reads both
+ * versions, and concatenations of them.
+ * <p/>
+ * A stream created with {@link #newAdaptiveOutputStream} backs off after a
+ * run of blocks that do not compress, such as an embedded image or encrypted
+ * data: only one block in an increasing interval is compressed, and the
+ * others are stored without trying.  A block that compresses resumes
+ * compressing every block.  Other streams compress every block, so their
+ * output only depends on the data and the sequence of writes and flushes.
+ * <p/>
+ * A stream created with {@link #newThroughputTargetedOutputStream} also
+ * measures how long compressing a block takes and how long the underlying
+ * stream takes to accept it, and stores blocks uncompressed while compressing
+ * them costs more time than writing the bytes it saves.  This suits writers
+ * limited by a fast network link, where compression can be the bottleneck.
  */
 public class SnappyOutputStream
         extends OutputStream
@@ -50,15 +71,55 @@ public class SnappyOutputStream
     // the header format requires the max block size to fit in 15 bits -- do not change!
     static final int MAX_BLOCK_SIZE = 1 << 15;
 
+    // block sizes supported by the large block version of the format
+    static final int LARGE_BLOCK_STREAM_VERSION = 1;
+    static final int MIN_LARGE_BLOCK_SIZE = 1 << 16;
+    static final int MAX_LARGE_BLOCK_SIZE = 1 << 22;
+
+    // prefix compressed to confirm that a block with a uniform byte distribution is incompressible
+    private static final int INCOMPRESSIBLE_PREFIX_SIZE = 4096;
+
+    // after this many incompressible blocks in a row, only some blocks are compressed
+    private static final int INCOMPRESSIBLE_BLOCKS_BEFORE_BACK_OFF = 4;
+
+    // the interval between compressed blocks while backing off doubles up to this many
+    // blocks, or this many bytes, which bounds the data stored uncompressed when the
+    // data becomes compressible again
+    private static final int MAX_PROBE_INTERVAL = 32;
+    private static final int MAX_PROBE_INTERVAL_BYTES = 1024 * 1024;
+
     private final BufferRecycler recycler;
     private final byte[] buffer;
     private final byte[] outputBuffer;
     private final OutputStream out;
     private final boolean writeChecksums;
+    private final Crc32C checksum = new Crc32C();
+    private final int blockSize;
+    private final boolean largeBlocks;
+    private final int maxProbeInterval;
+
+    // measures the costs of compressing and writing blocks, if throughput targeted
+    private final ThroughputEstimator throughput;
 
     private int position;
     private boolean closed;
 
+    // adaptive compression: blocks are only compressed every probeInterval blocks
+    // while the data is incompressible
+    private int incompressibleBlocks;
+    private int probeInterval = 1;
+    private int blocksUntilProbe;
+    private boolean probing;
+
+    private long compressedBlocks;
+    private long storedBlocks;
+    private long skippedBlocks;
+    private long probedBlocks;
+
+    // bytes written to the underlying stream, and uncompressed bytes in the blocks written
+    private long compressedPosition;
+    private long uncompressedPosition;
+
     /**
      * Creates a Snappy output stream to write data to the specified underlying output stream.
      *
@@ -82,15 +143,102 @@ public class SnappyOutputStream
         return new SnappyOutputStream(out, false);
     }
 
-    private SnappyOutputStream(OutputStream out, boolean writeChecksums)
+    /**
+     * Creates a Snappy output stream that stops trying to compress blocks
+     * while the data is incompressible, and tries again now and then.  This
+     * saves time on mixed data, but a block of compressible data that follows
+     * a run of incompressible data may be stored uncompressed.
+     *
+     * @param out the underlying output stream
+     */
+    public static SnappyOutputStream newAdaptiveOutputStream(OutputStream out)
+            throws IOException
+    {
+        return new SnappyOutputStream(out, true, MAX_BLOCK_SIZE, true);
+    }
+
+    /**
+     * Creates a Snappy output stream that writes blocks of the specified size,
+     * using the large block version of the format.  Larger blocks have less
+     * per block overhead, but must be buffered whole when writing and reading.
+     *
+     * @param out the underlying output stream
+     * @param blockSize a power of two from 64k (1 << 16) to 4m (1 << 22)
+     */
+    public SnappyOutputStream(OutputStream out, int blockSize)
+            throws IOException
+    {
+        this(out, true, blockSize);
+    }
+
+    /**
+     * Creates a Snappy output stream that stores blocks uncompressed when that
+     * is faster end to end, based on the measured speed of compression and of
+     * the underlying output stream.  Writes to a buffered underlying stream
+     * look instantaneous, so it should write directly to the slow resource,
+     * such as a socket.
+     *
+     * @param out the underlying output stream
+     */
+    public static SnappyOutputStream newThroughputTargetedOutputStream(OutputStream out)
+            throws IOException
+    {
+        return new SnappyOutputStream(out, true, MAX_BLOCK_SIZE, true, true);
+    }
+
+    SnappyOutputStream(OutputStream out, boolean writeChecksums)
+            throws IOException
+    {
+        this(out, writeChecksums, MAX_BLOCK_SIZE);
+    }
+
+    private SnappyOutputStream(OutputStream out, boolean writeChecksums, int blockSize)
+            throws IOException
+    {
+        this(out, writeChecksums, blockSize, false);
+    }
+
+    /**
+     * @param adaptive if true, blocks are only compressed now and then while
+     * the data is incompressible; otherwise every block is compressed
+     */
+    SnappyOutputStream(OutputStream out, boolean writeChecksums, int blockSize, boolean adaptive)
+            throws IOException
+    {
+        this(out, writeChecksums, blockSize, adaptive, false);
+    }
+
+    /**
+     * @param throughputTargeted if true, blocks are stored uncompressed while
+     * that is faster than compressing them and writing the compressed data
+     */
+    SnappyOutputStream(OutputStream out, boolean writeChecksums, int blockSize, boolean adaptive, boolean throughputTargeted)
             throws IOException
     {
         this.out = checkNotNull(out, "out is null");
         this.writeChecksums = writeChecksums;
+        largeBlocks = blockSize != MAX_BLOCK_SIZE;
+        if (largeBlocks) {
+            checkArgument(blockSize >= MIN_LARGE_BLOCK_SIZE && blockSize <= MAX_LARGE_BLOCK_SIZE && Integer.bitCount(blockSize) == 1,
+                    "blockSize must be a power of two from %s to %s: %s", MIN_LARGE_BLOCK_SIZE, MAX_LARGE_BLOCK_SIZE, blockSize);
+        }
+        this.blockSize = blockSize;
+        maxProbeInterval = adaptive ? Math.max(1, Math.min(MAX_PROBE_INTERVAL, MAX_PROBE_INTERVAL_BYTES / blockSize)) : 1;
+        throughput = throughputTargeted ? new ThroughputEstimator() : null;
         recycler = BufferRecycler.instance();
-        buffer = recycler.allocOutputBuffer(MAX_BLOCK_SIZE);
-        outputBuffer = recycler.allocEncodingBuffer(Snappy.maxCompressedLength(MAX_BLOCK_SIZE));
-        out.write(STREAM_HEADER);
+        buffer = recycler.allocBuffer(blockSize);
+        outputBuffer = recycler.allocBuffer(Snappy.maxCompressedLength(blockSize));
+
+        if (largeBlocks) {
+            out.write(STREAM_HEADER, 0, STREAM_HEADER.length - 1);
+            out.write(LARGE_BLOCK_STREAM_VERSION);
+            out.write(Integer.numberOfTrailingZeros(blockSize));
+            compressedPosition = STREAM_HEADER.length + 1;
+        }
+        else {
+            out.write(STREAM_HEADER);
+            compressedPosition = STREAM_HEADER.length;
+        }
     }
 
     @Override
@@ -100,7 +248,7 @@ public class SnappyOutputStream
         if (closed) {
             throw new IOException("Stream is closed") ;
         }
-        if (position >= MAX_BLOCK_SIZE) {
+        if (position >= blockSize) {
             flushBuffer();
         }
         buffer[position++] = (byte) b;
@@ -116,7 +264,7 @@ public class SnappyOutputStream
             throw new IOException("Stream is closed") ;
         }
 
-        int free = MAX_BLOCK_SIZE - position;
+        int free = blockSize - position;
 
         // easy case: enough free space in buffer for entire input
         if (free >= length) {
@@ -133,10 +281,10 @@ public class SnappyOutputStream
         }
 
         // write remaining full blocks directly from input array
-        while (length >= MAX_BLOCK_SIZE) {
-            writeCompressed(input, offset, MAX_BLOCK_SIZE);
-            offset += MAX_BLOCK_SIZE;
-            length -= MAX_BLOCK_SIZE;
+        while (length >= blockSize) {
+            writeCompressed(input, offset, blockSize);
+            offset += blockSize;
+            length -= blockSize;
         }
 
         // copy remaining partial block into now-empty buffer
@@ -163,12 +311,13 @@ public class SnappyOutputStream
         }
         try {
             flush();
+            finish(out, compressedPosition, uncompressedPosition);
             out.close();
         }
         finally {
             closed = true;
-            recycler.releaseOutputBuffer(outputBuffer);
-            recycler.releaseEncodeBuffer(buffer);
+            recycler.releaseBuffer(buffer);
+            recycler.releaseBuffer(outputBuffer);
         }
     }
 
@@ -190,21 +339,222 @@ public class SnappyOutputStream
     private void writeCompressed(byte[] input, int offset, int length)
             throws IOException
     {
-        // crc is based on the user supplied input data
-        int crc32c = writeChecksums ? maskedCrc32c(input, offset, length) : 0;
+        // crc is based on the user supplied input data, and computed while compressing
+        int crc32c = 0;
+        if (writeChecksums) {
+            checksum.reset();
+        }
+        Crc32C blockChecksum = writeChecksums ? checksum : null;
 
-        int compressed = Snappy.compress(input, offset, length, outputBuffer, 0);
+        int compressed;
+        long compressNanos = 0;
+        boolean attempted = shouldCompress();
+        if (!attempted) {
+            skippedBlocks++;
+            probing = true;
+            if (blockChecksum != null) {
+                blockChecksum.update(input, offset, length);
+            }
+            compressed = -1;
+        }
+        else {
+            if (probing) {
+                probedBlocks++;
+                probing = false;
+            }
+            long start = throughput != null ? nanoTime() : 0;
+            compressed = compressBlock(input, offset, length, outputBuffer, blockChecksum);
+            if (throughput != null) {
+                compressNanos = nanoTime() - start;
+            }
+            updateProbeInterval(compressed >= 0);
+        }
+        if (writeChecksums) {
+            crc32c = checksum.getMaskedValue();
+        }
 
-        // use uncompressed input if less than 12.5% compression
-        if (compressed >= (length - (length / 8))) {
-            writeBlock(input, offset, length, false, crc32c);
+        blockStarted(compressedPosition, uncompressedPosition);
+
+        long start = throughput != null ? nanoTime() : 0;
+        int written;
+        if (compressed < 0) {
+            written = writeBlock(input, offset, length, false, crc32c);
+            storedBlocks++;
         }
         else {
-            writeBlock(outputBuffer, 0, compressed, true, crc32c);
+            written = writeBlock(outputBuffer, 0, compressed, true, crc32c);
+            compressedBlocks++;
+        }
+        if (throughput != null) {
+            throughput.update(attempted, length, compressNanos, written, nanoTime() - start);
+        }
+        compressedPosition += written;
+        uncompressedPosition += length;
+    }
+
+    /**
+     * Decides whether to try compressing the next block.
+     */
+    private boolean shouldCompress()
+    {
+        if (blocksUntilProbe > 0) {
+            // the recent blocks were incompressible, so store this one without trying
+            blocksUntilProbe--;
+            return false;
         }
+        // a throughput targeted stream stores the block if that is faster
+        return throughput == null || throughput.shouldCompress();
+    }
+
+    /**
+     * Returns the current time for measuring the costs of a throughput
+     * targeted stream.
+     */
+    long nanoTime()
+    {
+        return System.nanoTime();
+    }
+
+    /**
+     * Backs off after a run of incompressible blocks, by compressing only one
+     * block in probeInterval, and doubles the interval each time the probe
+     * fails.  A block that compresses ends the back off.
+     */
+    private void updateProbeInterval(boolean compressible)
+    {
+        if (compressible) {
+            incompressibleBlocks = 0;
+            probeInterval = 1;
+            return;
+        }
+
+        incompressibleBlocks++;
+        if (incompressibleBlocks >= INCOMPRESSIBLE_BLOCKS_BEFORE_BACK_OFF) {
+            probeInterval = Math.min(probeInterval * 2, maxProbeInterval);
+            blocksUntilProbe = probeInterval - 1;
+        }
+    }
+
+    /**
+     * Returns the number of blocks written compressed.
+     */
+    public long getCompressedBlocks()
+    {
+        return compressedBlocks;
+    }
+
+    /**
+     * Returns the number of blocks written uncompressed, because they did not
+     * compress or were skipped.
+     */
+    public long getStoredBlocks()
+    {
+        return storedBlocks;
+    }
+
+    /**
+     * Returns the number of blocks written uncompressed without trying to
+     * compress them, because the blocks before them were incompressible or,
+     * for a throughput targeted stream, because storing them was faster.
+     */
+    public long getSkippedBlocks()
+    {
+        return skippedBlocks;
+    }
+
+    /**
+     * Returns the number of blocks that were compressed, successfully or not,
+     * after skipped blocks, to check whether compressing pays off again.
+     */
+    public long getProbedBlocks()
+    {
+        return probedBlocks;
+    }
+
+    /**
+     * Compresses a block, and adds it to the checksum if not null.  Returns -1
+     * if the block must be stored uncompressed because it compresses by less
+     * than 12.5%.  Compression stops as soon as the output passes the 87.5%
+     * limit, and blocks that look incompressible are not compressed at all.
+     */
+    static int compressBlock(byte[] input, int offset, int length, byte[] output, Crc32C checksum)
+    {
+        // A uniform byte distribution is typical of compressed or encrypted data, but
+        // repeated random sequences have one too.  The estimate is confirmed by trying
+        // to compress a prefix of the block, which costs much less than the whole block.
+        BufferRecycler recycler = BufferRecycler.instance();
+        short[] table = recycler.allocEncodingHash(MAX_HASH_TABLE_SIZE);
+        try {
+            if (SnappyRawCompressor.hasUniformByteDistribution(input, offset, length, table) &&
+                    SnappyRawCompressor.compress(input, offset, INCOMPRESSIBLE_PREFIX_SIZE, output, 0, table, null, maxCompressedBlockSize(INCOMPRESSIBLE_PREFIX_SIZE)) < 0) {
+                if (checksum != null) {
+                    checksum.update(input, offset, length);
+                }
+                return -1;
+            }
+            return SnappyRawCompressor.compress(input, offset, length, output, 0, table, checksum, maxCompressedBlockSize(length));
+        }
+        finally {
+            recycler.releaseEncodingHash(table);
+        }
+    }
+
+    private static int maxCompressedBlockSize(int length)
+    {
+        // use uncompressed input if less than 12.5% compression
+        return length - (length / 8) - 1;
+    }
+
+    /**
+     * Called before each block is written with the position of the block in the
+     * underlying stream and the position of its data in the uncompressed data.
+     */
+    void blockStarted(long compressedPosition, long uncompressedPosition)
+    {
+    }
+
+    /**
+     * Called when the stream is closed, after the last block has been written
+     * and before the underlying stream is closed.
+     */
+    void finish(OutputStream out, long compressedPosition, long uncompressedPosition)
+            throws IOException
+    {
+    }
+
+    private int writeBlock(byte[] data, int offset, int length, boolean compressed, int crc32c)
+            throws IOException
+    {
+        if (!largeBlocks) {
+            writeBlock(out, data, offset, length, compressed, crc32c);
+            return 7 + length;
+        }
+
+        // write compressed flag
+        out.write(compressed ? 0x01 : 0x00);
+
+        // write length as a varint
+        int headerLength = 5;
+        int value = length;
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+            headerLength++;
+        }
+        out.write(value);
+
+        // write crc32c of user input data
+        out.write(crc32c >>> 24);
+        out.write(crc32c >>> 16);
+        out.write(crc32c >>> 8);
+        out.write(crc32c);
+
+        // write data
+        out.write(data, offset, length);
+        return headerLength + 1 + length;
     }
 
-    private void writeBlock(byte[] data, int offset, int length, boolean compressed, int crc32c)
+    static void writeBlock(OutputStream out, byte[] data, int offset, int length, boolean compressed, int crc32c)
             throws IOException
     {
         // write compressed flag
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.airlift.compress.SnappyInternalUtils.BYTE_ARRAY_OFFSET;
+import static io.airlift.compress.SnappyInternalUtils.checkPositionIndexes;
+import static io.airlift.compress.SnappyRawCompressor.BLOCK_SIZE;
+import static io.airlift.compress.SnappyRawCompressor.MAX_HASH_TABLE_SIZE;
+
+/**
+ * Compresses large inputs on several threads.  The compressor never refers
+ * back across a {@link SnappyRawCompressor#BLOCK_SIZE} boundary, so the input
+ * is split into groups of whole fragments that are compressed independently
+ * and concatenated in order after a single length header.  The result is
+ * identical to the output of the sequential compressor.
+ */
+final class SnappyParallelCompressor
+{
+    // large enough to amortize the task overhead, small enough to balance the load
+    static final int GROUP_SIZE = 8 * BLOCK_SIZE;
+
+    // limits the memory used for compressed groups waiting to be copied
+    private static final int MAX_GROUPS_IN_FLIGHT = Math.max(4, 4 * Runtime.getRuntime().availableProcessors());
+
+    private SnappyParallelCompressor()
+    {
+    }
+
+    public static int compress(
+            final byte[] uncompressed,
+            final int uncompressedOffset,
+            final int uncompressedLength,
+            final byte[] compressed,
+            final int compressedOffset,
+            ExecutorService executor)
+            throws InterruptedException
+    {
+        return compress(uncompressed, uncompressedOffset, uncompressedLength, compressed, compressedOffset, executor, BufferRecycler.instance());
+    }
+
+    static int compress(
+            final byte[] uncompressed,
+            final int uncompressedOffset,
+            final int uncompressedLength,
+            final byte[] compressed,
+            final int compressedOffset,
+            ExecutorService executor,
+            BufferRecycler recycler)
+            throws InterruptedException
+    {
+        checkPositionIndexes(uncompressedOffset, uncompressedOffset + uncompressedLength, uncompressed.length);
+        checkPositionIndexes(compressedOffset, compressedOffset, compressed.length);
+        SnappyRawCompressor.checkOutputSize(uncompressedLength, compressed.length - compressedOffset);
+
+        if (uncompressedLength <= GROUP_SIZE) {
+            return Snappy.compress(uncompressed, uncompressedOffset, uncompressedLength, compressed, compressedOffset);
+        }
+
+        int output = (int) (SnappyRawCompressor.writeUncompressedLength(compressed, BYTE_ARRAY_OFFSET + compressedOffset, uncompressedLength) - BYTE_ARRAY_OFFSET);
+
+        Queue<GroupTask> inFlight = new ArrayDeque<GroupTask>();
+        int nextGroup = uncompressedOffset;
+        int end = uncompressedOffset + uncompressedLength;
+        try {
+            while (nextGroup < end && inFlight.size() < MAX_GROUPS_IN_FLIGHT) {
+                nextGroup = submitGroup(executor, inFlight, recycler, uncompressed, nextGroup, end);
+            }
+
+            while (!inFlight.isEmpty()) {
+                // the group stays in flight until it is consumed, so a failed wait abandons it below
+                CompressedGroup group = inFlight.peek().future.get();
+                inFlight.remove();
+                System.arraycopy(group.buffer, 0, compressed, output, group.size);
+                output += group.size;
+                recycler.releaseBuffer(group.buffer);
+
+                if (nextGroup < end) {
+                    nextGroup = submitGroup(executor, inFlight, recycler, uncompressed, nextGroup, end);
+                }
+            }
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        finally {
+            for (GroupTask task : inFlight) {
+                task.abandon();
+            }
+        }
+
+        return output - compressedOffset;
+    }
+
+    /**
+     * Submits the group starting at the given offset and returns the offset
+     * of the next group.  The offset never passes the end of the input, so it
+     * cannot overflow.
+     */
+    private static int submitGroup(ExecutorService executor, Queue<GroupTask> inFlight, BufferRecycler recycler, byte[] input, int offset, int end)
+    {
+        int length = Math.min(end - offset, GROUP_SIZE);
+        GroupTask task = new GroupTask(recycler, input, offset, length);
+        task.future = executor.submit(task);
+        inFlight.add(task);
+        return offset + length;
+    }
+
+    /**
+     * Compresses one group.  The buffer of a group that is never consumed is
+     * returned to the pool by whichever of the caller and the task is last to
+     * touch it, as tracked by the state of the task.
+     */
+    private static final class GroupTask
+            implements Callable<CompressedGroup>
+    {
+        private static final int PENDING = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+        private static final int ABANDONED = 3;
+
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private Future<CompressedGroup> future;
+
+        private final BufferRecycler recycler;
+        private final byte[] input;
+        private final int offset;
+        private final int length;
+
+        private GroupTask(BufferRecycler recycler, byte[] input, int offset, int length)
+        {
+            this.recycler = recycler;
+            this.input = input;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public CompressedGroup call()
+        {
+            if (!state.compareAndSet(PENDING, RUNNING)) {
+                // the compression failed or was interrupted before the group started
+                return null;
+            }
+
+            short[] table = recycler.allocEncodingHash(MAX_HASH_TABLE_SIZE);
+            byte[] buffer = recycler.allocBuffer(SnappyRawCompressor.maxCompressedLength(length));
+            CompressedGroup group = null;
+            try {
+                int size = (int) SnappyRawCompressor.compressFragments(
+                        input,
+                        BYTE_ARRAY_OFFSET + offset,
+                        length,
+                        buffer,
+                        BYTE_ARRAY_OFFSET,
+                        table);
+                group = new CompressedGroup(buffer, size);
+                return group;
+            }
+            finally {
+                recycler.releaseEncodingHash(table);
+                // release the buffer if the group failed or was abandoned while it was compressed
+                if (!state.compareAndSet(RUNNING, DONE) || group == null) {
+                    recycler.releaseBuffer(buffer);
+                }
+            }
+        }
+
+        /**
+         * Gives up on the group after the compression failed or was interrupted,
+         * returning its buffer to the pool unless the task is still running and
+         * will do so itself.
+         */
+        private void abandon()
+        {
+            if (state.compareAndSet(PENDING, ABANDONED)) {
+                future.cancel(false);
+                return;
+            }
+            if (state.compareAndSet(RUNNING, ABANDONED)) {
+                return;
+            }
+
+            // the group is done, but was never consumed
+            try {
+                recycler.releaseBuffer(future.get().buffer);
+            }
+            catch (ExecutionException ignored) {
+                // the group failed, so its task already released the buffer
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class CompressedGroup
+    {
+        private final byte[] buffer;
+        private final int size;
+
+        private CompressedGroup(byte[] buffer, int size)
+        {
+            this.buffer = buffer;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,812 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+
+import static io.airlift.compress.Snappy.COPY_1_BYTE_OFFSET;
+import static io.airlift.compress.Snappy.COPY_2_BYTE_OFFSET;
+import static io.airlift.compress.Snappy.LITERAL;
+import static io.airlift.compress.SnappyInternalUtils.BYTE_ARRAY_OFFSET;
+import static io.airlift.compress.SnappyInternalUtils.checkArgument;
+import static io.airlift.compress.SnappyInternalUtils.checkOffHeapAccessSupported;
+import static io.airlift.compress.SnappyInternalUtils.checkPositionIndexes;
+import static io.airlift.compress.SnappyInternalUtils.copyLong;
+import static io.airlift.compress.SnappyInternalUtils.copyMemory;
+import static io.airlift.compress.SnappyInternalUtils.getBufferAddress;
+import static io.airlift.compress.SnappyInternalUtils.getBufferBase;
+import static io.airlift.compress.SnappyInternalUtils.isAddressable;
+import static io.airlift.compress.SnappyInternalUtils.loadByte;
+import static io.airlift.compress.SnappyInternalUtils.loadInt;
+import static io.airlift.compress.SnappyInternalUtils.loadLong;
+import static io.airlift.compress.SnappyInternalUtils.storeByte;
+
+final class SnappyRawCompressor
+{
+    private static final boolean NATIVE_LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    // *** DO NOT CHANGE THE VALUE OF kBlockSize ***
+    //
+    // New Compression code chops up the input into blocks of at most
+    // the following size.  This ensures that back-references in the
+    // output never cross kBlockSize block boundaries.  This can be
+    // helpful in implementing blocked decompression.  However the
+    // decompression code should not rely on this guarantee since older
+    // compression code may not obey it.
+    private static final int BLOCK_LOG = 15;
+    static final int BLOCK_SIZE = 1 << BLOCK_LOG;
+
+    static final int INPUT_MARGIN_BYTES = 15;
+
+    // the uncompressed length is stored as a 32 bit unsigned varint
+    static final long MAX_UNCOMPRESSED_LENGTH = 0xFFFFFFFFL;
+
+    // the acceleration of the standard Snappy algorithm, and the largest supported
+    static final int DEFAULT_ACCELERATION = 1;
+    static final int MAX_ACCELERATION = 64;
+
+    private static final int MAX_HASH_TABLE_BITS = 14;
+    static final int MAX_HASH_TABLE_SIZE = 1 << MAX_HASH_TABLE_BITS;
+
+    // the byte distribution is sampled from this many bytes of inputs of at least MIN_SAMPLED_LENGTH
+    private static final int UNIFORM_SAMPLE_SIZE = 512;
+    private static final int MIN_SAMPLED_LENGTH = 16 * 1024;
+
+    // the sampled bytes are equal at most this much more often than uniformly random bytes
+    private static final int UNIFORM_COLLISION_RATIO_PERCENT = 125;
+
+    public static int maxCompressedLength(int sourceLength)
+    {
+        // Compressed data can be defined as:
+        //    compressed := item* literal*
+        //    item       := literal* copy
+        //
+        // The trailing literal sequence has a space blowup of at most 62/60
+        // since a literal of length 60 needs one tag byte + one extra byte
+        // for length information.
+        //
+        // Item blowup is trickier to measure.  Suppose the "copy" op copies
+        // 4 bytes of data.  Because of a special check in the encoding code,
+        // we produce a 4-byte copy only if the offset is < 65536.  Therefore
+        // the copy op takes 3 bytes to encode, and this type of item leads
+        // to at most the 62/60 blowup for representing literals.
+        //
+        // Suppose the "copy" op copies 5 bytes of data.  If the offset is big
+        // enough, it will take 5 bytes to encode the copy op.  Therefore the
+        // worst case here is a one-byte literal followed by a five-byte copy.
+        // I.e., 6 bytes of input turn into 7 bytes of "compressed" data.
+        //
+        // This last factor dominates the blowup, so the final estimate is:
+        return 32 + sourceLength + sourceLength / 6;
+    }
+
+    public static long maxCompressedLength(long sourceLength)
+    {
+        // see maxCompressedLength(int) above
+        return 32 + sourceLength + sourceLength / 6;
+    }
+
+    public static int compress(
+            final byte[] uncompressed,
+            final int uncompressedOffset,
+            final int uncompressedLength,
+            final byte[] compressed,
+            final int compressedOffset,
+            final short[] table)
+    {
+        return compress(uncompressed, uncompressedOffset, uncompressedLength, compressed, compressedOffset, table, DEFAULT_ACCELERATION);
+    }
+
+    /**
+     * Compresses the input with the given acceleration.  An acceleration of
+     * {@link #DEFAULT_ACCELERATION} produces the standard Snappy output;
+     * higher values look for matches at fewer positions, which is faster,
+     * but finds fewer matches.  See {@link #compressFragment}.
+     */
+    static int compress(
+            final byte[] uncompressed,
+            final int uncompressedOffset,
+            final int uncompressedLength,
+            final byte[] compressed,
+            final int compressedOffset,
+            final short[] table,
+            final int acceleration)
+    {
+        checkPositionIndexes(uncompressedOffset, uncompressedOffset + uncompressedLength, uncompressed.length);
+        checkPositionIndexes(compressedOffset, compressedOffset, compressed.length);
+        checkOutputSize(uncompressedLength, compressed.length - compressedOffset);
+
+        return (int) compress(
+                uncompressed,
+                BYTE_ARRAY_OFFSET + uncompressedOffset,
+                uncompressedLength,
+                compressed,
+                BYTE_ARRAY_OFFSET + compressedOffset,
+                table,
+                acceleration);
+    }
+
+    /**
+     * Compresses the input and adds it to the checksum.  Each fragment is added
+     * to the checksum right after it is compressed, while it is still in the
+     * processor cache, instead of reading the whole input a second time.
+     */
+    static int compress(
+            final byte[] uncompressed,
+            final int uncompressedOffset,
+            final int uncompressedLength,
+            final byte[] compressed,
+            final int compressedOffset,
+            final short[] table,
+            final Crc32C checksum)
+    {
+        return compress(uncompressed, uncompressedOffset, uncompressedLength, compressed, compressedOffset, table, checksum, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Compresses the input, unless the compressed data would be larger than
+     * maxCompressedSize bytes.  Compression stops, and -1 is returned, as soon
+     * as the output written plus the pending literal exceed the limit, so an
+     * incompressible input is not compressed to the end.  The checksum, if not
+     * null, always covers the whole input.
+     */
+    static int compress(
+            final byte[] uncompressed,
+            final int uncompressedOffset,
+            final int uncompressedLength,
+            final byte[] compressed,
+            final int compressedOffset,
+            final short[] table,
+            final Crc32C checksum,
+            final int maxCompressedSize)
+    {
+        checkPositionIndexes(uncompressedOffset, uncompressedOffset + uncompressedLength, uncompressed.length);
+        checkPositionIndexes(compressedOffset, compressedOffset, compressed.length);
+        checkOutputSize(uncompressedLength, compressed.length - compressedOffset);
+
+        long outputAddress = BYTE_ARRAY_OFFSET + compressedOffset;
+        long outputLimit = outputAddress + maxCompressedSize;
+        long output = writeUncompressedLength(compressed, outputAddress, uncompressedLength);
+        for (int read = 0; read < uncompressedLength; read += BLOCK_SIZE) {
+            int fragmentSize = Math.min(uncompressedLength - read, BLOCK_SIZE);
+            long size = compressFragments(
+                    uncompressed,
+                    BYTE_ARRAY_OFFSET + uncompressedOffset + read,
+                    fragmentSize,
+                    compressed,
+                    output,
+                    outputLimit,
+                    table,
+                    DEFAULT_ACCELERATION);
+            if (size < 0) {
+                if (checksum != null) {
+                    checksum.update(uncompressed, uncompressedOffset + read, uncompressedLength - read);
+                }
+                return -1;
+            }
+            output += size;
+            if (checksum != null) {
+                checksum.update(uncompressed, uncompressedOffset + read, fragmentSize);
+            }
+        }
+        if (output > outputLimit) {
+            return -1;
+        }
+        return (int) (output - outputAddress);
+    }
+
+    /**
+     * Returns true if a sample of evenly spaced bytes of the input has a nearly
+     * uniform distribution, measured by the probability that two sampled bytes
+     * are equal.  This is typical of data that is already compressed or
+     * encrypted, but also of repeated sequences of random bytes, which do
+     * compress.  Inputs with any structure, such as text, numbers, or records
+     * sampled at the same field, have a skewed distribution.
+     * <p/>
+     * This is much cheaper than the compressor, which even with match skipping
+     * probes over a thousand positions of an incompressible 32KB fragment.  The
+     * first 256 entries of the counts array are used as scratch space, so the
+     * compression hash table can be passed.
+     */
+    static boolean hasUniformByteDistribution(byte[] input, int offset, int length, short[] counts)
+    {
+        if (length < MIN_SAMPLED_LENGTH) {
+            return false;
+        }
+
+        Arrays.fill(counts, 0, 256, (short) 0);
+        int stride = length / UNIFORM_SAMPLE_SIZE;
+        for (int i = 0, position = offset; i < UNIFORM_SAMPLE_SIZE; i++, position += stride) {
+            counts[input[position] & 0xFF]++;
+        }
+
+        // sum of the squared counts is n + n * (n - 1) / 256 for uniformly random bytes
+        long sumOfSquares = 0;
+        for (int i = 0; i < 256; i++) {
+            sumOfSquares += counts[i] * counts[i];
+        }
+        long n = UNIFORM_SAMPLE_SIZE;
+        return sumOfSquares * 256 <= n * 256 + n * (n - 1) * UNIFORM_COLLISION_RATIO_PERCENT / 100;
+    }
+
+    /**
+     * Compresses the remaining bytes of the uncompressed buffer into the compressed
+     * buffer.  The position of the uncompressed buffer is advanced to its limit,
+     * and the position of the compressed buffer is advanced past the compressed data.
+     */
+    public static int compress(ByteBuffer uncompressed, ByteBuffer compressed, short[] table)
+    {
+        return compress(uncompressed, compressed, table, DEFAULT_ACCELERATION);
+    }
+
+    static int compress(ByteBuffer uncompressed, ByteBuffer compressed, short[] table, int acceleration)
+    {
+        if (compressed.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        int uncompressedLength = uncompressed.remaining();
+        checkOutputSize(uncompressedLength, compressed.remaining());
+
+        if (!isAddressable(uncompressed) || !isAddressable(compressed)) {
+            // read-only heap buffers, or direct buffers on a JVM without Unsafe, must be copied
+            byte[] input = new byte[uncompressedLength];
+            uncompressed.get(input);
+            byte[] output = new byte[maxCompressedLength(uncompressedLength)];
+            int compressedSize = compress(input, 0, uncompressedLength, output, 0, table, acceleration);
+            compressed.put(output, 0, compressedSize);
+            return compressedSize;
+        }
+
+        int compressedSize = (int) compress(
+                getBufferBase(uncompressed),
+                getBufferAddress(uncompressed),
+                uncompressedLength,
+                getBufferBase(compressed),
+                getBufferAddress(compressed),
+                table,
+                acceleration);
+
+        // updating the positions after the call also keeps direct buffers reachable while in use
+        uncompressed.position(uncompressed.limit());
+        compressed.position(compressed.position() + compressedSize);
+        return compressedSize;
+    }
+
+    /**
+     * Compresses off-heap memory.  The caller must guarantee that the input and
+     * output address ranges are valid for the duration of the call.
+     */
+    public static long compress(long inputAddress, long inputLength, long outputAddress, long outputLength, short[] table)
+    {
+        return compress(inputAddress, inputLength, outputAddress, outputLength, table, DEFAULT_ACCELERATION);
+    }
+
+    static long compress(long inputAddress, long inputLength, long outputAddress, long outputLength, short[] table, int acceleration)
+    {
+        checkOffHeapAccessSupported();
+        if (inputLength < 0 || inputLength > MAX_UNCOMPRESSED_LENGTH) {
+            throw new IllegalArgumentException(String.format("Input length %s must be between 0 and %s", inputLength, MAX_UNCOMPRESSED_LENGTH));
+        }
+        long required = maxCompressedLength(inputLength);
+        if (outputLength < required) {
+            throw new IllegalArgumentException(String.format("Output buffer must be at least %s bytes, but is %s bytes", required, outputLength));
+        }
+
+        return compress(null, inputAddress, inputLength, null, outputAddress, table, acceleration);
+    }
+
+    static void checkOutputSize(int uncompressedLength, int available)
+    {
+        // the compressor writes without bounds checks, and may write up to 32 spare bytes
+        int required = maxCompressedLength(uncompressedLength);
+        checkArgument(available >= required, "Output buffer must be at least %s bytes, but is %s bytes", required, available);
+    }
+
+    /**
+     * Compresses the input to the output, which must have space for at least
+     * {@link #maxCompressedLength(int)} bytes.  The hash table must hold at
+     * least {@link #MAX_HASH_TABLE_SIZE} entries for inputs of 16KB or more;
+     * its contents on entry do not matter.
+     */
+    static long compress(
+            final Object inputBase,
+            final long inputAddress,
+            final long inputLength,
+            final Object outputBase,
+            final long outputAddress,
+            final short[] table,
+            final int acceleration)
+    {
+        assert inputLength <= MAX_UNCOMPRESSED_LENGTH;
+
+        // First write the uncompressed size to the output as a variable length int
+        long output = writeUncompressedLength(outputBase, outputAddress, inputLength);
+
+        output += compressFragments(inputBase, inputAddress, inputLength, outputBase, output, Long.MAX_VALUE, table, acceleration);
+
+        return output - outputAddress;
+    }
+
+    /**
+     * Compresses the input without the uncompressed length header.  The input is
+     * split into fragments at multiples of {@link #BLOCK_SIZE} from its start,
+     * and no copy refers to data in an earlier fragment, so inputs that are
+     * split at such multiples can be compressed separately and concatenated.
+     */
+    static long compressFragments(
+            final Object inputBase,
+            final long inputAddress,
+            final long inputLength,
+            final Object outputBase,
+            final long outputAddress,
+            final short[] table)
+    {
+        return compressFragments(inputBase, inputAddress, inputLength, outputBase, outputAddress, Long.MAX_VALUE, table, DEFAULT_ACCELERATION);
+    }
+
+    /**
+     * Compresses the input without the uncompressed length header, or returns -1
+     * if the output would extend past outputLimit.
+     */
+    private static long compressFragments(
+            final Object inputBase,
+            final long inputAddress,
+            final long inputLength,
+            final Object outputBase,
+            final long outputAddress,
+            final long outputLimit,
+            final short[] table,
+            final int acceleration)
+    {
+        assert table.length >= getHashTableSize((int) Math.min(inputLength, BLOCK_SIZE));
+
+        long output = outputAddress;
+
+        // Every fragment is compressed independently, so the cost per byte does
+        // not depend on the total input size
+        for (long read = 0; read < inputLength; read += BLOCK_SIZE) {
+            int fragmentSize = (int) Math.min(inputLength - read, BLOCK_SIZE);
+
+            // Only the part of the table sized for this fragment is used, so only
+            // that part needs to be cleared, which keeps the cost proportional to
+            // the input for small inputs
+            Arrays.fill(table, 0, getHashTableSize(fragmentSize), (short) 0);
+
+            output = compressFragment(
+                    inputBase,
+                    inputAddress + read,
+                    fragmentSize,
+                    outputBase,
+                    output,
+                    outputLimit,
+                    table,
+                    acceleration);
+            if (output < 0) {
+                return -1;
+            }
+        }
+
+        return output - outputAddress;
+    }
+
+    /**
+     * Compresses one fragment, or returns -1 as soon as it is certain that the
+     * output would extend past outputLimit.
+     * <p/>
+     * The acceleration scales the match skipping: the search starts looking at
+     * every acceleration-th byte, instead of every byte, and moves to the next
+     * stride acceleration times sooner.
+     */
+    private static long compressFragment(
+            final Object inputBase,
+            final long inputAddress,
+            final int inputSize,
+            final Object outputBase,
+            long output,
+            final long outputLimit,
+            final short[] table,
+            final int acceleration)
+    {
+        long ip = inputAddress;
+        assert inputSize <= BLOCK_SIZE;
+        final long ipEnd = inputAddress + inputSize;
+
+        int hashTableSize = getHashTableSize(inputSize);
+        // todo given that hashTableSize is required to be a power of 2, this is overly complex
+        final int shift = 32 - log2Floor(hashTableSize);
+        assert (hashTableSize & (hashTableSize - 1)) == 0 : "table must be power of two";
+        assert 0xFFFFFFFF >>> shift == hashTableSize - 1;
+
+        // Bytes in [nextEmit, ip) will be emitted as literal bytes.  Or
+        // [nextEmit, ipEnd) after the main loop.
+        long nextEmit = ip;
+
+        if (inputSize >= INPUT_MARGIN_BYTES) {
+            final long ipLimit = inputAddress + inputSize - INPUT_MARGIN_BYTES;
+            while (ip <= ipLimit) {
+                assert nextEmit <= ip;
+
+                // The body of this loop calls EmitLiteral once and then EmitCopy one or
+                // more times.  (The exception is that when we're close to exhausting
+                // the input we exit and emit a literal.)
+                //
+                // In the first iteration of this loop we're just starting, so
+                // there's nothing to copy, so calling EmitLiteral once is
+                // necessary.  And we only start a new iteration when the
+                // current iteration has determined that a call to EmitLiteral will
+                // precede the next call to EmitCopy (if any).
+                //
+                // Step 1: Scan forward in the input looking for a 4-byte-long match.
+                // If we get close to exhausting the input exit and emit a final literal.
+                //
+                // Heuristic match skipping: If 32 bytes are scanned with no matches
+                // found, start looking only at every other byte. If 32 more bytes are
+                // scanned, look at every third byte, etc.. When a match is found,
+                // immediately go back to looking at every byte. This is a small loss
+                // (~5% performance, ~0.1% density) for compressible data due to more
+                // bookkeeping, but for non-compressible data (such as JPEG) it's a huge
+                // win since the compressor quickly "realizes" the data is incompressible
+                // and doesn't bother looking for matches everywhere.
+                //
+                // The "skip" variable keeps track of how many bytes there are since the
+                // last match, times the acceleration; dividing it by 32 (ie. right-shifting
+                // by five) gives the number of bytes to move ahead for each iteration.
+                int skip = acceleration << 5;
+
+                // The bytes skipped will be emitted as a literal, so stop scanning
+                // where that literal would not fit in the output limit
+                long scanLimit = ipLimit;
+                if (outputLimit - output < ipLimit - nextEmit) {
+                    scanLimit = nextEmit + (outputLimit - output);
+                }
+
+                long candidate = 0;
+                for (ip += 1; ip + bytesBetweenHashLookups(skip) <= scanLimit; ip += bytesBetweenHashLookups(skip), skip += acceleration) {
+                    // hash the 4 bytes starting at the input pointer
+                    int currentInt = loadInt(inputBase, ip);
+                    int hash = hashBytes(currentInt, shift);
+
+                    // get the position of a 4 bytes sequence with the same hash
+                    candidate = inputAddress + table[hash];
+                    assert candidate >= inputAddress;
+                    assert candidate < ip;
+
+                    // update the hash to point to the current position
+                    table[hash] = (short) (ip - inputAddress);
+
+                    // if the 4 byte sequence a the candidate index matches the sequence at the
+                    // current position, proceed to the next phase
+                    if (currentInt == loadInt(inputBase, candidate)) {
+                        break;
+                    }
+                }
+                if (ip + bytesBetweenHashLookups(skip) > ipLimit) {
+                    break;
+                }
+                if (ip + bytesBetweenHashLookups(skip) > scanLimit) {
+                    return -1;
+                }
+
+                // Step 2: A 4-byte match has been found.  We'll later see if more
+                // than 4 bytes match.  But, prior to the match, input
+                // bytes [nextEmit, ip) are unmatched.  Emit them as "literal bytes."
+                assert nextEmit + 16 <= ipEnd;
+                output = emitLiteral(outputBase, output, inputBase, nextEmit, (int) (ip - nextEmit), true);
+
+                // Step 3: Call EmitCopy, and then see if another EmitCopy could
+                // be our next move.  Repeat until we find no match for the
+                // input immediately after what was consumed by the last EmitCopy call.
+                //
+                // If we exit this loop normally then we need to call EmitLiteral next,
+                // though we don't yet know how big the literal will be.  We handle that
+                // by proceeding to the next iteration of the main loop.  We also can exit
+                // this loop via goto if we get close to exhausting the input.
+                //
+                // This loop and the candidate search above are inlined by hand, because
+                // returning multiple indexes from a helper method requires an array
+                // allocation that escape analysis does not reliably remove.
+                int inputBytes;
+                do {
+                    // We have a 4-byte match at ip, and no need to emit any
+                    // "literal bytes" prior to ip.
+                    int matched = 4 + findMatchLength(inputBase, candidate + 4, ip + 4, ipEnd);
+                    int offset = (int) (ip - candidate);
+                    assert SnappyInternalUtils.equals(inputBase, ip, inputBase, candidate, matched);
+                    ip += matched;
+
+                    // emit the copy operation for this chunk
+                    output = emitCopy(outputBase, output, offset, matched);
+
+                    // are we done?
+                    if (ip >= ipLimit) {
+                        break;
+                    }
+
+                    // We could immediately start working at ip now, but to improve
+                    // compression we first update table[Hash(ip - 1, ...)].
+                    int prevInt;
+                    if (SnappyInternalUtils.HAS_UNSAFE) {
+                        long foo = loadLong(inputBase, ip - 1);
+                        prevInt = (int) foo;
+                        inputBytes = (int) (foo >>> 8);
+                    }
+                    else {
+                        prevInt = loadInt(inputBase, ip - 1);
+                        inputBytes = loadInt(inputBase, ip);
+                    }
+
+                    // add hash starting with previous byte
+                    int prevHash = hashBytes(prevInt, shift);
+                    table[prevHash] = (short) (ip - inputAddress - 1);
+
+                    // update hash of current byte
+                    int curHash = hashBytes(inputBytes, shift);
+
+                    candidate = inputAddress + table[curHash];
+                    table[curHash] = (short) (ip - inputAddress);
+
+                } while (inputBytes == loadInt(inputBase, candidate));
+                nextEmit = ip;
+            }
+        }
+
+        // goto emitRemainder hack
+        if (nextEmit < ipEnd) {
+            // Emit the remaining bytes as a literal
+            output = emitLiteral(outputBase, output, inputBase, nextEmit, (int) (ipEnd - nextEmit), false);
+        }
+        return output;
+    }
+
+    private static int bytesBetweenHashLookups(int skip)
+    {
+        return (skip >>> 5);
+    }
+
+    static long emitLiteral(
+            Object outputBase,
+            long output,
+            Object literalBase,
+            final long literal,
+            final int length,
+            final boolean allowFastPath)
+    {
+        int n = length - 1;      // Zero-length literals are disallowed
+        if (n < 60) {
+            // Size fits in tag byte
+            storeByte(outputBase, output++, LITERAL | n << 2);
+
+            // The vast majority of copies are below 16 bytes, for which a
+            // call to memcpy is overkill. This fast path can sometimes
+            // copy up to 15 bytes too much, but that is okay in the
+            // main loop, since we have a bit to go on for both sides:
+            //
+            //   - The input will always have kInputMarginBytes = 15 extra
+            //     available bytes, as long as we're in the main loop, and
+            //     if not, allowFastPath = false.
+            //   - The output will always have 32 spare bytes (see
+            //     MaxCompressedLength).
+            if (allowFastPath && length <= 16) {
+                copyLong(literalBase, literal, outputBase, output);
+                copyLong(literalBase, literal + 8, outputBase, output + 8);
+                output += length;
+                return output;
+            }
+        }
+        else if (n < (1 << 8)) {
+            storeByte(outputBase, output++, LITERAL | 59 + 1 << 2);
+            storeByte(outputBase, output++, n);
+        }
+        else if (n < (1 << 16)) {
+            storeByte(outputBase, output++, LITERAL | 59 + 2 << 2);
+            storeByte(outputBase, output++, n);
+            storeByte(outputBase, output++, n >>> 8);
+        }
+        else if (n < (1 << 24)) {
+            storeByte(outputBase, output++, LITERAL | 59 + 3 << 2);
+            storeByte(outputBase, output++, n);
+            storeByte(outputBase, output++, n >>> 8);
+            storeByte(outputBase, output++, n >>> 16);
+        }
+        else {
+            storeByte(outputBase, output++, LITERAL | 59 + 4 << 2);
+            storeByte(outputBase, output++, n);
+            storeByte(outputBase, output++, n >>> 8);
+            storeByte(outputBase, output++, n >>> 16);
+            storeByte(outputBase, output++, n >>> 24);
+        }
+
+        copyMemory(literalBase, literal, outputBase, output, length);
+        output += length;
+        return output;
+    }
+
+    private static long emitCopyLessThan64(
+            Object outputBase,
+            long output,
+            int offset,
+            int length)
+    {
+        assert offset >= 0;
+        assert length <= 64;
+        assert length >= 4;
+        assert offset < 65536;
+
+        if ((length < 12) && (offset < 2048)) {
+            int lenMinus4 = length - 4;
+            assert (lenMinus4 < 8);            // Must fit in 3 bits
+            storeByte(outputBase, output++, COPY_1_BYTE_OFFSET | ((lenMinus4) << 2) | ((offset >>> 8) << 5));
+            storeByte(outputBase, output++, offset);
+        }
+        else {
+            storeByte(outputBase, output++, COPY_2_BYTE_OFFSET | ((length - 1) << 2));
+            storeByte(outputBase, output++, offset);
+            storeByte(outputBase, output++, offset >>> 8);
+        }
+        return output;
+    }
+
+    static long emitCopy(
+            Object outputBase,
+            long output,
+            int offset,
+            int length)
+    {
+        // Emit 64 byte copies but make sure to keep at least four bytes reserved
+        while (length >= 68) {
+            output = emitCopyLessThan64(outputBase, output, offset, 64);
+            length -= 64;
+        }
+
+        // Emit an extra 60 byte copy if have too much data to fit in one copy
+        if (length > 64) {
+            output = emitCopyLessThan64(outputBase, output, offset, 60);
+            length -= 60;
+        }
+
+        // Emit remainder
+        output = emitCopyLessThan64(outputBase, output, offset, length);
+        return output;
+    }
+
+    static int findMatchLength(
+            Object base,
+            long s1,
+            final long s2,
+            long s2Limit)
+    {
+        assert (s2Limit >= s2);
+
+        if (SnappyInternalUtils.HAS_UNSAFE) {
+            int matched = 0;
+
+            while (s2 + matched <= s2Limit - 4 && loadInt(base, s2 + matched) == loadInt(base, s1 + matched)) {
+                matched += 4;
+            }
+
+            if (NATIVE_LITTLE_ENDIAN && s2 + matched <= s2Limit - 4) {
+                int x = loadInt(base, s2 + matched) ^ loadInt(base, s1 + matched);
+                int matchingBits = Integer.numberOfTrailingZeros(x);
+                matched += matchingBits >> 3;
+            }
+            else {
+                while (s2 + matched < s2Limit && loadByte(base, s1 + matched) == loadByte(base, s2 + matched)) {
+                    ++matched;
+                }
+            }
+            return matched;
+        }
+        else {
+            int length = (int) (s2Limit - s2);
+            for (int matched = 0; matched < length; matched++) {
+                if (loadByte(base, s1 + matched) != loadByte(base, s2 + matched)) {
+                    return matched;
+                }
+            }
+            return length;
+        }
+    }
+
+    static int getHashTableSize(int inputSize)
+    {
+        // Use smaller hash table when input.size() is smaller, since we
+        // fill the table, incurring O(hash table size) overhead for
+        // compression, and if the input is short, we won't need that
+        // many hash table entries anyway.
+        assert (MAX_HASH_TABLE_SIZE >= 256);
+
+        int hashTableSize = 256;
+        while (hashTableSize < MAX_HASH_TABLE_SIZE && hashTableSize < inputSize) {
+            hashTableSize <<= 1;
+        }
+        assert 0 == (hashTableSize & (hashTableSize - 1)) : "hash must be power of two";
+        assert hashTableSize <= MAX_HASH_TABLE_SIZE : "hash table too large";
+        return hashTableSize;
+
+//        // todo should be faster but is not
+//        int newHashTableSize;
+//        if (inputSize < 256) {
+//            newHashTableSize = 256;
+//        } else if (inputSize > kMaxHashTableSize) {
+//            newHashTableSize = kMaxHashTableSize;
+//        } else {
+//            int leadingZeros = Integer.numberOfLeadingZeros(inputSize - 1);
+//            newHashTableSize = 1 << (32 - leadingZeros);
+//        }
+//
+//        assert 0 == (newHashTableSize & (newHashTableSize - 1)) : "hash must be power of two";
+//        assert newHashTableSize <= kMaxHashTableSize : "hash table too large";
+//        return newHashTableSize;
+    }
+
+    // Any hash function will produce a valid compressed bitstream, but a good
+    // hash function reduces the number of collisions and thus yields better
+    // compression for compressible input, and more speed for incompressible
+    // input. Of course, it doesn't hurt if the hash function is reasonably fast
+    // either, as it gets called a lot.
+    static int hashBytes(int bytes, int shift)
+    {
+        int kMul = 0x1e35a7bd;
+        return (bytes * kMul) >>> shift;
+    }
+
+    static int log2Floor(int n)
+    {
+        return n == 0 ? -1 : 31 ^ Integer.numberOfLeadingZeros(n);
+    }
+
+    /**
+     * Writes the uncompressed length as variable length integer.
+     */
+    static long writeUncompressedLength(Object outputBase, long output, long uncompressedLength)
+    {
+        assert uncompressedLength >= 0 && uncompressedLength <= MAX_UNCOMPRESSED_LENGTH;
+
+        int highBitMask = 0x80;
+        int length = (int) uncompressedLength;
+        if (uncompressedLength < (1 << 7)) {
+            storeByte(outputBase, output++, length);
+        }
+        else if (uncompressedLength < (1 << 14)) {
+            storeByte(outputBase, output++, length | highBitMask);
+            storeByte(outputBase, output++, length >>> 7);
+        }
+        else if (uncompressedLength < (1 << 21)) {
+            storeByte(outputBase, output++, length | highBitMask);
+            storeByte(outputBase, output++, (length >>> 7) | highBitMask);
+            storeByte(outputBase, output++, length >>> 14);
+        }
+        else if (uncompressedLength < (1 << 28)) {
+            storeByte(outputBase, output++, length | highBitMask);
+            storeByte(outputBase, output++, (length >>> 7) | highBitMask);
+            storeByte(outputBase, output++, (length >>> 14) | highBitMask);
+            storeByte(outputBase, output++, length >>> 21);
+        }
+        else {
+            storeByte(outputBase, output++, length | highBitMask);
+            storeByte(outputBase, output++, (length >>> 7) | highBitMask);
+            storeByte(outputBase, output++, (length >>> 14) | highBitMask);
+            storeByte(outputBase, output++, (length >>> 21) | highBitMask);
+            storeByte(outputBase, output++, length >>> 28);
+        }
+        return output;
+    }
+}
@@ -0,0 +1,615 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import static io.airlift.compress.SnappyInternalUtils.BYTE_ARRAY_OFFSET;
+import static io.airlift.compress.SnappyInternalUtils.checkOffHeapAccessSupported;
+import static io.airlift.compress.SnappyInternalUtils.checkPositionIndexes;
+import static io.airlift.compress.SnappyInternalUtils.copyLong;
+import static io.airlift.compress.SnappyInternalUtils.getBufferAddress;
+import static io.airlift.compress.SnappyInternalUtils.getBufferBase;
+import static io.airlift.compress.SnappyInternalUtils.isAddressable;
+import static io.airlift.compress.SnappyInternalUtils.loadByte;
+import static io.airlift.compress.SnappyInternalUtils.lookupShort;
+import static io.airlift.compress.SnappyInternalUtils.storeByte;
+
+final class SnappyRawDecompressor
+{
+    private static final int MAX_INCREMENT_COPY_OVERFLOW = 20;
+
+    // output is added to the checksum in chunks of about this size, while the chunk is in the L1 cache
+    private static final int CHECKSUM_CHUNK_SIZE = 4096;
+
+    public static int getUncompressedLength(byte[] compressed, int compressedOffset)
+            throws CorruptionException
+    {
+        checkPositionIndexes(compressedOffset, compressedOffset, compressed.length);
+        return toIntLength(readUncompressedLength(compressed, BYTE_ARRAY_OFFSET + compressedOffset, BYTE_ARRAY_OFFSET + compressed.length));
+    }
+
+    public static byte[] uncompress(byte[] compressed, int compressedOffset, int compressedSize)
+            throws CorruptionException
+    {
+        byte[] uncompressed = new byte[getUncompressedLength(compressed, compressedOffset)];
+        uncompress(compressed, compressedOffset, compressedSize, uncompressed, 0);
+        return uncompressed;
+    }
+
+    public static int uncompress(byte[] compressed, int compressedOffset, int compressedSize, byte[] uncompressed, int uncompressedOffset)
+            throws CorruptionException
+    {
+        checkPositionIndexes(compressedOffset, compressedOffset + compressedSize, compressed.length);
+        checkPositionIndexes(uncompressedOffset, uncompressedOffset, uncompressed.length);
+
+        return (int) uncompress(
+                compressed,
+                BYTE_ARRAY_OFFSET + compressedOffset,
+                BYTE_ARRAY_OFFSET + compressedOffset + compressedSize,
+                uncompressed,
+                BYTE_ARRAY_OFFSET + uncompressedOffset,
+                BYTE_ARRAY_OFFSET + uncompressed.length);
+    }
+
+    /**
+     * Uncompresses the input and adds the uncompressed data to the checksum, if
+     * it is not null, as it is produced instead of reading the whole output a
+     * second time.
+     */
+    static int uncompress(byte[] compressed, int compressedOffset, int compressedSize, byte[] uncompressed, int uncompressedOffset, Crc32C checksum)
+            throws CorruptionException
+    {
+        checkPositionIndexes(compressedOffset, compressedOffset + compressedSize, compressed.length);
+        checkPositionIndexes(uncompressedOffset, uncompressedOffset, uncompressed.length);
+
+        return (int) uncompress(
+                compressed,
+                BYTE_ARRAY_OFFSET + compressedOffset,
+                BYTE_ARRAY_OFFSET + compressedOffset + compressedSize,
+                uncompressed,
+                BYTE_ARRAY_OFFSET + uncompressedOffset,
+                BYTE_ARRAY_OFFSET + uncompressed.length,
+                checksum);
+    }
+
+    /**
+     * Reads the uncompressed length from the remaining bytes of the buffer
+     * without changing the position of the buffer.
+     */
+    public static int getUncompressedLength(ByteBuffer compressed)
+            throws CorruptionException
+    {
+        if (!isAddressable(compressed)) {
+            byte[] header = new byte[Math.min(compressed.remaining(), 5)];
+            compressed.duplicate().get(header);
+            return getUncompressedLength(header, 0);
+        }
+        long address = getBufferAddress(compressed);
+        return toIntLength(readUncompressedLength(getBufferBase(compressed), address, address + compressed.remaining()));
+    }
+
+    /**
+     * Uncompresses the remaining bytes of the compressed buffer into the uncompressed
+     * buffer.  The position of the compressed buffer is advanced to its limit, and
+     * the position of the uncompressed buffer is advanced past the uncompressed data.
+     */
+    public static int uncompress(ByteBuffer compressed, ByteBuffer uncompressed)
+            throws CorruptionException
+    {
+        if (uncompressed.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+
+        if (!isAddressable(compressed) || !isAddressable(uncompressed)) {
+            // read-only heap buffers, or direct buffers on a JVM without Unsafe, must be copied
+            byte[] input = new byte[compressed.remaining()];
+            compressed.duplicate().get(input);
+            byte[] output = uncompress(input, 0, input.length);
+            uncompressed.put(output);
+            compressed.position(compressed.limit());
+            return output.length;
+        }
+
+        long inputAddress = getBufferAddress(compressed);
+        long outputAddress = getBufferAddress(uncompressed);
+        int uncompressedSize = (int) uncompress(
+                getBufferBase(compressed),
+                inputAddress,
+                inputAddress + compressed.remaining(),
+                getBufferBase(uncompressed),
+                outputAddress,
+                outputAddress + uncompressed.remaining());
+
+        // updating the positions after the call also keeps direct buffers reachable while in use
+        compressed.position(compressed.limit());
+        uncompressed.position(uncompressed.position() + uncompressedSize);
+        return uncompressedSize;
+    }
+
+    /**
+     * Reads the uncompressed length from off-heap memory.
+     */
+    public static long getUncompressedLength(long inputAddress, long inputLength)
+            throws CorruptionException
+    {
+        checkOffHeapAccessSupported();
+        return readUncompressedLength(null, inputAddress, inputAddress + inputLength) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Uncompresses off-heap memory.  The caller must guarantee that the input and
+     * output address ranges are valid for the duration of the call.
+     */
+    public static long uncompress(long inputAddress, long inputLength, long outputAddress, long outputLength)
+            throws CorruptionException
+    {
+        checkOffHeapAccessSupported();
+        if (inputLength < 0 || outputLength < 0) {
+            throw new IllegalArgumentException("Lengths must not be negative");
+        }
+        return uncompress(null, inputAddress, inputAddress + inputLength, null, outputAddress, outputAddress + outputLength);
+    }
+
+    static long uncompress(
+            final Object inputBase,
+            final long inputAddress,
+            final long inputLimit,
+            final Object outputBase,
+            final long outputAddress,
+            final long outputLimit)
+            throws CorruptionException
+    {
+        return uncompress(inputBase, inputAddress, inputLimit, outputBase, outputAddress, outputLimit, null);
+    }
+
+    /**
+     * Uncompresses the input, adding the output to the checksum if it is not null,
+     * in which case the output base must be a byte array.
+     */
+    private static long uncompress(
+            final Object inputBase,
+            final long inputAddress,
+            final long inputLimit,
+            final Object outputBase,
+            final long outputAddress,
+            final long outputLimit,
+            final Crc32C checksum)
+            throws CorruptionException
+    {
+        // Read the uncompressed length from the front of the compressed input
+        long varInt = readUncompressedLength(inputBase, inputAddress, inputLimit);
+        long expectedLength = varInt & 0xFFFFFFFFL;
+        int bytesRead = (int) (varInt >>> 32);
+
+        if (expectedLength > outputLimit - outputAddress) {
+            throw new IllegalArgumentException(String.format("Uncompressed length %s must be less than %s", expectedLength, outputLimit - outputAddress));
+        }
+
+        // Process the entire input
+        long uncompressedSize = decompressAllTags(
+                inputBase,
+                inputAddress + bytesRead,
+                inputLimit,
+                outputBase,
+                outputAddress,
+                outputLimit,
+                checksum);
+
+        if (!(expectedLength == uncompressedSize)) {
+            throw new CorruptionException(String.format("Recorded length is %s bytes but actual length after decompression is %s bytes ",
+                    expectedLength,
+                    uncompressedSize));
+        }
+
+        return expectedLength;
+    }
+
+    private static long decompressAllTags(
+            final Object inputBase,
+            final long inputAddress,
+            final long inputLimit,
+            final Object outputBase,
+            final long outputAddress,
+            final long outputLimit,
+            final Crc32C checksum)
+            throws CorruptionException
+    {
+        long op = outputAddress;
+        long ip = inputAddress;
+
+        // output before checksumEnd has been added to the checksum; the next chunk
+        // is added once the output passes checksumLimit
+        long checksumEnd = outputAddress;
+        long checksumLimit = checksum == null ? Long.MAX_VALUE : outputAddress + CHECKSUM_CHUNK_SIZE;
+
+        while (ip < inputLimit - 5) {
+            if (op >= checksumLimit) {
+                // bytes before op are final: copies only write scratch bytes after op
+                updateChecksum(checksum, outputBase, checksumEnd, op);
+                checksumEnd = op;
+                checksumLimit = op + CHECKSUM_CHUNK_SIZE;
+            }
+
+            int opCode = loadByte(inputBase, ip++);
+            int entry = lookupShort(opLookupTable, opCode);
+            int trailerBytes = entry >>> 11;
+            int trailer = readTrailer(inputBase, ip, trailerBytes);
+
+            // advance the ip past the op codes
+            ip += entry >>> 11;
+            int length = entry & 0xff;
+
+            if ((opCode & 0x3) == Snappy.LITERAL) {
+                int literalLength = length + trailer;
+                if (literalLength <= 0) {
+                    // a four byte trailer can make the length negative
+                    throw new CorruptionException("Corrupt literal length for opcode starting at " + (ip - inputAddress - trailerBytes - 1));
+                }
+                copyLiteral(inputBase, ip, inputLimit, outputBase, op, outputLimit, literalLength);
+                ip += literalLength;
+                op += literalLength;
+            }
+            else {
+                // copyOffset/256 is encoded in bits 8..10.  By just fetching
+                // those bits, we get copyOffset (since the bit-field starts at
+                // bit 8).
+                int copyOffset = entry & 0x700;
+                copyOffset += trailer;
+
+                // inline to force hot-spot to keep inline
+                //
+                // Equivalent to incrementalCopy (below) except that it can write up to ten extra
+                // bytes after the end of the copy, and that it is faster.
+                //
+                // The main part of this loop is a simple copy of eight bytes at a time until
+                // we've copied (at least) the requested amount of bytes.  However, if op and
+                // src are less than eight bytes apart (indicating a repeating pattern of
+                // length < 8), we first need to expand the pattern in order to get the correct
+                // results. For instance, if the buffer looks like this, with the eight-byte
+                // <src> and <op> patterns marked as intervals:
+                //
+                //    abxxxxxxxxxxxx
+                //    [------]           src
+                //      [------]         op
+                //
+                // a single eight-byte copy from <src> to <op> will repeat the pattern once,
+                // after which we can move <op> two bytes without moving <src>:
+                //
+                //    ababxxxxxxxxxx
+                //    [------]           src
+                //        [------]       op
+                //
+                // and repeat the exercise until the two no longer overlap.
+                //
+                // This allows us to do very well in the special case of one single byte
+                // repeated many times, without taking a big hit for more general cases.
+                //
+                // The worst case of extra writing past the end of the match occurs when
+                // op - src == 1 and len == 1; the last copy will read from byte positions
+                // [0..7] and write to [4..11], whereas it was only supposed to write to
+                // position 1. Thus, ten excess bytes.
+                {
+                    long spaceLeft = outputLimit - op;
+                    long src = op - copyOffset;
+                    // a four byte trailer can make the offset negative, and the source
+                    // would then be after op
+                    if (copyOffset <= 0 || src < outputAddress) {
+                        throw new CorruptionException("Invalid copy offset for opcode starting at " + (ip - inputAddress - trailerBytes - 1));
+                    }
+
+                    if (length <= 16 && copyOffset >= 8 && spaceLeft >= 16) {
+                        // Fast path, used for the majority (70-80%) of dynamic invocations.
+                        copyLong(outputBase, src, outputBase, op);
+                        copyLong(outputBase, src + 8, outputBase, op + 8);
+                    }
+                    else if (spaceLeft >= length + MAX_INCREMENT_COPY_OVERFLOW) {
+                        incrementalCopyFastPath(outputBase, src, op, length);
+                    }
+                    else {
+                        if (length > spaceLeft) {
+                            throw new CorruptionException("Corrupt copy length for opcode starting at " + (ip - inputAddress - trailerBytes - 1));
+                        }
+                        incrementalCopy(outputBase, src, op, length);
+                    }
+                }
+                op += length;
+            }
+        }
+
+        // This is a second copy of the inner loop above used when near the end
+        // of the input. The key difference is the reading of the trailer bytes.  The fast
+        // code does a blind read of the next 4 bytes as an int, and this code assembles
+        // the int byte-by-byte to assure that the input is not over run.  The reason this
+        // code path is separate is the if condition to choose between these two seemingly
+        // small differences costs like 10-20% of the throughput.  I'm hoping in future
+        // versions of hot-spot this code can be integrated into the main loop but for now
+        // it is worth the extra maintenance pain to get the extra 10-20%.
+        //
+        // This loop used to live in a separate method, but that method had to return both
+        // indexes in a newly allocated array for every tag near the end of the input.
+        while (ip < inputLimit) {
+            // read the op code
+            int opCode = loadByte(inputBase, ip++);
+            int entry = lookupShort(opLookupTable, opCode);
+            int trailerBytes = entry >>> 11;
+            if (ip + trailerBytes > inputLimit) {
+                throw new CorruptionException("Truncated opcode starting at " + (ip - inputAddress - 1));
+            }
+            //
+            // Key difference here
+            //
+            int trailer = 0;
+            switch (trailerBytes) {
+                case 4:
+                    trailer = loadByte(inputBase, ip + 3) << 24;
+                case 3:
+                    trailer |= loadByte(inputBase, ip + 2) << 16;
+                case 2:
+                    trailer |= loadByte(inputBase, ip + 1) << 8;
+                case 1:
+                    trailer |= loadByte(inputBase, ip);
+            }
+
+            // advance the ip past the op codes
+            ip += trailerBytes;
+            int length = entry & 0xff;
+
+            if ((opCode & 0x3) == Snappy.LITERAL) {
+                int literalLength = length + trailer;
+                if (literalLength <= 0) {
+                    // a four byte trailer can make the length negative
+                    throw new CorruptionException("Corrupt literal length for opcode starting at " + (ip - inputAddress - trailerBytes - 1));
+                }
+                copyLiteral(inputBase, ip, inputLimit, outputBase, op, outputLimit, literalLength);
+                ip += literalLength;
+                op += literalLength;
+            }
+            else {
+                // copyOffset/256 is encoded in bits 8..10.  By just fetching
+                // those bits, we get copyOffset (since the bit-field starts at
+                // bit 8).
+                int copyOffset = entry & 0x700;
+                copyOffset += trailer;
+
+                // inline to force hot-spot to keep inline
+                {
+                    long spaceLeft = outputLimit - op;
+                    long src = op - copyOffset;
+
+                    // a four byte trailer can make the offset negative, and the source
+                    // would then be after op
+                    if (copyOffset <= 0 || src < outputAddress) {
+                        throw new CorruptionException("Invalid copy offset for opcode starting at " + (ip - inputAddress - trailerBytes - 1));
+                    }
+
+                    if (length <= 16 && copyOffset >= 8 && spaceLeft >= 16) {
+                        // Fast path, used for the majority (70-80%) of dynamic invocations.
+                        copyLong(outputBase, src, outputBase, op);
+                        copyLong(outputBase, src + 8, outputBase, op + 8);
+                    }
+                    else if (spaceLeft >= length + MAX_INCREMENT_COPY_OVERFLOW) {
+                        incrementalCopyFastPath(outputBase, src, op, length);
+                    }
+                    else {
+                        if (length > spaceLeft) {
+                            throw new CorruptionException("Corrupt copy length for opcode starting at " + (ip - inputAddress - trailerBytes - 1));
+                        }
+                        incrementalCopy(outputBase, src, op, length);
+                    }
+                }
+                op += length;
+            }
+        }
+
+        if (checksum != null) {
+            updateChecksum(checksum, outputBase, checksumEnd, op);
+        }
+        return op - outputAddress;
+    }
+
+    private static void updateChecksum(Crc32C checksum, Object outputBase, long start, long end)
+    {
+        checksum.update((byte[]) outputBase, (int) (start - BYTE_ARRAY_OFFSET), (int) (end - start));
+    }
+
+    private static int readTrailer(Object base, long address, int bytes)
+    {
+        return SnappyInternalUtils.loadInt(base, address) & wordmask[bytes];
+    }
+
+    private static void copyLiteral(Object inputBase, long ip, long inputLimit, Object outputBase, long op, long outputLimit, int length)
+            throws CorruptionException
+    {
+        assert length > 0;
+
+        long spaceLeft = outputLimit - op;
+        long readableBytes = inputLimit - ip;
+
+        if (readableBytes < length || spaceLeft < length) {
+            throw new CorruptionException("Corrupt literal length");
+        }
+
+        if (length <= 16 && spaceLeft >= 16 && readableBytes >= 16) {
+            copyLong(inputBase, ip, outputBase, op);
+            copyLong(inputBase, ip + 8, outputBase, op + 8);
+        }
+        else  {
+            int fastLength = length & 0xFFFFFFF8;
+            if (fastLength <= 64) {
+                // copy long-by-long
+                for (int i = 0; i < fastLength; i += 8) {
+                    copyLong(inputBase, ip + i, outputBase, op + i);
+                }
+
+                // copy byte-by-byte
+                int slowLength = length & 0x7;
+                // NOTE: This is not a manual array copy.  We are copying an overlapping region
+                // and we want input data to repeat as it is recopied. see incrementalCopy below.
+                for (int i = 0; i < slowLength; i += 1) {
+                    storeByte(outputBase, op + fastLength + i, loadByte(inputBase, ip + fastLength + i));
+                }
+            }
+            else {
+                SnappyInternalUtils.copyMemory(inputBase, ip, outputBase, op, length);
+            }
+        }
+    }
+
+    /**
+     * Copy "len" bytes from "src" to "op", one byte at a time.  Used for
+     * handling COPY operations where the input and output regions may
+     * overlap.  For example, suppose:
+     * src    == "ab"
+     * op     == src + 2
+     * len    == 20
+     *
+     * After incrementalCopy, the result will have
+     * eleven copies of "ab"
+     * ababababababababababab
+     * Note that this does not match the semantics of either memcpy()
+     * or memmove().
+     */
+    private static void incrementalCopy(Object base, long src, long op, int length)
+    {
+        do {
+            storeByte(base, op++, loadByte(base, src++));
+        } while (--length > 0);
+    }
+
+    private static void incrementalCopyFastPath(Object base, long src, long op, int length)
+    {
+        int copiedLength = 0;
+        while ((op + copiedLength) - src < 8) {
+            copyLong(base, src, base, op + copiedLength);
+            copiedLength += (op + copiedLength) - src;
+        }
+
+        for (int i = 0; i < length - copiedLength; i += 8) {
+            copyLong(base, src + i, base, op + copiedLength + i);
+        }
+    }
+
+    // Mapping from i in range [0,4] to a mask to extract the bottom 8*i bits
+    private static final int[] wordmask = new int[]{
+            0, 0xff, 0xffff, 0xffffff, 0xffffffff
+    };
+
+    // Data stored per entry in lookup table:
+    //      Range   Bits-used       Description
+    //      ------------------------------------
+    //      1..64   0..7            Literal/copy length encoded in opcode byte
+    //      0..7    8..10           Copy offset encoded in opcode byte / 256
+    //      0..4    11..13          Extra bytes after opcode
+    //
+    // We use eight bits for the length even though 7 would have sufficed
+    // because of efficiency reasons:
+    //      (1) Extracting a byte is faster than a bit-field
+    //      (2) It properly aligns copy offset so we do not need a <<8
+    private static final short[] opLookupTable = new short[]{
+            0x0001, 0x0804, 0x1001, 0x2001, 0x0002, 0x0805, 0x1002, 0x2002,
+            0x0003, 0x0806, 0x1003, 0x2003, 0x0004, 0x0807, 0x1004, 0x2004,
+            0x0005, 0x0808, 0x1005, 0x2005, 0x0006, 0x0809, 0x1006, 0x2006,
+            0x0007, 0x080a, 0x1007, 0x2007, 0x0008, 0x080b, 0x1008, 0x2008,
+            0x0009, 0x0904, 0x1009, 0x2009, 0x000a, 0x0905, 0x100a, 0x200a,
+            0x000b, 0x0906, 0x100b, 0x200b, 0x000c, 0x0907, 0x100c, 0x200c,
+            0x000d, 0x0908, 0x100d, 0x200d, 0x000e, 0x0909, 0x100e, 0x200e,
+            0x000f, 0x090a, 0x100f, 0x200f, 0x0010, 0x090b, 0x1010, 0x2010,
+            0x0011, 0x0a04, 0x1011, 0x2011, 0x0012, 0x0a05, 0x1012, 0x2012,
+            0x0013, 0x0a06, 0x1013, 0x2013, 0x0014, 0x0a07, 0x1014, 0x2014,
+            0x0015, 0x0a08, 0x1015, 0x2015, 0x0016, 0x0a09, 0x1016, 0x2016,
+            0x0017, 0x0a0a, 0x1017, 0x2017, 0x0018, 0x0a0b, 0x1018, 0x2018,
+            0x0019, 0x0b04, 0x1019, 0x2019, 0x001a, 0x0b05, 0x101a, 0x201a,
+            0x001b, 0x0b06, 0x101b, 0x201b, 0x001c, 0x0b07, 0x101c, 0x201c,
+            0x001d, 0x0b08, 0x101d, 0x201d, 0x001e, 0x0b09, 0x101e, 0x201e,
+            0x001f, 0x0b0a, 0x101f, 0x201f, 0x0020, 0x0b0b, 0x1020, 0x2020,
+            0x0021, 0x0c04, 0x1021, 0x2021, 0x0022, 0x0c05, 0x1022, 0x2022,
+            0x0023, 0x0c06, 0x1023, 0x2023, 0x0024, 0x0c07, 0x1024, 0x2024,
+            0x0025, 0x0c08, 0x1025, 0x2025, 0x0026, 0x0c09, 0x1026, 0x2026,
+            0x0027, 0x0c0a, 0x1027, 0x2027, 0x0028, 0x0c0b, 0x1028, 0x2028,
+            0x0029, 0x0d04, 0x1029, 0x2029, 0x002a, 0x0d05, 0x102a, 0x202a,
+            0x002b, 0x0d06, 0x102b, 0x202b, 0x002c, 0x0d07, 0x102c, 0x202c,
+            0x002d, 0x0d08, 0x102d, 0x202d, 0x002e, 0x0d09, 0x102e, 0x202e,
+            0x002f, 0x0d0a, 0x102f, 0x202f, 0x0030, 0x0d0b, 0x1030, 0x2030,
+            0x0031, 0x0e04, 0x1031, 0x2031, 0x0032, 0x0e05, 0x1032, 0x2032,
+            0x0033, 0x0e06, 0x1033, 0x2033, 0x0034, 0x0e07, 0x1034, 0x2034,
+            0x0035, 0x0e08, 0x1035, 0x2035, 0x0036, 0x0e09, 0x1036, 0x2036,
+            0x0037, 0x0e0a, 0x1037, 0x2037, 0x0038, 0x0e0b, 0x1038, 0x2038,
+            0x0039, 0x0f04, 0x1039, 0x2039, 0x003a, 0x0f05, 0x103a, 0x203a,
+            0x003b, 0x0f06, 0x103b, 0x203b, 0x003c, 0x0f07, 0x103c, 0x203c,
+            0x0801, 0x0f08, 0x103d, 0x203d, 0x1001, 0x0f09, 0x103e, 0x203e,
+            0x1801, 0x0f0a, 0x103f, 0x203f, 0x2001, 0x0f0b, 0x1040, 0x2040
+    };
+
+    /**
+     * Reads the variable length integer encoded a the specified address, and
+     * returns this length as an unsigned int in the low 32 bits with the number
+     * of bytes read in the high 32 bits.
+     */
+    private static long readUncompressedLength(Object base, long address, long limit)
+            throws CorruptionException
+    {
+        int result;
+        int bytesRead = 0;
+        {
+            int b = getUnsignedByteSafe(base, address + bytesRead++, limit);
+            result = b & 0x7f;
+            if ((b & 0x80) != 0) {
+                b = getUnsignedByteSafe(base, address + bytesRead++, limit);
+                result |= (b & 0x7f) << 7;
+                if ((b & 0x80) != 0) {
+                    b = getUnsignedByteSafe(base, address + bytesRead++, limit);
+                    result |= (b & 0x7f) << 14;
+                    if ((b & 0x80) != 0) {
+                        b = getUnsignedByteSafe(base, address + bytesRead++, limit);
+                        result |= (b & 0x7f) << 21;
+                        if ((b & 0x80) != 0) {
+                            b = getUnsignedByteSafe(base, address + bytesRead++, limit);
+                            result |= (b & 0x7f) << 28;
+                            if ((b & 0x80) != 0) {
+                                throw new CorruptionException("last byte of compressed length int has high bit set");
+                            }
+                            if (b > 0x0f) {
+                                throw new CorruptionException("compressed length int is larger than 32 bits");
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return (((long) bytesRead) << 32) | (result & 0xFFFFFFFFL);
+    }
+
+    private static int toIntLength(long varInt)
+    {
+        long length = varInt & 0xFFFFFFFFL;
+        if (length > Integer.MAX_VALUE) {
+            throw new CorruptionException("Uncompressed length " + length + " is too large for a byte array or buffer");
+        }
+        return (int) length;
+    }
+
+    private static int getUnsignedByteSafe(Object base, long address, long limit)
+    {
+        if (address >= limit) {
+            throw new CorruptionException("Input is truncated");
+        }
+        return loadByte(base, address);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+/**
+ * Decides whether a throughput targeted {@link SnappyOutputStream} should
+ * compress its next block, from moving averages of the time spent compressing
+ * per input byte, the compressed size per input byte, and the time spent
+ * writing to the underlying stream per output byte.  Compressing pays off when
+ * it takes less time than writing the bytes it saves.  While it does not, one
+ * block in {@link #PROBE_INTERVAL} is still compressed to keep measuring.
+ * <p/>
+ * The costs are measured by the stream, so the decisions can be tested with
+ * any costs.
+ */
+final class ThroughputEstimator
+{
+    static final int PROBE_INTERVAL = 16;
+
+    private boolean measured;
+    private double compressNanosPerByte;
+    private double compressionRatio;
+    private double writeNanosPerByte;
+    private int blocksSinceCompressed;
+
+    /**
+     * Returns true if the next block should be compressed.  Until the first
+     * compressed block has been measured, every block is.
+     */
+    boolean shouldCompress()
+    {
+        if (measured && !compressionPaysOff()) {
+            blocksSinceCompressed++;
+            if (blocksSinceCompressed < PROBE_INTERVAL) {
+                return false;
+            }
+        }
+        blocksSinceCompressed = 0;
+        return true;
+    }
+
+    boolean compressionPaysOff()
+    {
+        return compressNanosPerByte < writeNanosPerByte * (1 - compressionRatio);
+    }
+
+    /**
+     * Adds the costs measured for a block.  The compression estimates are only
+     * updated by blocks that were compressed, successfully or not.
+     *
+     * @param attempted whether compressing the block was tried
+     * @param length the uncompressed length of the block
+     * @param compressNanos the time spent compressing, if attempted
+     * @param written the bytes written to the underlying stream for the block
+     * @param writeNanos the time spent writing them
+     */
+    void update(boolean attempted, int length, long compressNanos, int written, long writeNanos)
+    {
+        if (!measured) {
+            if (!attempted) {
+                return;
+            }
+            compressNanosPerByte = (double) compressNanos / length;
+            compressionRatio = (double) written / length;
+            writeNanosPerByte = (double) writeNanos / written;
+            measured = true;
+            return;
+        }
+
+        if (attempted) {
+            compressNanosPerByte = movingAverage(compressNanosPerByte, (double) compressNanos / length);
+            compressionRatio = movingAverage(compressionRatio, (double) written / length);
+        }
+        writeNanosPerByte = movingAverage(writeNanosPerByte, (double) writeNanos / written);
+    }
+
+    private static double movingAverage(double average, double sample)
+    {
+        return average + (sample - average) / 4;
+    }
+}
@@ -20,6 +20,7 @@ package io.airlift.compress;
 import sun.misc.Unsafe;
 
 import java.lang.reflect.Field;
+import java.nio.Buffer;
 
 class UnsafeMemory implements Memory
 {
@@ -31,7 +32,7 @@ class UnsafeMemory implements Memory
             theUnsafe.setAccessible(true);
             unsafe = (Unsafe) theUnsafe.get(null);
             // It seems not all Unsafe implementations implement the following method.
-            new UnsafeMemory().copyMemory(new byte[1], 0, new byte[1], 0, 1);
+            unsafe.copyMemory(new byte[1], unsafe.arrayBaseOffset(byte[].class), new byte[1], unsafe.arrayBaseOffset(byte[].class), 1);
         }
         catch (Exception e) {
             throw new RuntimeException(e);
@@ -42,12 +43,46 @@ class UnsafeMemory implements Memory
     private static final long SHORT_ARRAY_OFFSET = unsafe.arrayBaseOffset(short[].class);
     private static final long SHORT_ARRAY_STRIDE = unsafe.arrayIndexScale(short[].class);
 
+    // Direct buffers are optional; the byte array paths work without them
+    private static final long ADDRESS_FIELD_OFFSET = getAddressFieldOffset();
+
+    private static long getAddressFieldOffset()
+    {
+        try {
+            return unsafe.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        }
+        catch (Exception e) {
+            return -1;
+        }
+    }
+
     @Override
     public boolean fastAccessSupported()
     {
         return true;
     }
 
+    @Override
+    public boolean directBufferAccessSupported()
+    {
+        return ADDRESS_FIELD_OFFSET >= 0;
+    }
+
+    @Override
+    public long getByteArrayBaseOffset()
+    {
+        return BYTE_ARRAY_OFFSET;
+    }
+
+    @Override
+    public long getDirectBufferAddress(Buffer buffer)
+    {
+        if (!buffer.isDirect() || ADDRESS_FIELD_OFFSET < 0) {
+            throw new UnsupportedOperationException("Buffer address is not accessible");
+        }
+        return unsafe.getLong(buffer, ADDRESS_FIELD_OFFSET);
+    }
+
     @Override
     public int lookupShort(short[] data, int index)
     {
@@ -57,47 +92,65 @@ class UnsafeMemory implements Memory
     }
 
     @Override
-    public int loadByte(byte[] data, int index)
+    public int loadByte(Object base, long address)
     {
-        assert index >= 0;
-        assert index <= data.length;
-        return unsafe.getByte(data, BYTE_ARRAY_OFFSET + index) & 0xFF;
+        assert inBounds(base, address, 1);
+        return unsafe.getByte(base, address) & 0xFF;
     }
 
     @Override
-    public int loadInt(byte[] data, int index)
+    public int loadInt(Object base, long address)
     {
-        assert index >= 0;
-        assert index + 4 <= data.length;
-        return unsafe.getInt(data, BYTE_ARRAY_OFFSET + index);
+        assert inBounds(base, address, 4);
+        return unsafe.getInt(base, address);
+    }
+
+    @Override
+    public long loadLong(Object base, long address)
+    {
+        assert inBounds(base, address, 8);
+        return unsafe.getLong(base, address);
     }
 
     @Override
-    public void copyLong(byte[] src, int srcIndex, byte[] dest, int destIndex)
+    public void storeByte(Object base, long address, int value)
     {
-        assert srcIndex >= 0;
-        assert srcIndex + 8 <= src.length;
-        assert destIndex >= 0;
-        assert destIndex + 8 <= dest.length;
-        long value = unsafe.getLong(src, BYTE_ARRAY_OFFSET + srcIndex);
-        unsafe.putLong(dest, (BYTE_ARRAY_OFFSET + destIndex), value);
+        assert inBounds(base, address, 1);
+        unsafe.putByte(base, address, (byte) value);
     }
 
     @Override
-    public long loadLong(byte[] data, int index)
+    public void copyLong(Object srcBase, long srcAddress, Object destBase, long destAddress)
     {
-        assert index > 0;
-        assert index + 4 < data.length;
-        return unsafe.getLong(data, BYTE_ARRAY_OFFSET + index);
+        assert inBounds(srcBase, srcAddress, 8);
+        assert inBounds(destBase, destAddress, 8);
+        long value = unsafe.getLong(srcBase, srcAddress);
+        unsafe.putLong(destBase, destAddress, value);
     }
 
     @Override
-    public void copyMemory(byte[] input, int inputIndex, byte[] output, int outputIndex, int length)
+    public void copyMemory(Object inputBase, long inputAddress, Object outputBase, long outputAddress, int length)
+    {
+        assert length >= 0;
+        assert inBounds(inputBase, inputAddress, length);
+        assert inBounds(outputBase, outputAddress, length);
+        unsafe.copyMemory(inputBase, inputAddress, outputBase, outputAddress, length);
+    }
+
+    /**
+     * Returns true if the size bytes at the address lie within the array.  A
+     * null base means the address is off-heap, and it can not be checked.
+     */
+    private static boolean inBounds(Object base, long address, long size)
     {
-        assert inputIndex >= 0;
-        assert inputIndex + length <= input.length;
-        assert outputIndex >= 0;
-        assert outputIndex + length <= output.length;
-        unsafe.copyMemory(input, UnsafeMemory.BYTE_ARRAY_OFFSET + inputIndex, output, UnsafeMemory.BYTE_ARRAY_OFFSET + outputIndex, length);
+        if (base instanceof byte[]) {
+            long index = address - BYTE_ARRAY_OFFSET;
+            return index >= 0 && index + size <= ((byte[]) base).length;
+        }
+        if (base instanceof short[]) {
+            long index = address - SHORT_ARRAY_OFFSET;
+            return index >= 0 && index + size <= ((short[]) base).length * SHORT_ARRAY_STRIDE;
+        }
+        return base == null;
     }
 }
@@ -22,11 +22,12 @@ import io.airlift.compress.SnappyBench.TestData;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public enum BenchmarkDriver
 {
-    JAVA_BLOCK
+    JAVA_BLOCK("Java")
             {
                 @Override
                 public long compress(TestData testData, long iterations)
@@ -109,7 +110,267 @@ public enum BenchmarkDriver
                 }
             },
 
-    JNI_BLOCK
+    JAVA_BLOCK_DIRECT("Direct")
+            {
+                @Override
+                public long compress(TestData testData, long iterations)
+                {
+                    // Read the file and create buffers out side of timing
+                    ByteBuffer contents = toDirectBuffer(testData.getContents());
+                    ByteBuffer compressed = ByteBuffer.allocateDirect(Snappy.maxCompressedLength(contents.remaining()));
+
+                    long start = System.nanoTime();
+                    while (iterations-- > 0) {
+                        contents.clear();
+                        compressed.clear();
+                        Snappy.compress(contents, compressed);
+                    }
+                    long timeInNanos = System.nanoTime() - start;
+
+                    return timeInNanos;
+                }
+
+                @Override
+                public long uncompress(TestData testData, long iterations)
+                {
+                    // Read the file and create buffers out side of timing
+                    ByteBuffer compressed = toDirectBuffer(Snappy.compress(testData.getContents()));
+                    ByteBuffer uncompressed = ByteBuffer.allocateDirect(testData.size());
+
+                    long start = System.nanoTime();
+                    while (iterations-- > 0) {
+                        compressed.clear();
+                        uncompressed.clear();
+                        Snappy.uncompress(compressed, uncompressed);
+                    }
+                    long timeInNanos = System.nanoTime() - start;
+
+                    // verify results
+                    uncompressed.flip();
+                    verifyUncompressed(testData, uncompressed);
+
+                    return timeInNanos;
+                }
+
+                @Override
+                public long roundTrip(TestData testData, long iterations)
+                {
+                    // Read the file and create buffers out side of timing
+                    ByteBuffer contents = toDirectBuffer(testData.getContents());
+                    ByteBuffer compressed = ByteBuffer.allocateDirect(Snappy.maxCompressedLength(contents.remaining()));
+                    ByteBuffer uncompressed = ByteBuffer.allocateDirect(testData.size());
+
+                    long start = System.nanoTime();
+                    while (iterations-- > 0) {
+                        contents.clear();
+                        compressed.clear();
+                        uncompressed.clear();
+                        Snappy.compress(contents, compressed);
+                        compressed.flip();
+                        Snappy.uncompress(compressed, uncompressed);
+                    }
+                    long timeInNanos = System.nanoTime() - start;
+
+                    // verify results
+                    uncompressed.flip();
+                    verifyUncompressed(testData, uncompressed);
+
+                    return timeInNanos;
+                }
+
+                @Override
+                public double getCompressionRatio(TestData testData)
+                {
+                    return JAVA_BLOCK.getCompressionRatio(testData);
+                }
+            },
+
+    JAVA_BLOCK_INSTANCE("Instance")
+            {
+                @Override
+                public long compress(TestData testData, long iterations)
+                {
+                    // Read the file and create buffers out side of timing
+                    byte[] contents = testData.getContents();
+                    byte[] compressed = new byte[SnappyCompressor.maxCompressedLength(contents.length)];
+                    SnappyCompressor compressor = new SnappyCompressor();
+
+                    long start = System.nanoTime();
+                    while (iterations-- > 0) {
+                        compressor.compress(contents, 0, contents.length, compressed, 0);
+                    }
+                    long timeInNanos = System.nanoTime() - start;
+
+                    return timeInNanos;
+                }
+
+                @Override
+                public long uncompress(TestData testData, long iterations)
+                {
+                    // Read the file and create buffers out side of timing
+                    byte[] compressed = testData.getCompressed();
+                    byte[] uncompressed = new byte[testData.size()];
+                    SnappyDecompressor decompressor = new SnappyDecompressor();
+
+                    long start = System.nanoTime();
+                    while (iterations-- > 0) {
+                        decompressor.uncompress(compressed, 0, compressed.length, uncompressed, 0);
+                    }
+                    long timeInNanos = System.nanoTime() - start;
+
+                    // verify results
+                    verifyUncompressed(testData, ByteBuffer.wrap(uncompressed));
+
+                    return timeInNanos;
+                }
+
+                @Override
+                public long roundTrip(TestData testData, long iterations)
+                {
+                    // Read the file and create buffers out side of timing
+                    byte[] contents = testData.getContents();
+                    byte[] compressed = new byte[SnappyCompressor.maxCompressedLength(contents.length)];
+                    byte[] uncompressed = new byte[contents.length];
+                    SnappyCompressor compressor = new SnappyCompressor();
+                    SnappyDecompressor decompressor = new SnappyDecompressor();
+
+                    long start = System.nanoTime();
+                    while (iterations-- > 0) {
+                        int compressedSize = compressor.compress(contents, 0, contents.length, compressed, 0);
+                        decompressor.uncompress(compressed, 0, compressedSize, uncompressed, 0);
+                    }
+                    long timeInNanos = System.nanoTime() - start;
+
+                    // verify results
+                    verifyUncompressed(testData, ByteBuffer.wrap(uncompressed));
+
+                    return timeInNanos;
+                }
+
+                @Override
+                public double getCompressionRatio(TestData testData)
+                {
+                    return JAVA_BLOCK.getCompressionRatio(testData);
+                }
+            },
+
+    JAVA_BLOCK_CHECKSUM("Two pass")
+            {
+                @Override
+                public long compress(TestData testData, long iterations)
+                {
+                    // Read the file and create buffers out side of timing
+                    byte[] contents = testData.getContents();
+                    byte[] compressed = new byte[Snappy.maxCompressedLength(contents.length)];
+                    int checksum = 0;
+
+                    long start = System.nanoTime();
+                    while (iterations-- > 0) {
+                        checksum = Crc32C.maskedCrc32c(contents, 0, contents.length);
+                        Snappy.compress(contents, 0, contents.length, compressed, 0);
+                    }
+                    long timeInNanos = System.nanoTime() - start;
+
+                    verifyChecksum(testData, checksum);
+                    return timeInNanos;
+                }
+
+                @Override
+                public long uncompress(TestData testData, long iterations)
+                {
+                    // Read the file and create buffers out side of timing
+                    byte[] compressed = testData.getCompressed();
+                    byte[] uncompressed = new byte[testData.size()];
+                    int checksum = 0;
+
+                    long start = System.nanoTime();
+                    while (iterations-- > 0) {
+                        Snappy.uncompress(compressed, 0, compressed.length, uncompressed, 0);
+                        checksum = Crc32C.maskedCrc32c(uncompressed, 0, uncompressed.length);
+                    }
+                    long timeInNanos = System.nanoTime() - start;
+
+                    // verify results
+                    verifyUncompressed(testData, ByteBuffer.wrap(uncompressed));
+                    verifyChecksum(testData, checksum);
+
+                    return timeInNanos;
+                }
+
+                @Override
+                public long roundTrip(TestData testData, long iterations)
+                {
+                    return compress(testData, iterations) + uncompress(testData, iterations);
+                }
+
+                @Override
+                public double getCompressionRatio(TestData testData)
+                {
+                    return JAVA_BLOCK.getCompressionRatio(testData);
+                }
+            },
+
+    JAVA_BLOCK_FUSED_CHECKSUM("Fused")
+            {
+                @Override
+                public long compress(TestData testData, long iterations)
+                {
+                    // Read the file and create buffers out side of timing
+                    byte[] contents = testData.getContents();
+                    byte[] compressed = new byte[Snappy.maxCompressedLength(contents.length)];
+                    Crc32C crc32c = new Crc32C();
+                    int checksum = 0;
+
+                    long start = System.nanoTime();
+                    while (iterations-- > 0) {
+                        crc32c.reset();
+                        Snappy.compress(contents, 0, contents.length, compressed, 0, crc32c);
+                        checksum = crc32c.getMaskedValue();
+                    }
+                    long timeInNanos = System.nanoTime() - start;
+
+                    verifyChecksum(testData, checksum);
+                    return timeInNanos;
+                }
+
+                @Override
+                public long uncompress(TestData testData, long iterations)
+                {
+                    // Read the file and create buffers out side of timing
+                    byte[] compressed = testData.getCompressed();
+                    byte[] uncompressed = new byte[testData.size()];
+                    Crc32C crc32c = new Crc32C();
+                    int checksum = 0;
+
+                    long start = System.nanoTime();
+                    while (iterations-- > 0) {
+                        crc32c.reset();
+                        Snappy.uncompress(compressed, 0, compressed.length, uncompressed, 0, crc32c);
+                        checksum = crc32c.getMaskedValue();
+                    }
+                    long timeInNanos = System.nanoTime() - start;
+
+                    // verify results
+                    verifyUncompressed(testData, ByteBuffer.wrap(uncompressed));
+                    verifyChecksum(testData, checksum);
+
+                    return timeInNanos;
+                }
+
+                @Override
+                public long roundTrip(TestData testData, long iterations)
+                {
+                    return compress(testData, iterations) + uncompress(testData, iterations);
+                }
+
+                @Override
+                public double getCompressionRatio(TestData testData)
+                {
+                    return JAVA_BLOCK.getCompressionRatio(testData);
+                }
+            },
+
+    JNI_BLOCK("JNI")
             {
                 @Override
                 public long compress(TestData testData, long iterations)
@@ -215,7 +476,7 @@ public enum BenchmarkDriver
                 }
             },
 
-    JAVA_STREAM
+    JAVA_STREAM("Java")
             {
                 @Override
                 public long compress(TestData testData, long iterations)
@@ -330,7 +591,7 @@ public enum BenchmarkDriver
                 }
             },
 
-    JNI_STREAM
+    JNI_STREAM("JNI")
             {
                 @Override
                 public long compress(TestData testData, long iterations)
@@ -447,6 +708,42 @@ public enum BenchmarkDriver
                 }
             },;
 
+    private final String label;
+
+    BenchmarkDriver(String label)
+    {
+        this.label = label;
+    }
+
+    public String getLabel()
+    {
+        return label;
+    }
+
+    private static ByteBuffer toDirectBuffer(byte[] data)
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void verifyChecksum(TestData testData, int checksum)
+    {
+        if (checksum != Crc32C.maskedCrc32c(testData.getContents())) {
+            throw new AssertionError("Invalid checksum for " + testData);
+        }
+    }
+
+    private static void verifyUncompressed(TestData testData, ByteBuffer uncompressed)
+    {
+        byte[] actual = new byte[uncompressed.remaining()];
+        uncompressed.get(actual);
+        if (!Arrays.equals(actual, testData.getContents())) {
+            throw new AssertionError("Invalid uncompressed output for " + testData);
+        }
+    }
+
     public abstract long compress(TestData testData, long iterations);
 
     public abstract long uncompress(TestData testData, long iterations);
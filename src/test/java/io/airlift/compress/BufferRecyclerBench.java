@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import com.google.common.base.Throwables;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures small stream round trips, which allocate all their buffers from
+ * the {@link BufferRecycler}, with increasing numbers of threads all started
+ * at once.
+ */
+public class BufferRecyclerBench
+{
+    private static final int TOTAL_OPERATIONS = 200000;
+    private static final int MESSAGE_SIZE = 1024;
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        final byte[] message = new byte[MESSAGE_SIZE];
+        System.arraycopy(SnappyBench.TestData.html.getContents(), 0, message, 0, MESSAGE_SIZE);
+
+        // warm up
+        run(message, 4, TOTAL_OPERATIONS);
+
+        System.err.printf("%-8s %12s %10s %12s %12s%n", "threads", "ops/s", "hit rate", "allocated", "pooled");
+        for (int threads : new int[] {1, 8, 64, 10000}) {
+            BufferRecycler recycler = BufferRecycler.instance();
+            recycler.trim();
+            long hits = recycler.getHits();
+            long misses = recycler.getMisses();
+            long allocated = recycler.getAllocatedBytes();
+
+            long nanos = run(message, threads, TOTAL_OPERATIONS);
+
+            hits = recycler.getHits() - hits;
+            misses = recycler.getMisses() - misses;
+            allocated = recycler.getAllocatedBytes() - allocated;
+            System.err.printf("%-8d %12.0f %9.1f%% %10.1fMB %10.1fMB%n",
+                    threads,
+                    TOTAL_OPERATIONS / (nanos / 1e9),
+                    100.0 * hits / (hits + misses),
+                    allocated / 1024.0 / 1024.0,
+                    recycler.getPooledBytes() / 1024.0 / 1024.0);
+        }
+    }
+
+    private static long run(final byte[] message, int threadCount, int operations)
+            throws InterruptedException
+    {
+        final int operationsPerThread = Math.max(1, operations / threadCount);
+        final CountDownLatch ready = new CountDownLatch(threadCount);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        ready.countDown();
+                        start.await();
+                        byte[] uncompressed = new byte[message.length];
+                        ByteArrayOutputStream compressed = new ByteArrayOutputStream(2 * message.length);
+                        for (int i = 0; i < operationsPerThread; i++) {
+                            compressed.reset();
+                            SnappyOutputStream out = new SnappyOutputStream(compressed);
+                            out.write(message);
+                            out.close();
+
+                            SnappyInputStream in = new SnappyInputStream(new ByteArrayInputStream(compressed.getBuffer(), 0, compressed.size()));
+                            while (in.read(uncompressed) >= 0) {
+                            }
+                            in.close();
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    catch (IOException e) {
+                        throw Throwables.propagate(e);
+                    }
+                }
+            }, "bench-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        ready.await();
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - startTime;
+    }
+}
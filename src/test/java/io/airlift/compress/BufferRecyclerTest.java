@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class BufferRecyclerTest
+{
+    @Test
+    public void testReuse()
+    {
+        BufferRecycler recycler = new BufferRecycler(1);
+
+        byte[] buffer = recycler.allocBuffer(1000);
+        assertEquals(buffer.length, 1000);
+        assertEquals(recycler.getMisses(), 1);
+        assertEquals(recycler.getAllocatedBytes(), 1000);
+
+        recycler.releaseBuffer(buffer);
+        assertEquals(recycler.getPooledBytes(), 1000);
+
+        // a smaller request can use the larger pooled buffer
+        assertSame(recycler.allocBuffer(500), buffer);
+        assertEquals(recycler.getHits(), 1);
+        assertEquals(recycler.getPooledBytes(), 0);
+
+        // a larger request can not
+        recycler.releaseBuffer(buffer);
+        assertEquals(recycler.allocBuffer(2000).length, 2000);
+        assertEquals(recycler.getMisses(), 2);
+        assertEquals(recycler.getAllocatedBytes(), 3000);
+
+        short[] table = recycler.allocEncodingHash(256);
+        recycler.releaseEncodingHash(table);
+        assertEquals(recycler.getPooledBytes(), 1000 + 512);
+        assertSame(recycler.allocEncodingHash(256), table);
+    }
+
+    @Test
+    public void testSmallRequestDoesNotTakeLargeBuffer()
+    {
+        BufferRecycler recycler = new BufferRecycler(1);
+
+        byte[] buffer = recycler.allocBuffer(1000);
+        recycler.releaseBuffer(buffer);
+
+        // the pooled buffer is more than twice the size of the request
+        assertEquals(recycler.allocBuffer(499).length, 499);
+        assertEquals(recycler.getHits(), 0);
+        assertEquals(recycler.getPooledBytes(), 1000);
+
+        // so it is still there for a request of a similar size
+        assertSame(recycler.allocBuffer(800), buffer);
+
+        short[] table = recycler.allocEncodingHash(1 << 14);
+        recycler.releaseEncodingHash(table);
+        assertEquals(recycler.allocEncodingHash(256).length, 256);
+        assertSame(recycler.allocEncodingHash(1 << 13), table);
+    }
+
+    @Test
+    public void testMaxPooledBytes()
+    {
+        BufferRecycler recycler = new BufferRecycler(1);
+        recycler.setMaxPooledBytes(3000);
+
+        byte[] first = recycler.allocBuffer(2000);
+        byte[] second = recycler.allocBuffer(2000);
+        recycler.releaseBuffer(first);
+        recycler.releaseBuffer(second);
+        assertEquals(recycler.getPooledBytes(), 2000);
+
+        assertSame(recycler.allocBuffer(2000), first);
+        assertFalse(recycler.allocBuffer(2000) == second);
+    }
+
+    @Test
+    public void testMaxPooledBytesIsSplitBetweenStripes()
+    {
+        BufferRecycler recycler = new BufferRecycler(4);
+        recycler.setMaxPooledBytes(4 * 3000);
+
+        // a single thread only uses its own stripe, which gets a quarter of the limit
+        byte[] first = recycler.allocBuffer(2000);
+        byte[] second = recycler.allocBuffer(2000);
+        recycler.releaseBuffer(first);
+        recycler.releaseBuffer(second);
+        assertEquals(recycler.getPooledBytes(), 2000);
+        assertEquals(recycler.getMisses(), 2);
+        assertEquals(recycler.getAllocatedBytes(), 4000);
+
+        assertSame(recycler.allocBuffer(2000), first);
+        assertEquals(recycler.getHits(), 1);
+        assertEquals(recycler.getPooledBytes(), 0);
+    }
+
+    @Test
+    public void testTrim()
+    {
+        BufferRecycler recycler = new BufferRecycler(1);
+        recycler.releaseBuffer(new byte[100]);
+        recycler.releaseEncodingHash(new short[100]);
+        assertEquals(recycler.getPooledBytes(), 300);
+
+        recycler.trim();
+        assertEquals(recycler.getPooledBytes(), 0);
+        recycler.allocBuffer(1);
+        recycler.allocEncodingHash(1);
+        assertEquals(recycler.getHits(), 0);
+    }
+
+    @Test
+    public void testConcurrentUseNeverSharesBuffers()
+            throws Exception
+    {
+        final BufferRecycler recycler = new BufferRecycler(4);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 16; i++) {
+            final byte marker = (byte) i;
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 10000; i++) {
+                            byte[] buffer = recycler.allocBuffer(64);
+                            buffer[0] = marker;
+                            Thread.yield();
+                            if (buffer[0] != marker) {
+                                throw new AssertionError("buffer handed out to two threads");
+                            }
+                            recycler.releaseBuffer(buffer);
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(recycler.getHits() + recycler.getMisses(), 16 * 10000);
+        assertTrue(recycler.getPooledBytes() <= 16 * 64);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import com.google.common.base.Charsets;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.testng.Assert.assertEquals;
+
+public class Crc32CTest
+{
+    @Test
+    public void testKnownValue()
+    {
+        byte[] data = "123456789".getBytes(Charsets.US_ASCII);
+        for (boolean useIntrinsic : new boolean[] {false, true}) {
+            Crc32C crc32c = new Crc32C(useIntrinsic);
+            crc32c.update(data, 0, data.length);
+            assertEquals(crc32c.getValue(), 0xE3069283L);
+            assertEquals(crc32c.getIntValue(), 0xE3069283);
+
+            crc32c.reset();
+            for (byte b : data) {
+                crc32c.update(b);
+            }
+            assertEquals(crc32c.getValue(), 0xE3069283L);
+        }
+    }
+
+    @Test
+    public void testIntrinsicMatchesPureJava()
+    {
+        Random random = new Random(0);
+        byte[] data = new byte[100000];
+        random.nextBytes(data);
+
+        for (int i = 0; i < 1000; i++) {
+            int offset = random.nextInt(data.length);
+            int length = random.nextInt(data.length - offset);
+
+            Crc32C pureJava = new Crc32C(false);
+            Crc32C intrinsic = new Crc32C(true);
+            pureJava.update(data, offset, length);
+            intrinsic.update(data, offset, length);
+            pureJava.update(data[0]);
+            intrinsic.update(data[0]);
+            assertEquals(intrinsic.getMaskedValue(), pureJava.getMaskedValue());
+        }
+    }
+
+    @Test
+    public void testMask()
+    {
+        for (int crc : new int[] {0, 1, -1, 0xE3069283, Integer.MIN_VALUE}) {
+            assertEquals(Crc32C.unmask(Crc32C.mask(crc)), crc);
+        }
+    }
+
+    @Test
+    public void testCombine()
+    {
+        Random random = new Random(0);
+        byte[] data = new byte[100000];
+        random.nextBytes(data);
+
+        for (int i = 0; i < 1000; i++) {
+            int length = random.nextInt(data.length);
+            int split = random.nextInt(length + 1);
+
+            int crcA = crc32c(data, 0, split);
+            int crcB = crc32c(data, split, length - split);
+            assertEquals(Crc32C.combine(crcA, crcB, length - split), crc32c(data, 0, length));
+        }
+
+        // long runs of zeros, where the length spans many bits
+        byte[] zeros = new byte[3 * 1024 * 1024 + 17];
+        int crcA = crc32c(data, 0, 1000);
+        int crcB = crc32c(zeros, 0, zeros.length);
+        Crc32C expected = new Crc32C();
+        expected.update(data, 0, 1000);
+        expected.update(zeros, 0, zeros.length);
+        assertEquals(Crc32C.combine(crcA, crcB, zeros.length), expected.getIntValue());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testCombineNegativeLength()
+    {
+        Crc32C.combine(0, 0, -1);
+    }
+
+    @Test
+    public void testParallelMatchesSequential()
+            throws Exception
+    {
+        Random random = new Random(0);
+        byte[] data = new byte[1000000];
+        random.nextBytes(data);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int chunkSize : new int[] {1, 7, 4096, 65536 + 3, data.length, Integer.MAX_VALUE}) {
+                int offset = random.nextInt(1000);
+                int length = data.length - offset - random.nextInt(1000);
+                if (chunkSize == 1) {
+                    length = Math.min(length, 10000);
+                }
+                int expected = crc32c(data, offset, length);
+
+                assertEquals(ParallelCrc32C.crc32c(data, offset, length, executor, chunkSize), expected);
+
+                ByteBuffer heap = ByteBuffer.wrap(data, offset, length);
+                assertEquals(ParallelCrc32C.crc32c(heap, executor, chunkSize), expected);
+                assertEquals(heap.position(), offset);
+
+                ByteBuffer direct = ByteBuffer.allocateDirect(length + 10);
+                direct.position(10);
+                direct.put(data, offset, length);
+                direct.position(10);
+                assertEquals(ParallelCrc32C.crc32c(direct, executor, chunkSize), expected);
+                assertEquals(direct.position(), 10);
+            }
+
+            assertEquals(ParallelCrc32C.crc32c(data, 0, data.length, executor), crc32c(data, 0, data.length));
+            assertEquals(ParallelCrc32C.crc32c(data, 0, 0, executor), crc32c(data, 0, 0));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSnappyEntryPoints()
+            throws Exception
+    {
+        byte[] data = "123456789".getBytes(Charsets.US_ASCII);
+        assertEquals(Snappy.crc32c(data, 0, data.length), 0xE3069283);
+        assertEquals(Snappy.combineCrc32c(Snappy.crc32c(data, 0, 4), Snappy.crc32c(data, 4, 5), 5), 0xE3069283);
+        assertEquals(Snappy.maskCrc32c(0xE3069283), Crc32C.maskedCrc32c(data));
+        assertEquals(Snappy.unmaskCrc32c(Crc32C.maskedCrc32c(data)), 0xE3069283);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            assertEquals(Snappy.crc32cParallel(data, 0, data.length, executor), 0xE3069283);
+            assertEquals(Snappy.crc32cParallel(ByteBuffer.wrap(data), executor), 0xE3069283);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static int crc32c(byte[] data, int offset, int length)
+    {
+        Crc32C crc32c = new Crc32C();
+        crc32c.update(data, offset, length);
+        return crc32c.getIntValue();
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import com.google.common.primitives.Bytes;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.io.ByteStreams.toByteArray;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ParallelSnappyStreamTest
+{
+    private ExecutorService executor;
+
+    @BeforeClass
+    public void setUp()
+    {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOutputMatchesSequentialStream()
+            throws Exception
+    {
+        for (File testFile : SnappyTest.getTestFiles()) {
+            byte[] original = Files.toByteArray(testFile);
+
+            // the same random sequence of writes and flushes for both streams
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            writeRandomly(original, new SnappyOutputStream(expected), new Random(42));
+
+            for (int maxBlocksInFlight : new int[] {1, 3, 16}) {
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                writeRandomly(original, new ParallelSnappyOutputStream(actual, executor, maxBlocksInFlight), new Random(42));
+
+                assertEquals(actual.toByteArray(), expected.toByteArray(), testFile.getName());
+                assertEquals(toByteArray(new SnappyInputStream(new ByteArrayInputStream(actual.toByteArray()))), original, testFile.getName());
+            }
+        }
+    }
+
+    @Test
+    public void testMixedDataMatchesSequentialStream()
+            throws Exception
+    {
+        // a run of incompressible data with a skewed byte distribution, followed by text
+        Random random = new Random(0);
+        byte[] incompressible = new byte[1024 * 1024];
+        for (int i = 0; i < incompressible.length; i++) {
+            incompressible[i] = (byte) (random.nextGaussian() * 20);
+        }
+        byte[] text = Files.toByteArray(new File("testdata/alice29.txt"));
+        byte[] compressible = new byte[1024 * 1024];
+        for (int position = 0; position < compressible.length; position += text.length) {
+            System.arraycopy(text, 0, compressible, position, Math.min(text.length, compressible.length - position));
+        }
+        byte[] original = Bytes.concat(incompressible, compressible);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        OutputStream snappyOut = new SnappyOutputStream(expected);
+        snappyOut.write(original);
+        snappyOut.close();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        snappyOut = new ParallelSnappyOutputStream(actual, executor);
+        snappyOut.write(original);
+        snappyOut.close();
+
+        assertEquals(actual.toByteArray(), expected.toByteArray());
+        assertEquals(toByteArray(new SnappyInputStream(new ByteArrayInputStream(actual.toByteArray()))), original);
+    }
+
+    @Test
+    public void testEmptyStream()
+            throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream snappyOut = new ParallelSnappyOutputStream(out, executor);
+        snappyOut.close();
+        snappyOut.close();
+        assertEquals(out.toByteArray(), SnappyOutputStream.STREAM_HEADER);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testWriteAfterClose()
+            throws Exception
+    {
+        OutputStream snappyOut = new ParallelSnappyOutputStream(new ByteArrayOutputStream(), executor);
+        snappyOut.close();
+        snappyOut.write(new byte[10]);
+    }
+
+    @Test
+    public void testInputStreamRoundTrip()
+            throws Exception
+    {
+        for (File testFile : SnappyTest.getTestFiles()) {
+            byte[] original = Files.toByteArray(testFile);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            writeRandomly(original, new SnappyOutputStream(compressed), new Random(42));
+
+            for (int maxBlocksInFlight : new int[] {1, 3, 16}) {
+                InputStream in = new ParallelSnappyInputStream(new ByteArrayInputStream(compressed.toByteArray()), executor, true, maxBlocksInFlight);
+                assertEquals(readRandomly(in, original.length, new Random(maxBlocksInFlight)), original, testFile.getName());
+                assertEquals(in.read(), -1);
+                in.close();
+                in.close();
+            }
+        }
+    }
+
+    @Test
+    public void testInputStreamLargeBlocks()
+            throws Exception
+    {
+        for (File testFile : SnappyTest.getTestFiles()) {
+            byte[] original = Files.toByteArray(testFile);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            writeRandomly(original, new SnappyOutputStream(compressed, 1 << 17), new Random(42));
+
+            InputStream in = new ParallelSnappyInputStream(new ByteArrayInputStream(compressed.toByteArray()), executor, true, 4);
+            assertEquals(readRandomly(in, original.length, new Random(7)), original, testFile.getName());
+            assertEquals(in.read(), -1);
+            in.close();
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Corrupt input: invalid checksum")
+    public void testInputStreamInvalidChecksum()
+            throws Exception
+    {
+        // flag = 0, size = 1, crc32c = 0, block data = [a]
+        byte[] stream = Bytes.concat(SnappyOutputStream.STREAM_HEADER, new byte[] {0, 0, 1, 0, 0, 0, 0, 'a'});
+        toByteArray(new ParallelSnappyInputStream(new ByteArrayInputStream(stream), executor));
+    }
+
+    @Test(expectedExceptions = EOFException.class, expectedExceptionsMessageRegExp = ".*block data.*")
+    public void testInputStreamShortBlockData()
+            throws Exception
+    {
+        // flag = 0, size = 4, crc32c = 0, block data = [x, x]
+        byte[] stream = Bytes.concat(SnappyOutputStream.STREAM_HEADER, new byte[] {0, 0, 4, 0, 0, 0, 0, 'x', 'x'});
+        toByteArray(new ParallelSnappyInputStream(new ByteArrayInputStream(stream), executor));
+    }
+
+    @Test
+    public void testInputStreamCloseReturnsBuffers()
+            throws Exception
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream snappyOut = new SnappyOutputStream(compressed);
+        snappyOut.write(Files.toByteArray(new File("testdata/html_x_4")));
+        snappyOut.close();
+        byte[] stream = compressed.toByteArray();
+
+        // close after the first byte, with blocks decoded but not consumed
+        assertBuffersReturned(stream);
+
+        // close after a block fails its checksum
+        stream[SnappyOutputStream.STREAM_HEADER.length + 3] ^= 1;
+        assertBuffersReturned(stream);
+    }
+
+    @Test
+    public void testOutputStreamFailureReturnsBuffers()
+            throws Exception
+    {
+        byte[] original = Files.toByteArray(new File("testdata/html_x_4"));
+
+        BufferRecycler recycler = new BufferRecycler(1);
+        recycler.setMaxPooledBytes(Long.MAX_VALUE);
+        ExecutorService compressor = Executors.newSingleThreadExecutor();
+        try {
+            // the underlying stream fails on the first block, with later blocks still in flight
+            OutputStream snappyOut = new ParallelSnappyOutputStream(new OutputStream()
+            {
+                private int written;
+
+                @Override
+                public void write(int b)
+                        throws IOException
+                {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len)
+                        throws IOException
+                {
+                    written += len;
+                    if (written > SnappyOutputStream.STREAM_HEADER.length) {
+                        throw new IOException("write failed");
+                    }
+                }
+            }, compressor, 2, recycler);
+            try {
+                snappyOut.write(original);
+                snappyOut.flush();
+                fail("expected IOException");
+            }
+            catch (IOException expected) {
+            }
+            Closeables.closeQuietly(snappyOut);
+
+            compressor.shutdown();
+            assertTrue(compressor.awaitTermination(10, TimeUnit.SECONDS));
+
+            // every buffer created while writing is back in the pool
+            assertTrue(recycler.getAllocatedBytes() > 0);
+            assertEquals(recycler.getPooledBytes(), recycler.getAllocatedBytes());
+        }
+        finally {
+            compressor.shutdownNow();
+        }
+    }
+
+    private static void assertBuffersReturned(byte[] stream)
+            throws Exception
+    {
+        BufferRecycler recycler = new BufferRecycler(1);
+        recycler.setMaxPooledBytes(Long.MAX_VALUE);
+        ExecutorService decoder = Executors.newSingleThreadExecutor();
+        try {
+            InputStream in = new ParallelSnappyInputStream(new ByteArrayInputStream(stream), decoder, true, 2, recycler);
+            try {
+                in.read();
+            }
+            catch (IOException ignored) {
+            }
+            in.close();
+
+            decoder.shutdown();
+            assertTrue(decoder.awaitTermination(10, TimeUnit.SECONDS));
+
+            // every buffer created while reading is back in the pool
+            assertTrue(recycler.getAllocatedBytes() > 0);
+            assertEquals(recycler.getPooledBytes(), recycler.getAllocatedBytes());
+        }
+        finally {
+            decoder.shutdownNow();
+        }
+    }
+
+    private static byte[] readRandomly(InputStream in, int length, Random random)
+            throws IOException
+    {
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            if (random.nextInt(10) == 0) {
+                data[offset++] = (byte) in.read();
+            }
+            else {
+                int size = in.read(data, offset, Math.min(length - offset, random.nextInt(100000)));
+                assertTrue(size >= 0);
+                offset += size;
+            }
+        }
+        return data;
+    }
+
+    private static void writeRandomly(byte[] data, OutputStream out, Random random)
+            throws IOException
+    {
+        int offset = 0;
+        while (offset < data.length) {
+            int choice = random.nextInt(20);
+            if (choice == 0) {
+                out.write(data[offset++]);
+            }
+            else if (choice == 1) {
+                out.flush();
+            }
+            else {
+                int length = Math.min(data.length - offset, random.nextInt(choice < 10 ? 1000 : 100000));
+                out.write(data, offset, length);
+                offset += length;
+            }
+        }
+        out.close();
+    }
+}
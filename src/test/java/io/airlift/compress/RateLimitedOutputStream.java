@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Forwards writes to another output stream no faster than a fixed rate, like
+ * a blocking socket on a link of that speed.  Written bytes go to a send
+ * buffer that drains at the rate, and a write blocks until the buffer has
+ * room for it, so time the link is idle is lost rather than saved up.
+ */
+public class RateLimitedOutputStream
+        extends OutputStream
+{
+    private final OutputStream out;
+    private final double nanosPerByte;
+    private final long bufferNanos;
+
+    // time when the bytes in the send buffer will have been sent
+    private long drainedAt = System.nanoTime();
+
+    public RateLimitedOutputStream(OutputStream out, long bytesPerSecond)
+    {
+        this(out, bytesPerSecond, 0);
+    }
+
+    public RateLimitedOutputStream(OutputStream out, long bytesPerSecond, int bufferSize)
+    {
+        this.out = checkNotNull(out, "out is null");
+        checkArgument(bytesPerSecond > 0, "bytesPerSecond must be positive: %s", bytesPerSecond);
+        checkArgument(bufferSize >= 0, "bufferSize is negative: %s", bufferSize);
+        nanosPerByte = 1.0e9 / bytesPerSecond;
+        bufferNanos = (long) (bufferSize * nanosPerByte);
+    }
+
+    @Override
+    public void write(int b)
+            throws IOException
+    {
+        out.write(b);
+        throttle(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+            throws IOException
+    {
+        out.write(b, off, len);
+        throttle(len);
+    }
+
+    @Override
+    public void flush()
+            throws IOException
+    {
+        out.flush();
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        out.close();
+    }
+
+    private void throttle(int length)
+    {
+        drainedAt = Math.max(drainedAt, System.nanoTime()) + (long) (length * nanosPerByte);
+        long due = drainedAt - bufferNanos;
+        for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import com.google.common.io.Files;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.google.common.io.ByteStreams.toByteArray;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
+
+public class SeekableSnappyInputTest
+{
+    @Test
+    public void testRandomReads()
+            throws Exception
+    {
+        for (File testFile : SnappyTest.getTestFiles()) {
+            byte[] original = Files.toByteArray(testFile);
+            for (boolean indexed : new boolean[] {true, false}) {
+                File file = writeTempFile(compress(original, indexed));
+                try {
+                    SeekableSnappyInput input = new SeekableSnappyInput(open(file));
+                    try {
+                        assertEquals(input.length(), original.length);
+                        assertRandomReads(input, original, new Random(original.length));
+                    }
+                    finally {
+                        input.close();
+                    }
+                }
+                finally {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStoredIndexMatchesScan()
+            throws Exception
+    {
+        for (File testFile : SnappyTest.getTestFiles()) {
+            byte[] original = Files.toByteArray(testFile);
+            File file = writeTempFile(compress(original, true));
+            try {
+                FileChannel channel = open(file);
+                try {
+                    SnappyBlockIndex stored = SnappyBlockIndex.readIndex(channel);
+                    assertNotNull(stored, testFile.getName());
+                    assertIndexEquals(stored, SnappyBlockIndex.scan(channel));
+                    assertEquals(stored.getUncompressedLength(), original.length);
+                }
+                finally {
+                    channel.close();
+                }
+            }
+            finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testNoStoredIndex()
+            throws Exception
+    {
+        File file = writeTempFile(compress(new byte[100000], false));
+        try {
+            FileChannel channel = open(file);
+            try {
+                assertNull(SnappyBlockIndex.readIndex(channel));
+                assertEquals(SnappyBlockIndex.scan(channel).getBlockCount(), 4);
+            }
+            finally {
+                channel.close();
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSequentialStreamReadsIndexedStream()
+            throws Exception
+    {
+        for (File testFile : SnappyTest.getTestFiles()) {
+            byte[] original = Files.toByteArray(testFile);
+            byte[] compressed = compress(original, true);
+
+            assertEquals(toByteArray(new SnappyInputStream(new ByteArrayInputStream(compressed))), original);
+
+            // concatenated indexed streams
+            byte[] concatenated = new byte[compressed.length * 2];
+            System.arraycopy(compressed, 0, concatenated, 0, compressed.length);
+            System.arraycopy(compressed, 0, concatenated, compressed.length, compressed.length);
+            byte[] expected = new byte[original.length * 2];
+            System.arraycopy(original, 0, expected, 0, original.length);
+            System.arraycopy(original, 0, expected, original.length, original.length);
+            assertEquals(toByteArray(new SnappyInputStream(new ByteArrayInputStream(concatenated))), expected);
+
+            SnappyInputStream in = new SnappyInputStream(new ByteArrayInputStream(concatenated), false);
+            assertEquals(in.skip(expected.length), expected.length);
+            assertEquals(in.read(), -1);
+
+            File file = writeTempFile(concatenated);
+            try {
+                FileChannel channel = open(file);
+                SeekableSnappyInput input = new SeekableSnappyInput(channel, SnappyBlockIndex.scan(channel), true);
+                try {
+                    assertEquals(input.length(), expected.length);
+                    assertRandomReads(input, expected, new Random(expected.length));
+                }
+                finally {
+                    input.close();
+                }
+            }
+            finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyStream()
+            throws Exception
+    {
+        for (boolean indexed : new boolean[] {true, false}) {
+            File file = writeTempFile(compress(new byte[0], indexed));
+            try {
+                SeekableSnappyInput input = new SeekableSnappyInput(open(file));
+                try {
+                    assertEquals(input.length(), 0);
+                    assertEquals(input.getIndex().getBlockCount(), 0);
+                    assertEquals(input.read(0, new byte[10], 0, 10), -1);
+                }
+                finally {
+                    input.close();
+                }
+            }
+            finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testReadPastEnd()
+            throws Exception
+    {
+        File file = writeTempFile(compress(new byte[1000], true));
+        try {
+            SeekableSnappyInput input = new SeekableSnappyInput(open(file));
+            try {
+                byte[] buffer = new byte[100];
+                assertEquals(input.read(950, buffer, 0, 100), 50);
+                assertEquals(input.read(1000, buffer, 0, 100), -1);
+                try {
+                    input.readFully(950, buffer, 0, 100);
+                    fail("expected EOFException");
+                }
+                catch (EOFException expected) {
+                }
+            }
+            finally {
+                input.close();
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCorruptIndex()
+            throws Exception
+    {
+        byte[] compressed = compress(new byte[100000], true);
+        // corrupt the uncompressed length stored in the index
+        compressed[compressed.length - SnappyBlockIndex.TRAILER_SIZE - 1] ^= 1;
+        File file = writeTempFile(compressed);
+        try {
+            FileChannel channel = open(file);
+            try {
+                SnappyBlockIndex.readIndex(channel);
+                fail("expected IOException");
+            }
+            catch (IOException expected) {
+                assertEquals(expected.getMessage(), "Corrupt index: invalid checksum");
+            }
+            finally {
+                channel.close();
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testNegativeIndexBlockCount()
+            throws Exception
+    {
+        // an index block whose count would move the scan backwards
+        byte[] compressed = compress(new byte[100000], false);
+        ByteBuffer corrupt = ByteBuffer.allocate(compressed.length + 11);
+        corrupt.put(compressed);
+        corrupt.put(new byte[] {SnappyBlockIndex.INDEX_BLOCK_FLAG, 0, 0, 0, 0, 0, 0});
+        corrupt.putInt(-3);
+        assertCorrupt(corrupt.array(), "Corrupt index: invalid block count -3");
+    }
+
+    @Test(timeOut = 10000)
+    public void testEmptyBlock()
+            throws Exception
+    {
+        // a compressed block holding no data, before the first block of the stream
+        byte[] compressed = compress(new byte[100000], false);
+        int headerLength = SnappyOutputStream.STREAM_HEADER.length;
+        ByteBuffer corrupt = ByteBuffer.allocate(compressed.length + 8);
+        corrupt.put(compressed, 0, headerLength);
+        corrupt.put(new byte[] {1, 0, 1});
+        corrupt.putInt(Crc32C.maskedCrc32c(new byte[0]));
+        corrupt.put((byte) 0);
+        corrupt.put(compressed, headerLength, compressed.length - headerLength);
+        assertCorrupt(corrupt.array(), "Corrupt input: empty block at position " + headerLength);
+    }
+
+    @Test(timeOut = 10000)
+    public void testEmptyBlockInStoredIndex()
+            throws Exception
+    {
+        byte[] compressed = compress(new byte[100000], true);
+        ByteBuffer buffer = ByteBuffer.wrap(compressed);
+        int indexPosition = (int) buffer.getLong(compressed.length - SnappyBlockIndex.TRAILER_SIZE);
+
+        // give the second block the uncompressed position of the first, and fix the checksum
+        int blocks = indexPosition + 7 + 4;
+        buffer.putLong(blocks + 16 + 8, buffer.getLong(blocks + 8));
+        int indexSize = compressed.length - SnappyBlockIndex.TRAILER_SIZE - indexPosition;
+        buffer.putInt(indexPosition + 3, Crc32C.maskedCrc32c(compressed, indexPosition + 7, indexSize - 7));
+        assertCorrupt(compressed, "Corrupt index: invalid position of block 1");
+    }
+
+    private static void assertCorrupt(byte[] compressed, String message)
+            throws IOException
+    {
+        File file = writeTempFile(compressed);
+        try {
+            SeekableSnappyInput input = new SeekableSnappyInput(open(file));
+            try {
+                input.readFully(0, new byte[(int) input.length()], 0, (int) input.length());
+                fail("expected IOException");
+            }
+            finally {
+                input.close();
+            }
+        }
+        catch (IOException expected) {
+            assertEquals(expected.getMessage(), message);
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    private static void assertRandomReads(SeekableSnappyInput input, byte[] expected, Random random)
+            throws IOException
+    {
+        for (int i = 0; i < 200; i++) {
+            int position = random.nextInt(expected.length + 1);
+            int length = random.nextInt(3 * SnappyOutputStream.MAX_BLOCK_SIZE);
+            int expectedLength = Math.min(length, expected.length - position);
+
+            byte[] buffer = new byte[length + 2];
+            int read = input.read(position, buffer, 1, length);
+            if (length > 0 && expectedLength == 0) {
+                assertEquals(read, -1);
+            }
+            else {
+                assertEquals(read, expectedLength);
+                assertEquals(Arrays.copyOfRange(buffer, 1, 1 + read), Arrays.copyOfRange(expected, position, position + read));
+            }
+        }
+    }
+
+    private static void assertIndexEquals(SnappyBlockIndex actual, SnappyBlockIndex expected)
+    {
+        assertEquals(actual.getBlockCount(), expected.getBlockCount());
+        for (int i = 0; i < expected.getBlockCount(); i++) {
+            assertEquals(actual.getCompressedPosition(i), expected.getCompressedPosition(i));
+            assertEquals(actual.getUncompressedPosition(i), expected.getUncompressedPosition(i));
+        }
+        assertEquals(actual.getUncompressedLength(), expected.getUncompressedLength());
+    }
+
+    private static byte[] compress(byte[] original, boolean indexed)
+            throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream snappyOut = indexed ? new IndexedSnappyOutputStream(out) : new SnappyOutputStream(out);
+        snappyOut.write(original);
+        snappyOut.close();
+        return out.toByteArray();
+    }
+
+    private static File writeTempFile(byte[] data)
+            throws IOException
+    {
+        File file = File.createTempFile("snappy", ".sz");
+        Files.write(data, file);
+        return file;
+    }
+
+    private static FileChannel open(File file)
+            throws IOException
+    {
+        return new RandomAccessFile(file, "r").getChannel();
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+/**
+ * Compresses each file of the test data corpus with each acceleration of
+ * {@link SnappyCompressor#newAcceleratedCompressor}, and reports the speed
+ * and ratio frontier, in the format of {@link SnappyLevelBench}.
+ */
+public class SnappyAccelerationBench
+{
+    private static final int[] ACCELERATIONS = {1, 2, 3, 4, 6, 8, 16, 32, 64};
+
+    public static void main(String[] args)
+    {
+        String[] names = new String[ACCELERATIONS.length];
+        SnappyCompressor[] compressors = new SnappyCompressor[ACCELERATIONS.length];
+        for (int i = 0; i < ACCELERATIONS.length; i++) {
+            names[i] = "acceleration " + ACCELERATIONS[i];
+            compressors[i] = SnappyCompressor.newAcceleratedCompressor(ACCELERATIONS[i]);
+        }
+        SnappyLevelBench.run(names, compressors);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import io.airlift.compress.SnappyBench.TestData;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.testng.Assert.assertEquals;
+
+public class SnappyAllocationTest
+{
+    private static final int WARM_UP_ITERATIONS = 100;
+    private static final int MEASURED_ITERATIONS = 100;
+    private static final int MEASURED_ROUNDS = 3;
+
+    @Test
+    public void testCompressDoesNotAllocate()
+    {
+        for (TestData testData : TestData.values()) {
+            final byte[] contents = testData.getContents();
+            final byte[] compressed = new byte[Snappy.maxCompressedLength(contents.length)];
+
+            long bytesPerCall = measureAllocatedBytesPerCall(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Snappy.compress(contents, 0, contents.length, compressed, 0);
+                }
+            });
+            assertEquals(bytesPerCall, 0, "bytes allocated per compress call for " + testData);
+        }
+    }
+
+    @Test
+    public void testCompressSmallInputsDoesNotAllocate()
+    {
+        final byte[] contents = TestData.html.getContents();
+        final byte[] compressed = new byte[Snappy.maxCompressedLength(contents.length)];
+
+        for (final int size : new int[] {1, 15, 16, 100, 1000, 32 * 1024, 32 * 1024 + 1}) {
+            long bytesPerCall = measureAllocatedBytesPerCall(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Snappy.compress(contents, 0, size, compressed, 0);
+                }
+            });
+            assertEquals(bytesPerCall, 0, "bytes allocated per compress call for " + size + " byte input");
+        }
+    }
+
+    @Test
+    public void testCompressorInstanceDoesNotAllocate()
+    {
+        final SnappyCompressor compressor = new SnappyCompressor();
+        for (TestData testData : TestData.values()) {
+            final byte[] contents = testData.getContents();
+            final byte[] compressed = new byte[SnappyCompressor.maxCompressedLength(contents.length)];
+
+            long bytesPerCall = measureAllocatedBytesPerCall(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    compressor.compress(contents, 0, contents.length, compressed, 0);
+                }
+            });
+            assertEquals(bytesPerCall, 0, "bytes allocated per compress call for " + testData);
+        }
+    }
+
+    @Test
+    public void testUncompressDoesNotAllocate()
+    {
+        for (TestData testData : TestData.values()) {
+            final byte[] compressed = testData.getCompressed();
+            final byte[] uncompressed = new byte[testData.size()];
+
+            long bytesPerCall = measureAllocatedBytesPerCall(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Snappy.uncompress(compressed, 0, compressed.length, uncompressed, 0);
+                }
+            });
+            assertEquals(bytesPerCall, 0, "bytes allocated per uncompress call for " + testData);
+        }
+    }
+
+    @Test
+    public void testUncompressSmallInputsDoesNotAllocate()
+    {
+        byte[] contents = TestData.html.getContents();
+
+        for (int size : new int[] {1, 15, 16, 100, 1000, 32 * 1024, 32 * 1024 + 1}) {
+            final byte[] compressed = new byte[Snappy.maxCompressedLength(size)];
+            final int compressedSize = Snappy.compress(contents, 0, size, compressed, 0);
+            final byte[] uncompressed = new byte[size];
+
+            long bytesPerCall = measureAllocatedBytesPerCall(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Snappy.getUncompressedLength(compressed, 0);
+                    Snappy.uncompress(compressed, 0, compressedSize, uncompressed, 0);
+                }
+            });
+            assertEquals(bytesPerCall, 0, "bytes allocated per uncompress call for " + size + " byte input");
+        }
+    }
+
+    private static long measureAllocatedBytesPerCall(Runnable task)
+    {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            throw new SkipException("Thread allocation accounting is not supported by this JVM");
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        if (!allocationBean.isThreadAllocatedMemorySupported()) {
+            throw new SkipException("Thread allocation accounting is not supported by this JVM");
+        }
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        // warm up so the buffer recycler is populated and the code is compiled
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            task.run();
+        }
+
+        // the allocation counter itself may allocate, so measure the cost of an empty sample
+        long start = allocationBean.getThreadAllocatedBytes(threadId);
+        long overhead = allocationBean.getThreadAllocatedBytes(threadId) - start;
+
+        // the JVM occasionally allocates on this thread for its own purposes (for
+        // example when recompiling code), so use the best of several rounds; an
+        // allocation made by every call shows up in all of them
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            start = allocationBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                task.run();
+            }
+            allocated = Math.min(allocated, allocationBean.getThreadAllocatedBytes(threadId) - start - overhead);
+        }
+
+        return Math.max(allocated, 0) / MEASURED_ITERATIONS;
+    }
+}
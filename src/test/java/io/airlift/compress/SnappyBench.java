@@ -32,6 +32,10 @@ import java.util.concurrent.TimeUnit;
 
 import static java.lang.String.format;
 import static io.airlift.compress.BenchmarkDriver.JAVA_BLOCK;
+import static io.airlift.compress.BenchmarkDriver.JAVA_BLOCK_CHECKSUM;
+import static io.airlift.compress.BenchmarkDriver.JAVA_BLOCK_DIRECT;
+import static io.airlift.compress.BenchmarkDriver.JAVA_BLOCK_FUSED_CHECKSUM;
+import static io.airlift.compress.BenchmarkDriver.JAVA_BLOCK_INSTANCE;
 import static io.airlift.compress.BenchmarkDriver.JAVA_STREAM;
 import static io.airlift.compress.BenchmarkDriver.JNI_BLOCK;
 import static io.airlift.compress.BenchmarkDriver.JNI_STREAM;
@@ -52,6 +56,7 @@ public class SnappyBench
     private static final int CALIBRATE_ITERATIONS = 100;
     private static final int WARM_UP_SECONDS = 45;
     private static final int SECONDS_PER_RUN = 1;
+    private static final long CHECKSUM_BYTES_PER_RUN = 256 * 1024 * 1024;
 
     public static void main(String[] args)
     {
@@ -82,9 +87,20 @@ public class SnappyBench
         snappyBench.runUncompress("Block Uncompress", JNI_BLOCK, JAVA_BLOCK);
         snappyBench.runRoundTrip("Block Round Trip", JNI_BLOCK, JAVA_BLOCK);
 
+        snappyBench.runCompress("Block Compress (byte[] vs direct ByteBuffer)", JAVA_BLOCK, JAVA_BLOCK_DIRECT);
+        snappyBench.runUncompress("Block Uncompress (byte[] vs direct ByteBuffer)", JAVA_BLOCK, JAVA_BLOCK_DIRECT);
+
+        snappyBench.runCompress("Block Compress (static vs instance)", JAVA_BLOCK, JAVA_BLOCK_INSTANCE);
+        snappyBench.runUncompress("Block Uncompress (static vs instance)", JAVA_BLOCK, JAVA_BLOCK_INSTANCE);
+
+        snappyBench.runCompress("Block Compress + Checksum (two pass vs fused)", JAVA_BLOCK_CHECKSUM, JAVA_BLOCK_FUSED_CHECKSUM);
+        snappyBench.runUncompress("Block Uncompress + Checksum (two pass vs fused)", JAVA_BLOCK_CHECKSUM, JAVA_BLOCK_FUSED_CHECKSUM);
+
         snappyBench.runCompress("Stream Compress (no checksum)", JNI_STREAM, JAVA_STREAM);
         snappyBench.runUncompress("Stream Uncompress (no checksum)", JNI_STREAM, JAVA_STREAM);
         snappyBench.runRoundTrip("Stream RoundTrip (no checksum)", JNI_STREAM, JAVA_STREAM);
+
+        snappyBench.runChecksum("Checksum (pure Java vs java.util.zip.CRC32C)");
     }
 
     public void verify()
@@ -165,7 +181,7 @@ public class SnappyBench
 
     }
 
-    private static void printHeader(String benchmarkTitle)
+    private static void printHeader(String benchmarkTitle, BenchmarkDriver oldDriver, BenchmarkDriver newDriver)
     {
         System.err.println();
         System.err.println();
@@ -174,10 +190,10 @@ public class SnappyBench
         System.err.printf("%-8s %8s %9s %9s %11s %11s %7s\n",
                 "",
                 "",
-                "JNI",
-                "Java",
-                "JNI",
-                "Java",
+                oldDriver.getLabel(),
+                newDriver.getLabel(),
+                oldDriver.getLabel(),
+                newDriver.getLabel(),
                 "");
         System.err.printf("%-8s %8s %9s %9s %11s %11s %7s\n",
                 "Input",
@@ -197,7 +213,7 @@ public class SnappyBench
 
     public void runCompress(String benchmarkTitle, BenchmarkDriver oldDriver, BenchmarkDriver newDriver)
     {
-        printHeader(benchmarkTitle);
+        printHeader(benchmarkTitle, oldDriver, newDriver);
         for (TestData testData : TestData.values()) {
             runCompress(testData, oldDriver, newDriver);
         }
@@ -240,7 +256,7 @@ public class SnappyBench
 
     public void runUncompress(String benchmarkTitle, BenchmarkDriver oldDriver, BenchmarkDriver newDriver)
     {
-        printHeader(benchmarkTitle);
+        printHeader(benchmarkTitle, oldDriver, newDriver);
         for (TestData testData : TestData.values()) {
             runUncompress(testData, oldDriver, newDriver);
         }
@@ -283,7 +299,7 @@ public class SnappyBench
 
     public void runRoundTrip(String benchmarkTitle, BenchmarkDriver oldDriver, BenchmarkDriver newDriver)
     {
-        printHeader(benchmarkTitle);
+        printHeader(benchmarkTitle, oldDriver, newDriver);
         for (TestData testData : TestData.values()) {
             runRoundTrip(testData, oldDriver, newDriver);
         }
@@ -324,6 +340,57 @@ public class SnappyBench
         return (long) (1.0 * iterations * testData.size() / nanosToSeconds(jniMedianTimeInNanos));
     }
 
+    public void runChecksum(String benchmarkTitle)
+    {
+        System.err.println();
+        System.err.println();
+        System.err.println("### " + benchmarkTitle);
+        if (!Crc32C.isIntrinsicAvailable()) {
+            System.err.println("java.util.zip.CRC32C is not available (requires Java 9)");
+        }
+        System.err.println("<pre><code>");
+        System.err.printf("%-8s %8s %11s %11s %7s\n", "", "", "Pure Java", "Intrinsic", "");
+        System.err.printf("%-8s %8s %11s %11s %7s\n", "Input", "Size", "Throughput", "Throughput", "Change");
+        System.err.printf("---------------------------------------------------\n");
+        for (TestData testData : TestData.values()) {
+            long iterations = Math.max(CALIBRATE_ITERATIONS, CHECKSUM_BYTES_PER_RUN / testData.size());
+
+            long pureJavaBytesPerSecond = benchmarkChecksum(testData, false, iterations);
+            long intrinsicBytesPerSecond = benchmarkChecksum(testData, true, iterations);
+            double improvement = 100.0d * (intrinsicBytesPerSecond - pureJavaBytesPerSecond) / pureJavaBytesPerSecond;
+
+            System.err.printf(
+                    "%-8s %8d %11s %11s %+6.1f%%\n",
+                    testData,
+                    testData.size(),
+                    toHumanReadableSpeed(pureJavaBytesPerSecond),
+                    toHumanReadableSpeed(intrinsicBytesPerSecond),
+                    improvement);
+        }
+        printFooter();
+    }
+
+    private long benchmarkChecksum(TestData testData, boolean useIntrinsic, long iterations)
+    {
+        byte[] contents = testData.getContents();
+        long[] runs = new long[NUMBER_OF_RUNS];
+        int checksum = 0;
+        for (int run = 0; run < NUMBER_OF_RUNS; ++run) {
+            long start = System.nanoTime();
+            for (long i = 0; i < iterations; i++) {
+                Crc32C crc32c = new Crc32C(useIntrinsic);
+                crc32c.update(contents, 0, contents.length);
+                checksum += crc32c.getMaskedValue();
+            }
+            runs[run] = System.nanoTime() - start;
+        }
+        // use the result so the loop can not be removed
+        if (checksum == 42) {
+            System.err.print("");
+        }
+        return (long) (1.0 * iterations * testData.size() / nanosToSeconds(getMedianValue(runs)));
+    }
+
     private long calibrateIterations(TestData testData, BenchmarkDriver driver, boolean compression)
     {
         // Run a few iterations first to find out approximately how fast
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import com.google.common.io.Files;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+public class SnappyBlockCacheTest
+{
+    @Test
+    public void testEvictsLeastRecentlyUsed()
+            throws Exception
+    {
+        SnappyBlockCache cache = new SnappyBlockCache(3000);
+
+        byte[] first = cache.get("a", 0, loader(new byte[1000]));
+        cache.get("a", 100, loader(new byte[1000]));
+        cache.get("b", 0, loader(new byte[1000]));
+        assertEquals(cache.getCachedBytes(), 3000);
+        assertEquals(cache.getMisses(), 3);
+
+        // use the first block, so the second is the least recently used
+        assertSame(cache.get("a", 0, failingLoader()), first);
+        assertEquals(cache.getHits(), 1);
+
+        cache.get("b", 100, loader(new byte[1000]));
+        assertEquals(cache.getEvictions(), 1);
+        assertEquals(cache.getBlockCount(), 3);
+        assertEquals(cache.getCachedBytes(), 3000);
+        assertSame(cache.get("a", 0, failingLoader()), first);
+        assertEquals(cache.get("a", 100, loader(new byte[10])).length, 10);
+        assertEquals(cache.getMisses(), 5);
+
+        // blocks larger than the cache are returned but not cached
+        assertEquals(cache.get("c", 0, loader(new byte[5000])).length, 5000);
+        assertEquals(cache.getCachedBytes(), 2010);
+
+        cache.invalidate("a");
+        assertEquals(cache.getBlockCount(), 1);
+        assertEquals(cache.getCachedBytes(), 1000);
+        cache.invalidateAll();
+        assertEquals(cache.getBlockCount(), 0);
+        assertEquals(cache.getCachedBytes(), 0);
+    }
+
+    @Test
+    public void testLoaderFailureIsNotCached()
+            throws Exception
+    {
+        SnappyBlockCache cache = new SnappyBlockCache(3000);
+        try {
+            cache.get("a", 0, failingLoader());
+            fail("expected IOException");
+        }
+        catch (IOException expected) {
+            assertEquals(expected.getMessage(), "load failed");
+        }
+        assertEquals(cache.get("a", 0, loader(new byte[10])).length, 10);
+        assertEquals(cache.getMisses(), 2);
+    }
+
+    @Test
+    public void testInvalidateDuringLoad()
+            throws Exception
+    {
+        SnappyBlockCache cache = new SnappyBlockCache(1 << 20);
+
+        // the file is invalidated while its block is being loaded
+        byte[] stale = new byte[1000];
+        assertSame(cache.get("a", 0, invalidatingLoader(cache, "a", stale)), stale);
+        assertEquals(cache.getBlockCount(), 0);
+        assertEquals(cache.getCachedBytes(), 0);
+
+        byte[] fresh = new byte[1000];
+        assertSame(cache.get("a", 0, loader(fresh)), fresh);
+        assertEquals(cache.getMisses(), 2);
+
+        // invalidating another file does not affect the load
+        byte[] block = new byte[1000];
+        assertSame(cache.get("a", 100, invalidatingLoader(cache, "b", block)), block);
+        assertSame(cache.get("a", 100, failingLoader()), block);
+    }
+
+    @Test
+    public void testConcurrentRequestsLoadOnce()
+            throws Exception
+    {
+        final SnappyBlockCache cache = new SnappyBlockCache(1 << 20);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 16; i++) {
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                        for (int block = 0; block < 100; block++) {
+                            final int value = block;
+                            byte[] data = cache.get("file", block, new Callable<byte[]>()
+                            {
+                                @Override
+                                public byte[] call()
+                                        throws Exception
+                                {
+                                    loads.incrementAndGet();
+                                    Thread.sleep(1);
+                                    return new byte[] {(byte) value};
+                                }
+                            });
+                            if (data[0] != (byte) block) {
+                                throw new AssertionError("wrong block returned");
+                            }
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(loads.get(), 100);
+        assertEquals(cache.getMisses(), 100);
+        assertEquals(cache.getHits(), 15 * 100);
+    }
+
+    @Test
+    public void testSharedBySeekableInputs()
+            throws Exception
+    {
+        byte[] original = new byte[10 * SnappyOutputStream.MAX_BLOCK_SIZE];
+        for (int i = 0; i < original.length; i++) {
+            original[i] = (byte) (i / 100);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream snappyOut = new IndexedSnappyOutputStream(out);
+        snappyOut.write(original);
+        snappyOut.close();
+
+        File file = File.createTempFile("snappy", ".sz");
+        try {
+            Files.write(out.toByteArray(), file);
+            SnappyBlockCache cache = new SnappyBlockCache(1 << 20);
+            for (int i = 0; i < 2; i++) {
+                FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+                SeekableSnappyInput input = new SeekableSnappyInput(channel, SnappyBlockIndex.readIndex(channel), true, cache, file);
+                try {
+                    byte[] buffer = new byte[original.length];
+                    input.readFully(0, buffer, 0, buffer.length);
+                    assertEquals(buffer, original);
+                    input.readFully(1000, buffer, 0, 100);
+                    assertEquals(Arrays.copyOf(buffer, 100), Arrays.copyOfRange(original, 1000, 1100));
+                }
+                finally {
+                    input.close();
+                }
+            }
+            assertEquals(cache.getMisses(), 10);
+            assertEquals(cache.getHits(), 12);
+            assertEquals(cache.getCachedBytes(), original.length);
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    private static Callable<byte[]> loader(final byte[] block)
+    {
+        return new Callable<byte[]>()
+        {
+            @Override
+            public byte[] call()
+            {
+                return block;
+            }
+        };
+    }
+
+    private static Callable<byte[]> invalidatingLoader(final SnappyBlockCache cache, final Object fileId, final byte[] block)
+    {
+        return new Callable<byte[]>()
+        {
+            @Override
+            public byte[] call()
+            {
+                cache.invalidate(fileId);
+                return block;
+            }
+        };
+    }
+
+    private static Callable<byte[]> failingLoader()
+    {
+        return new Callable<byte[]>()
+        {
+            @Override
+            public byte[] call()
+                    throws IOException
+            {
+                throw new IOException("load failed");
+            }
+        };
+    }
+}
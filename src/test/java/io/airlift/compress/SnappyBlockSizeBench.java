@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import io.airlift.compress.SnappyBench.TestData;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresses the test data corpus as a stream with each block size, and
+ * reports the compression ratio and the throughput of writing and reading.
+ */
+public class SnappyBlockSizeBench
+{
+    private static final int[] BLOCK_SIZES = {
+            SnappyOutputStream.MAX_BLOCK_SIZE, 1 << 16, 1 << 17, 1 << 18, 1 << 19, 1 << 20, 1 << 21, 1 << 22};
+    private static final long BYTES_PER_RUN = 256 * 1024 * 1024;
+
+    public static void main(String[] args)
+            throws IOException
+    {
+        byte[] corpus = createCorpus();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(corpus.length + 64 * 1024);
+        byte[] buffer = new byte[64 * 1024];
+
+        // warm up
+        for (int blockSize : BLOCK_SIZES) {
+            write(corpus, compressed, blockSize, 1);
+            read(compressed, buffer, 1);
+        }
+
+        System.err.printf("corpus: %d bytes%n", corpus.length);
+        System.err.printf("%-8s %8s %12s %12s%n", "block", "ratio", "write MB/s", "read MB/s");
+        int iterations = (int) Math.max(1, BYTES_PER_RUN / corpus.length);
+        for (int blockSize : BLOCK_SIZES) {
+            long writeNanos = write(corpus, compressed, blockSize, iterations);
+            int compressedSize = compressed.size();
+            long readNanos = read(compressed, buffer, iterations);
+            System.err.printf("%-8s %7.2f%% %12.1f %12.1f%n",
+                    (blockSize / 1024) + "k",
+                    100.0 * compressedSize / corpus.length,
+                    mbPerSecond(corpus.length, iterations, writeNanos),
+                    mbPerSecond(corpus.length, iterations, readNanos));
+        }
+    }
+
+    private static byte[] createCorpus()
+    {
+        int size = 0;
+        for (TestData testData : TestData.values()) {
+            size += testData.getContents().length;
+        }
+        byte[] corpus = new byte[size];
+        int offset = 0;
+        for (TestData testData : TestData.values()) {
+            byte[] contents = testData.getContents();
+            System.arraycopy(contents, 0, corpus, offset, contents.length);
+            offset += contents.length;
+        }
+        return corpus;
+    }
+
+    private static long write(byte[] corpus, ByteArrayOutputStream compressed, int blockSize, int iterations)
+            throws IOException
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            compressed.reset();
+            OutputStream out = blockSize == SnappyOutputStream.MAX_BLOCK_SIZE ?
+                    new SnappyOutputStream(compressed) :
+                    new SnappyOutputStream(compressed, blockSize);
+            out.write(corpus);
+            out.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long read(ByteArrayOutputStream compressed, byte[] buffer, int iterations)
+            throws IOException
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            InputStream in = new SnappyInputStream(new ByteArrayInputStream(compressed.getBuffer(), 0, compressed.size()));
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+            in.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static double mbPerSecond(int size, int iterations, long nanos)
+    {
+        return 1.0 * size * iterations / (nanos / 1e9) / 1024 / 1024;
+    }
+}
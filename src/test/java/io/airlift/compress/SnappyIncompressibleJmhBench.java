@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import io.airlift.compress.SnappyBench.TestData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static io.airlift.compress.SnappyOutputStream.MAX_BLOCK_SIZE;
+
+/**
+ * Cost of deciding to store stream blocks uncompressed.  Each operation
+ * compresses the input in 32KB stream blocks, and keeps the blocks that
+ * compress by at least 12.5%:
+ * <ul>
+ * <li>full: compresses every block to the end, as streams used to</li>
+ * <li>budget: stops compressing a block as soon as it exceeds 87.5%</li>
+ * <li>stream: the stream code, which also skips blocks that look
+ * incompressible from a sample of their bytes</li>
+ * </ul>
+ * Requires Java 7, so the class is only compiled by the jmh profile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnappyIncompressibleJmhBench
+{
+    @Param({"jpg", "pdf", "random", "html"})
+    public String data;
+
+    private byte[] contents;
+    private byte[] output;
+    private short[] table;
+
+    @Setup
+    public void setup()
+    {
+        if (data.equals("random")) {
+            contents = new byte[1024 * 1024];
+            new Random(0).nextBytes(contents);
+        }
+        else {
+            contents = TestData.valueOf(data).getContents();
+        }
+        output = new byte[Snappy.maxCompressedLength(MAX_BLOCK_SIZE)];
+        table = new short[SnappyRawCompressor.MAX_HASH_TABLE_SIZE];
+    }
+
+    @Benchmark
+    public int full()
+    {
+        int compressedBlocks = 0;
+        for (int offset = 0; offset < contents.length; offset += MAX_BLOCK_SIZE) {
+            int length = Math.min(MAX_BLOCK_SIZE, contents.length - offset);
+            int compressed = SnappyRawCompressor.compress(contents, offset, length, output, 0, table);
+            if (compressed < length - (length / 8)) {
+                compressedBlocks++;
+            }
+        }
+        return compressedBlocks;
+    }
+
+    @Benchmark
+    public int budget()
+    {
+        int compressedBlocks = 0;
+        for (int offset = 0; offset < contents.length; offset += MAX_BLOCK_SIZE) {
+            int length = Math.min(MAX_BLOCK_SIZE, contents.length - offset);
+            if (SnappyRawCompressor.compress(contents, offset, length, output, 0, table, null, length - (length / 8) - 1) >= 0) {
+                compressedBlocks++;
+            }
+        }
+        return compressedBlocks;
+    }
+
+    @Benchmark
+    public int stream()
+    {
+        int compressedBlocks = 0;
+        for (int offset = 0; offset < contents.length; offset += MAX_BLOCK_SIZE) {
+            int length = Math.min(MAX_BLOCK_SIZE, contents.length - offset);
+            if (SnappyOutputStream.compressBlock(contents, offset, length, output, null) >= 0) {
+                compressedBlocks++;
+            }
+        }
+        return compressedBlocks;
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        CommandLineOptions options = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(options);
+        if (options.getIncludes().isEmpty()) {
+            builder.include(SnappyIncompressibleJmhBench.class.getSimpleName());
+        }
+        new Runner(builder.build()).run();
+    }
+}
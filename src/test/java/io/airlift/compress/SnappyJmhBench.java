@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import io.airlift.compress.SnappyBench.TestData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH version of {@link SnappyBench}: block compress, uncompress and round
+ * trip, streams and checksums over every {@link TestData} file, for this
+ * implementation and for the JNI snappy-java baseline.  The JNI benchmarks
+ * are the ones with the {@code jni} prefix.
+ * <p/>
+ * Requires Java 7, so the class is only compiled by the jmh profile.  Run
+ * it with the test class path, for example:
+ * <pre>
+ * {@code
+ *   java -cp target/classes:target/test-classes:<test dependencies> io.airlift.compress.SnappyJmhBench -p testData=html,txt1 -prof gc
+ * }
+ * </pre>
+ * Any JMH command line option can be passed, such as {@code -bm thrpt},
+ * {@code -f 3}, {@code -rf json} or a regular expression selecting the
+ * benchmarks.  Throughput is reported in operations,
+ * which are one pass over the file, per millisecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnappyJmhBench
+{
+    @Param
+    public TestData testData;
+
+    private byte[] contents;
+    private byte[] compressed;
+    private byte[] jniCompressed;
+    private byte[] streamCompressed;
+    private byte[] jniStreamCompressed;
+
+    private byte[] compressBuffer;
+    private byte[] uncompressBuffer;
+    private byte[] readBuffer;
+    private ByteArrayOutputStream streamOut;
+    private Crc32C checksum;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        contents = testData.getContents();
+        compressed = Snappy.compress(contents);
+        jniCompressed = org.xerial.snappy.Snappy.compress(contents);
+
+        compressBuffer = new byte[Snappy.maxCompressedLength(contents.length)];
+        uncompressBuffer = new byte[contents.length];
+        readBuffer = new byte[4096];
+        streamOut = new ByteArrayOutputStream(Snappy.maxCompressedLength(contents.length) + (1 << 16));
+        checksum = new Crc32C();
+
+        streamCompress();
+        streamCompressed = streamOut.toByteArray();
+        jniStreamCompress();
+        jniStreamCompressed = streamOut.toByteArray();
+    }
+
+    @Benchmark
+    public int compress()
+    {
+        return Snappy.compress(contents, 0, contents.length, compressBuffer, 0);
+    }
+
+    @Benchmark
+    public int uncompress()
+    {
+        return Snappy.uncompress(compressed, 0, compressed.length, uncompressBuffer, 0);
+    }
+
+    @Benchmark
+    public int roundTrip()
+    {
+        int compressedSize = Snappy.compress(contents, 0, contents.length, compressBuffer, 0);
+        return Snappy.uncompress(compressBuffer, 0, compressedSize, uncompressBuffer, 0);
+    }
+
+    @Benchmark
+    public int jniCompress()
+            throws IOException
+    {
+        return org.xerial.snappy.Snappy.compress(contents, 0, contents.length, compressBuffer, 0);
+    }
+
+    @Benchmark
+    public int jniUncompress()
+            throws IOException
+    {
+        return org.xerial.snappy.Snappy.uncompress(jniCompressed, 0, jniCompressed.length, uncompressBuffer, 0);
+    }
+
+    @Benchmark
+    public int jniRoundTrip()
+            throws IOException
+    {
+        int compressedSize = org.xerial.snappy.Snappy.compress(contents, 0, contents.length, compressBuffer, 0);
+        return org.xerial.snappy.Snappy.uncompress(compressBuffer, 0, compressedSize, uncompressBuffer, 0);
+    }
+
+    @Benchmark
+    public int streamCompress()
+            throws IOException
+    {
+        streamOut.reset();
+        SnappyOutputStream out = new SnappyOutputStream(streamOut);
+        out.write(contents);
+        out.close();
+        return streamOut.size();
+    }
+
+    @Benchmark
+    public long streamUncompress()
+            throws IOException
+    {
+        return readFully(new SnappyInputStream(new ByteArrayInputStream(streamCompressed)));
+    }
+
+    @Benchmark
+    public int jniStreamCompress()
+            throws IOException
+    {
+        streamOut.reset();
+        org.xerial.snappy.SnappyOutputStream out = new org.xerial.snappy.SnappyOutputStream(streamOut);
+        out.write(contents);
+        out.close();
+        return streamOut.size();
+    }
+
+    @Benchmark
+    public long jniStreamUncompress()
+            throws IOException
+    {
+        return readFully(new org.xerial.snappy.SnappyInputStream(new ByteArrayInputStream(jniStreamCompressed)));
+    }
+
+    @Benchmark
+    public int checksum()
+    {
+        checksum.reset();
+        checksum.update(contents, 0, contents.length);
+        return checksum.getIntValue();
+    }
+
+    private long readFully(InputStream in)
+            throws IOException
+    {
+        long size = 0;
+        for (int read = in.read(readBuffer); read >= 0; read = in.read(readBuffer)) {
+            size += read;
+        }
+        in.close();
+        return size;
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        CommandLineOptions options = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(options);
+        if (options.getIncludes().isEmpty()) {
+            builder.include(SnappyJmhBench.class.getSimpleName());
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import io.airlift.compress.SnappyBench.TestData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of compressing and decompressing small messages, the sizes sent
+ * by an RPC layer.  The sample time mode records the time of individual
+ * calls in a histogram, and reports the p50, p90, p99, p99.9 and p99.99
+ * latencies along with the mean.
+ * <p/>
+ * Each thread cycles through a set of different messages, cut from a file
+ * of the selected shape: text, binary (a protocol buffer) or
+ * incompressible (a jpeg).
+ * <p/>
+ * Requires Java 7, so the class is only compiled by the jmh profile.  Unless
+ * a thread count is passed with {@code -t}, the main method runs every
+ * benchmark with one thread and then with {@link #CONCURRENT_THREADS}
+ * threads, to show the latency under contention for the CPU caches and the
+ * buffer pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnappyLatencyJmhBench
+{
+    private static final int CONCURRENT_THREADS = 4;
+    private static final int MESSAGE_COUNT = 64;
+
+    public enum Shape
+    {
+        text(TestData.html),
+        binary(TestData.pb),
+        incompressible(TestData.jpg);
+
+        private final TestData testData;
+
+        Shape(TestData testData)
+        {
+            this.testData = testData;
+        }
+    }
+
+    @Param({"64", "256", "1024", "4096", "8192"})
+    public int size;
+
+    @Param
+    public Shape shape;
+
+    private byte[][] messages;
+    private byte[][] compressedMessages;
+    private byte[][] streamMessages;
+    private int next;
+
+    private byte[] compressBuffer;
+    private byte[] uncompressBuffer;
+    private byte[] readBuffer;
+    private ByteArrayOutputStream streamOut;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        byte[] contents = shape.testData.getContents();
+
+        messages = new byte[MESSAGE_COUNT][];
+        compressedMessages = new byte[MESSAGE_COUNT][];
+        streamMessages = new byte[MESSAGE_COUNT][];
+        streamOut = new ByteArrayOutputStream(Snappy.maxCompressedLength(size) + 64);
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            int offset = (int) ((long) i * (contents.length - size) / MESSAGE_COUNT);
+            byte[] message = new byte[size];
+            System.arraycopy(contents, offset, message, 0, size);
+            messages[i] = message;
+            compressedMessages[i] = Snappy.compress(message);
+
+            writeStream(message);
+            streamMessages[i] = streamOut.toByteArray();
+        }
+
+        compressBuffer = new byte[Snappy.maxCompressedLength(size)];
+        uncompressBuffer = new byte[size];
+        readBuffer = new byte[4096];
+    }
+
+    @Benchmark
+    public int compress()
+    {
+        byte[] message = nextMessage(messages);
+        return Snappy.compress(message, 0, message.length, compressBuffer, 0);
+    }
+
+    @Benchmark
+    public int uncompress()
+    {
+        byte[] compressed = nextMessage(compressedMessages);
+        return Snappy.uncompress(compressed, 0, compressed.length, uncompressBuffer, 0);
+    }
+
+    /**
+     * Opens a stream, writes one message, flushes and closes the stream.
+     */
+    @Benchmark
+    public int streamWrite()
+            throws IOException
+    {
+        return writeStream(nextMessage(messages));
+    }
+
+    /**
+     * Opens a stream over one message, reads it and closes the stream.
+     */
+    @Benchmark
+    public int streamRead()
+            throws IOException
+    {
+        SnappyInputStream in = new SnappyInputStream(new ByteArrayInputStream(nextMessage(streamMessages)));
+        int length = 0;
+        for (int read = in.read(readBuffer); read >= 0; read = in.read(readBuffer)) {
+            length += read;
+        }
+        in.close();
+        return length;
+    }
+
+    private int writeStream(byte[] message)
+            throws IOException
+    {
+        streamOut.reset();
+        SnappyOutputStream out = new SnappyOutputStream(streamOut);
+        out.write(message);
+        out.flush();
+        out.close();
+        return streamOut.size();
+    }
+
+    private byte[] nextMessage(byte[][] messages)
+    {
+        byte[] message = messages[next];
+        next = (next + 1) % MESSAGE_COUNT;
+        return message;
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.getThreads().hasValue()) {
+            run(options, options.getThreads().get());
+        }
+        else {
+            run(options, 1);
+            run(options, CONCURRENT_THREADS);
+        }
+    }
+
+    private static void run(CommandLineOptions options, int threads)
+            throws Exception
+    {
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(options);
+        builder.threads(threads);
+        if (options.getIncludes().isEmpty()) {
+            builder.include(SnappyLatencyJmhBench.class.getSimpleName());
+        }
+        new Runner(builder.build()).run();
+    }
+}
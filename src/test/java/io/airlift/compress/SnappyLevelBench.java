@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import io.airlift.compress.SnappyBench.TestData;
+
+/**
+ * Compresses each file of the test data corpus at each compression level,
+ * and reports the compression ratio, and the throughput of compressing and
+ * uncompressing, per file and for the whole corpus.
+ */
+public class SnappyLevelBench
+{
+    private static final long NANOS_PER_MEASUREMENT = 200 * 1000 * 1000;
+
+    public static void main(String[] args)
+    {
+        int maxLevel = args.length > 0 ? Integer.parseInt(args[0]) : SnappyCompressor.MAX_LEVEL;
+
+        int levels = maxLevel - SnappyCompressor.DEFAULT_LEVEL + 1;
+        String[] names = new String[levels];
+        SnappyCompressor[] compressors = new SnappyCompressor[levels];
+        for (int i = 0; i < levels; i++) {
+            names[i] = "level " + (SnappyCompressor.DEFAULT_LEVEL + i);
+            compressors[i] = new SnappyCompressor(SnappyCompressor.DEFAULT_LEVEL + i);
+        }
+        run(names, compressors);
+    }
+
+    /**
+     * Prints the results of each compressor for each file, followed by the
+     * results for the whole corpus.
+     */
+    static void run(String[] names, SnappyCompressor[] compressors)
+    {
+        // warm up
+        for (SnappyCompressor compressor : compressors) {
+            for (TestData testData : TestData.values()) {
+                measure(compressor, testData.getContents(), 10 * 1000 * 1000);
+            }
+        }
+
+        System.err.printf("%-8s", "file");
+        for (String name : names) {
+            System.err.printf(" %20s", name);
+        }
+        System.err.printf("%n");
+
+        long uncompressedTotal = 0;
+        long[] compressedTotal = new long[compressors.length];
+        double[] compressSeconds = new double[compressors.length];
+        double[] uncompressSeconds = new double[compressors.length];
+        for (TestData testData : TestData.values()) {
+            byte[] contents = testData.getContents();
+            uncompressedTotal += contents.length;
+            System.err.printf("%-8s", testData);
+            for (int i = 0; i < compressors.length; i++) {
+                Result result = measure(compressors[i], contents, NANOS_PER_MEASUREMENT);
+                compressedTotal[i] += result.compressedSize;
+                compressSeconds[i] += contents.length / result.compressBytesPerSecond;
+                uncompressSeconds[i] += contents.length / result.uncompressBytesPerSecond;
+                System.err.printf(" %6.2f%% %5.0f %5.0f",
+                        100.0 * result.compressedSize / contents.length,
+                        result.compressBytesPerSecond / 1024 / 1024,
+                        result.uncompressBytesPerSecond / 1024 / 1024);
+            }
+            System.err.printf("%n");
+        }
+
+        System.err.printf("%ncorpus: %d bytes%n", uncompressedTotal);
+        System.err.printf("%-16s %8s %14s %14s%n", "", "ratio", "compress MB/s", "uncompress MB/s");
+        for (int i = 0; i < compressors.length; i++) {
+            System.err.printf("%-16s %7.2f%% %14.1f %14.1f%n",
+                    names[i],
+                    100.0 * compressedTotal[i] / uncompressedTotal,
+                    uncompressedTotal / compressSeconds[i] / 1024 / 1024,
+                    uncompressedTotal / uncompressSeconds[i] / 1024 / 1024);
+        }
+    }
+
+    private static Result measure(SnappyCompressor compressor, byte[] contents, long nanos)
+    {
+        byte[] compressed = new byte[Snappy.maxCompressedLength(contents.length)];
+        byte[] uncompressed = new byte[contents.length];
+
+        int compressedSize = 0;
+        int iterations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            compressedSize = compressor.compress(contents, 0, contents.length, compressed, 0);
+            iterations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        double compressBytesPerSecond = 1e9 * contents.length * iterations / elapsed;
+
+        iterations = 0;
+        start = System.nanoTime();
+        do {
+            Snappy.uncompress(compressed, 0, compressedSize, uncompressed, 0);
+            iterations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        double uncompressBytesPerSecond = 1e9 * contents.length * iterations / elapsed;
+
+        return new Result(compressedSize, compressBytesPerSecond, uncompressBytesPerSecond);
+    }
+
+    private static class Result
+    {
+        private final int compressedSize;
+        private final double compressBytesPerSecond;
+        private final double uncompressBytesPerSecond;
+
+        private Result(int compressedSize, double compressBytesPerSecond, double uncompressBytesPerSecond)
+        {
+            this.compressedSize = compressedSize;
+            this.compressBytesPerSecond = compressBytesPerSecond;
+            this.uncompressBytesPerSecond = uncompressBytesPerSecond;
+        }
+    }
+}
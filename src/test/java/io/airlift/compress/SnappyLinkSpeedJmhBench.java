@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import io.airlift.compress.SnappyBench.TestData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a stream to a {@link RateLimitedOutputStream} that simulates a link
+ * of the given speed in megabits per second, to compare the end to end time
+ * of compressing every block, of sending the data uncompressed, and of the
+ * throughput targeted {@link SnappyOutputStream}, which should be close to
+ * the faster of the two at every speed.  With a send buffer, the link sends
+ * while the next block is compressed, which the stream does not account for.
+ * The setup prints the compressed size and the block counts of the throughput
+ * targeted stream.
+ * <p/>
+ * Requires Java 7, so the class is only compiled by the jmh profile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnappyLinkSpeedJmhBench
+{
+    private static final int STREAM_SIZE = 4 * 1024 * 1024;
+
+    @Param({"100", "1000", "10000"})
+    public long linkMegabits;
+
+    @Param({"0", "65536"})
+    public int sendBuffer;
+
+    @Param({"html", "txt1", "jpg"})
+    public TestData testData;
+
+    private byte[] contents;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        byte[] data = testData.getContents();
+        contents = new byte[STREAM_SIZE];
+        for (int position = 0; position < contents.length; position += data.length) {
+            System.arraycopy(data, 0, contents, position, Math.min(data.length, contents.length - position));
+        }
+        out = new ByteArrayOutputStream(Snappy.maxCompressedLength(contents.length) + (1 << 20));
+
+        SnappyOutputStream stream = null;
+        for (int i = 0; i < 5; i++) {
+            stream = write(true);
+        }
+        System.err.printf("%n%s at %d Mb/s, %d byte buffer: %d bytes, %d compressed, %d stored, %d skipped, %d probed blocks%n",
+                testData,
+                linkMegabits,
+                sendBuffer,
+                out.size(),
+                stream.getCompressedBlocks(),
+                stream.getStoredBlocks(),
+                stream.getSkippedBlocks(),
+                stream.getProbedBlocks());
+    }
+
+    @Benchmark
+    public SnappyOutputStream compressed()
+            throws IOException
+    {
+        return write(false);
+    }
+
+    @Benchmark
+    public SnappyOutputStream throughputTargeted()
+            throws IOException
+    {
+        return write(true);
+    }
+
+    @Benchmark
+    public int uncompressed()
+            throws IOException
+    {
+        OutputStream link = link();
+        link.write(contents);
+        link.close();
+        return out.size();
+    }
+
+    private SnappyOutputStream write(boolean throughputTargeted)
+            throws IOException
+    {
+        OutputStream link = link();
+        SnappyOutputStream stream = throughputTargeted ? SnappyOutputStream.newThroughputTargetedOutputStream(link) : new SnappyOutputStream(link);
+        stream.write(contents);
+        stream.close();
+        return stream;
+    }
+
+    private OutputStream link()
+    {
+        out.reset();
+        return new RateLimitedOutputStream(out, linkMegabits * 1000 * 1000 / 8, sendBuffer);
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        CommandLineOptions options = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(options);
+        if (options.getIncludes().isEmpty()) {
+            builder.include(SnappyLinkSpeedJmhBench.class.getSimpleName());
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import io.airlift.compress.SnappyBench.TestData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a mixed media stream, runs of incompressible data between runs of
+ * text, with and without the adaptive back off of {@link SnappyOutputStream}.
+ * The incompressible data is either uniformly random, like images and
+ * encrypted data, or random with a skewed byte distribution, like noisy
+ * measurements, which the sampling in {@link SnappyOutputStream#compressBlock}
+ * does not recognize.  The setup prints the compressed size and the block
+ * counts of each mode.
+ * <p/>
+ * Requires Java 7, so the class is only compiled by the jmh profile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnappyMixedStreamJmhBench
+{
+    private static final int INCOMPRESSIBLE_RUN = 4 * 1024 * 1024;
+    private static final int COMPRESSIBLE_RUN = 1024 * 1024;
+    private static final int RUNS = 4;
+
+    @Param({"true", "false"})
+    public boolean adaptive;
+
+    @Param({"uniform", "skewed"})
+    public String incompressibleData;
+
+    private byte[] contents;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        Random random = new Random(0);
+        byte[] text = TestData.txt3.getContents();
+        contents = new byte[RUNS * (INCOMPRESSIBLE_RUN + COMPRESSIBLE_RUN)];
+        int position = 0;
+        for (int run = 0; run < RUNS; run++) {
+            byte[] incompressible = new byte[INCOMPRESSIBLE_RUN];
+            if (incompressibleData.equals("uniform")) {
+                random.nextBytes(incompressible);
+            }
+            else {
+                for (int i = 0; i < incompressible.length; i++) {
+                    incompressible[i] = (byte) (random.nextGaussian() * 20);
+                }
+            }
+            System.arraycopy(incompressible, 0, contents, position, incompressible.length);
+            position += incompressible.length;
+
+            for (int end = position + COMPRESSIBLE_RUN; position < end; position += Math.min(text.length, end - position)) {
+                System.arraycopy(text, 0, contents, position, Math.min(text.length, end - position));
+            }
+        }
+        out = new ByteArrayOutputStream(Snappy.maxCompressedLength(contents.length) + (1 << 20));
+
+        SnappyOutputStream stream = write();
+        System.err.printf("%nadaptive=%s %s: %d bytes, %d compressed, %d stored, %d skipped, %d probed blocks%n",
+                adaptive,
+                incompressibleData,
+                out.size(),
+                stream.getCompressedBlocks(),
+                stream.getStoredBlocks(),
+                stream.getSkippedBlocks(),
+                stream.getProbedBlocks());
+    }
+
+    @Benchmark
+    public SnappyOutputStream writeStream()
+            throws IOException
+    {
+        return write();
+    }
+
+    private SnappyOutputStream write()
+            throws IOException
+    {
+        out.reset();
+        SnappyOutputStream stream = new SnappyOutputStream(out, true, SnappyOutputStream.MAX_BLOCK_SIZE, adaptive);
+        stream.write(contents);
+        stream.close();
+        return stream;
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        CommandLineOptions options = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(options);
+        if (options.getIncludes().isEmpty()) {
+            builder.include(SnappyMixedStreamJmhBench.class.getSimpleName());
+        }
+        new Runner(builder.build()).run();
+    }
+}
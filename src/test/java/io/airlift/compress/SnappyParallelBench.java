@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import io.airlift.compress.SnappyBench.TestData;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compresses one large buffer with {@link Snappy#compressParallel}, and writes and
+ * reads it through {@link ParallelSnappyOutputStream} and {@link ParallelSnappyInputStream},
+ * on 1 to N threads and reports the speedup over the sequential code.
+ */
+public class SnappyParallelBench
+{
+    private static final int INPUT_SIZE = 64 * 1024 * 1024;
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+
+        byte[] input = createCorpus(INPUT_SIZE);
+        byte[] compressed = new byte[Snappy.maxCompressedLength(input.length)];
+
+        // warm up
+        for (int i = 0; i < ITERATIONS; i++) {
+            Snappy.compress(input, 0, input.length, compressed, 0);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Snappy.compress(input, 0, input.length, compressed, 0);
+        }
+        double sequential = throughput(System.nanoTime() - start);
+        System.err.printf("%-12s %10.1f MB/s%n", "sequential", sequential);
+
+        for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                Snappy.compressParallel(input, 0, input.length, compressed, 0, executor);
+                start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    Snappy.compressParallel(input, 0, input.length, compressed, 0, executor);
+                }
+                double parallel = throughput(System.nanoTime() - start);
+                System.err.printf("%-12s %10.1f MB/s %6.2fx%n", threads + " threads", parallel, parallel / sequential);
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+
+        System.err.println();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Snappy.maxCompressedLength(input.length) + 1024 * 1024);
+        for (int i = 0; i < ITERATIONS; i++) {
+            out.reset();
+            writeStream(new SnappyOutputStream(out), input);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            out.reset();
+            writeStream(new SnappyOutputStream(out), input);
+        }
+        double sequentialStream = throughput(System.nanoTime() - start);
+        System.err.printf("%-12s %10.1f MB/s%n", "stream", sequentialStream);
+
+        for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                int maxBlocksInFlight = 2 * threads;
+                out.reset();
+                writeStream(new ParallelSnappyOutputStream(out, executor, maxBlocksInFlight), input);
+                start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    out.reset();
+                    writeStream(new ParallelSnappyOutputStream(out, executor, maxBlocksInFlight), input);
+                }
+                double parallel = throughput(System.nanoTime() - start);
+                System.err.printf("%-12s %10.1f MB/s %6.2fx  (%d blocks in flight)%n", threads + " threads", parallel, parallel / sequentialStream, maxBlocksInFlight);
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+
+        System.err.println();
+        out.reset();
+        writeStream(new SnappyOutputStream(out), input);
+        byte[] stream = out.toByteArray();
+        byte[] readBuffer = new byte[64 * 1024];
+        for (int i = 0; i < ITERATIONS; i++) {
+            readStream(new SnappyInputStream(new ByteArrayInputStream(stream)), readBuffer);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            readStream(new SnappyInputStream(new ByteArrayInputStream(stream)), readBuffer);
+        }
+        double sequentialRead = throughput(System.nanoTime() - start);
+        System.err.printf("%-12s %10.1f MB/s%n", "read stream", sequentialRead);
+
+        for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                int maxBlocksInFlight = 2 * threads;
+                readStream(new ParallelSnappyInputStream(new ByteArrayInputStream(stream), executor, true, maxBlocksInFlight), readBuffer);
+                start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    readStream(new ParallelSnappyInputStream(new ByteArrayInputStream(stream), executor, true, maxBlocksInFlight), readBuffer);
+                }
+                double parallel = throughput(System.nanoTime() - start);
+                System.err.printf("%-12s %10.1f MB/s %6.2fx  (%d blocks in flight)%n", threads + " threads", parallel, parallel / sequentialRead, maxBlocksInFlight);
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static void readStream(InputStream in, byte[] readBuffer)
+            throws IOException
+    {
+        while (in.read(readBuffer) >= 0) {
+        }
+        in.close();
+    }
+
+    private static void writeStream(OutputStream snappyOut, byte[] input)
+            throws IOException
+    {
+        // write in chunks of a typical application buffer size
+        for (int offset = 0; offset < input.length; offset += 64 * 1024) {
+            snappyOut.write(input, offset, Math.min(64 * 1024, input.length - offset));
+        }
+        snappyOut.close();
+    }
+
+    static int nextThreadCount(int threads, int maxThreads)
+    {
+        // powers of two, and the maximum
+        if (threads < maxThreads && threads * 2 > maxThreads) {
+            return maxThreads;
+        }
+        return threads * 2;
+    }
+
+    private static double throughput(long nanos)
+    {
+        return 1.0 * ITERATIONS * INPUT_SIZE / (nanos / 1e9) / 1024 / 1024;
+    }
+
+    /**
+     * Fills a buffer of the specified size with copies of the test data files.
+     */
+    static byte[] createCorpus(int size)
+    {
+        byte[] corpus = new byte[size];
+        int position = 0;
+        while (position < size) {
+            for (TestData testData : TestData.values()) {
+                byte[] contents = testData.getContents();
+                int length = Math.min(contents.length, size - position);
+                System.arraycopy(contents, 0, corpus, position, length);
+                position += length;
+            }
+        }
+        return corpus;
+    }
+}
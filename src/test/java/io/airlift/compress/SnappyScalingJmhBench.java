@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import io.airlift.compress.SnappyBench.TestData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the throughput of block and stream compression scales with
+ * the number of threads, each working on its own data.  Any shared state,
+ * such as the {@link BufferRecycler} pool, the static decompressor and
+ * checksum tables, or allocation, shows up as less than linear scaling.
+ * The recycler benchmark runs small stream round trips, which take all
+ * their buffers from the pool.
+ * <p/>
+ * Requires Java 7, so the class is only compiled by the jmh profile.  The
+ * main method runs the benchmarks with 1, 2, 4, ... threads up to the
+ * number of processors, or up to the count passed with {@code -t}, and
+ * prints the aggregate throughput and the efficiency of each thread count
+ * relative to one thread.  Thread counts with an efficiency below
+ * {@link #MIN_EFFICIENCY} are flagged.  Add {@code -prof gc} to see the
+ * allocation rate at each thread count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnappyScalingJmhBench
+{
+    private static final double MIN_EFFICIENCY = 0.8;
+    private static final int RECYCLER_MESSAGE_SIZE = 1024;
+
+    @Param({"html4", "txt3"})
+    public TestData testData;
+
+    private byte[] contents;
+    private byte[] compressed;
+    private byte[] streamCompressed;
+    private byte[] message;
+
+    private byte[] compressBuffer;
+    private byte[] uncompressBuffer;
+    private byte[] readBuffer;
+    private ByteArrayOutputStream streamOut;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        contents = testData.getContents();
+        compressed = Snappy.compress(contents);
+        message = new byte[RECYCLER_MESSAGE_SIZE];
+        System.arraycopy(contents, 0, message, 0, message.length);
+
+        compressBuffer = new byte[Snappy.maxCompressedLength(contents.length)];
+        uncompressBuffer = new byte[contents.length];
+        readBuffer = new byte[4096];
+        streamOut = new ByteArrayOutputStream(Snappy.maxCompressedLength(contents.length) + (1 << 16));
+
+        streamCompress();
+        streamCompressed = streamOut.toByteArray();
+    }
+
+    @Benchmark
+    public int blockCompress()
+    {
+        return Snappy.compress(contents, 0, contents.length, compressBuffer, 0);
+    }
+
+    @Benchmark
+    public int blockUncompress()
+    {
+        return Snappy.uncompress(compressed, 0, compressed.length, uncompressBuffer, 0);
+    }
+
+    @Benchmark
+    public int streamCompress()
+            throws IOException
+    {
+        streamOut.reset();
+        SnappyOutputStream out = new SnappyOutputStream(streamOut);
+        out.write(contents);
+        out.close();
+        return streamOut.size();
+    }
+
+    @Benchmark
+    public long streamUncompress()
+            throws IOException
+    {
+        return readFully(new SnappyInputStream(new ByteArrayInputStream(streamCompressed)));
+    }
+
+    @Benchmark
+    public long recycler()
+            throws IOException
+    {
+        streamOut.reset();
+        SnappyOutputStream out = new SnappyOutputStream(streamOut);
+        out.write(message);
+        out.close();
+        return readFully(new SnappyInputStream(new ByteArrayInputStream(streamOut.getBuffer(), 0, streamOut.size())));
+    }
+
+    private long readFully(InputStream in)
+            throws IOException
+    {
+        long size = 0;
+        for (int read = in.read(readBuffer); read >= 0; read = in.read(readBuffer)) {
+            size += read;
+        }
+        in.close();
+        return size;
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        CommandLineOptions options = new CommandLineOptions(args);
+        int maxThreads = options.getThreads().hasValue() ? options.getThreads().get() : Runtime.getRuntime().availableProcessors();
+
+        // benchmark and test data -> throughput in bytes per second for each thread count
+        Map<String, Map<Integer, Double>> results = new LinkedHashMap<String, Map<Integer, Double>>();
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        for (int threads = 1; threads <= maxThreads; threads = SnappyParallelBench.nextThreadCount(threads, maxThreads)) {
+            threadCounts.add(threads);
+
+            OptionsBuilder builder = new OptionsBuilder();
+            builder.parent(options);
+            builder.threads(threads);
+            if (options.getIncludes().isEmpty()) {
+                builder.include(SnappyScalingJmhBench.class.getSimpleName());
+            }
+            for (RunResult result : new Runner(builder.build()).run()) {
+                String benchmark = result.getParams().getBenchmark();
+                benchmark = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+                TestData testData = TestData.valueOf(result.getParams().getParam("testData"));
+                int bytesPerOperation = benchmark.equals("recycler") ? RECYCLER_MESSAGE_SIZE : testData.size();
+
+                String key = benchmark + " " + testData.name();
+                if (!results.containsKey(key)) {
+                    results.put(key, new LinkedHashMap<Integer, Double>());
+                }
+                results.get(key).put(threads, result.getPrimaryResult().getScore() * bytesPerOperation);
+            }
+        }
+
+        System.err.println();
+        System.err.printf("%-26s %7s %9s %13s %10s%n", "Benchmark", "Threads", "GB/s", "GB/s/thread", "Efficiency");
+        for (Map.Entry<String, Map<Integer, Double>> entry : results.entrySet()) {
+            Double single = entry.getValue().get(1);
+            for (int threads : threadCounts) {
+                Double bytesPerSecond = entry.getValue().get(threads);
+                if (bytesPerSecond == null || single == null) {
+                    continue;
+                }
+                double efficiency = bytesPerSecond / (single * threads);
+                System.err.printf("%-26s %7d %9.3f %13.3f %9.0f%% %s%n",
+                        entry.getKey(),
+                        threads,
+                        bytesPerSecond / 1e9,
+                        bytesPerSecond / threads / 1e9,
+                        efficiency * 100,
+                        efficiency < MIN_EFFICIENCY ? "<< sub-linear" : "");
+            }
+        }
+    }
+}
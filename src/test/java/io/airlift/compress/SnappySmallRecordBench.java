@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import io.airlift.compress.SnappyBench.TestData;
+
+/**
+ * Compresses many small records, where the fixed cost of each call matters
+ * more than the throughput of the compression loop.
+ */
+public class SnappySmallRecordBench
+{
+    private static final int[] RECORD_SIZES = {16, 64, 100, 256, 1024, 4096};
+    private static final long BYTES_PER_RUN = 64 * 1024 * 1024;
+
+    public static void main(String[] args)
+    {
+        byte[] contents = TestData.html.getContents();
+        byte[] compressed = new byte[Snappy.maxCompressedLength(contents.length)];
+        SnappyCompressor compressor = new SnappyCompressor();
+
+        // warm up
+        for (int recordSize : RECORD_SIZES) {
+            run(compressor, contents, compressed, recordSize);
+        }
+
+        System.err.printf("%-8s %10s %10s%n", "record", "ns/record", "MB/s");
+        for (int recordSize : RECORD_SIZES) {
+            int records = (int) (BYTES_PER_RUN / recordSize);
+            long nanos = run(compressor, contents, compressed, recordSize);
+            System.err.printf("%-8d %10.1f %10.1f%n",
+                    recordSize,
+                    1.0 * nanos / records,
+                    records * recordSize / (nanos / 1e9) / 1024 / 1024);
+        }
+    }
+
+    private static long run(SnappyCompressor compressor, byte[] contents, byte[] compressed, int recordSize)
+    {
+        int records = (int) (BYTES_PER_RUN / recordSize);
+        int limit = contents.length - recordSize;
+
+        long start = System.nanoTime();
+        for (int i = 0, offset = 0; i < records; i++) {
+            compressor.compress(contents, offset, recordSize, compressed, 0);
+            offset += recordSize;
+            if (offset > limit) {
+                offset = 0;
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -265,6 +265,117 @@ public class SnappyStreamTest
         assertEquals(toByteArray(new SnappyInputStream(inputData, false)), new byte[] {'a'});
     }
 
+    @Test
+    public void testSkip()
+            throws Exception
+    {
+        byte[] random = getRandom(0.5, 500000);
+        byte[] compressed = compress(random);
+
+        for (boolean verifyChecksums : new boolean[] {true, false}) {
+            for (int skip : new int[] {0, 1, 1000, 32768, 32769, 100000, 499999, 500000}) {
+                SnappyInputStream in = new SnappyInputStream(new ByteArrayInputStream(compressed), verifyChecksums);
+
+                // start in the middle of a block
+                assertEquals(in.read(), random[0] & 0xFF);
+                assertEquals(in.skip(skip), Math.min(skip, random.length - 1));
+
+                byte[] rest = toByteArray(in);
+                assertEquals(rest, Arrays.copyOfRange(random, Math.min(1 + skip, random.length), random.length));
+                assertEquals(in.skip(10), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSkipDoesNotDecompressWhenVerificationDisabled()
+            throws Exception
+    {
+        // compressed block with a valid length of 10 followed by corrupt data, then an uncompressed block
+        byte[] stream = blockToStream(new byte[] {
+                1, 0, 3, 0, 0, 0, 0, 10, (byte) 0xFF, (byte) 0xFF,
+                0, 0, 1, 0, 0, 0, 0, 'a'});
+
+        SnappyInputStream in = new SnappyInputStream(new ByteArrayInputStream(stream), false);
+        assertEquals(in.skip(10), 10);
+        assertEquals(toByteArray(in), new byte[] {'a'});
+    }
+
+    @Test
+    public void testLargeBlocks()
+            throws Exception
+    {
+        // more than one block of the largest size
+        byte[] chunk = getRandom(0.5, 1000000);
+        byte[] random = new byte[5 * chunk.length];
+        for (int i = 0; i < 5; i++) {
+            System.arraycopy(chunk, 0, random, i * chunk.length, chunk.length);
+        }
+
+        for (int blockSize : new int[] {1 << 16, 1 << 18, 1 << 22}) {
+            byte[] compressed = compress(random, blockSize);
+            assertTrue(compressed.length < random.length);
+
+            // stream header with version and block size
+            assertEquals(Arrays.copyOf(compressed, 6), Arrays.copyOf(STREAM_HEADER, 6));
+            assertEquals(compressed[6], 1);
+            assertEquals(1 << compressed[7], blockSize);
+
+            // first block: compressed flag and varint length
+            assertEquals(compressed[8], 1);
+            assertTrue((compressed[9] & 0x80) != 0);
+
+            assertEquals(uncompress(compressed), random);
+            assertEquals(toByteArray(new SnappyInputStream(new ByteArrayInputStream(compressed), false)), random);
+
+            for (int skip : new int[] {1, blockSize - 1, blockSize, blockSize + 5, random.length}) {
+                SnappyInputStream in = new SnappyInputStream(new ByteArrayInputStream(compressed), false);
+                assertEquals(in.skip(skip), skip);
+                assertEquals(toByteArray(in), Arrays.copyOfRange(random, skip, random.length));
+            }
+        }
+    }
+
+    @Test
+    public void testConcatenatedStreamsWithDifferentBlockSizes()
+            throws Exception
+    {
+        byte[] random = getRandom(0.5, 300000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(compress(random));
+        out.write(compress(random, 1 << 16));
+        out.write(compress(random, 1 << 20));
+        out.write(compress(random));
+
+        byte[] expected = new byte[random.length * 4];
+        for (int i = 0; i < 4; i++) {
+            System.arraycopy(random, 0, expected, i * random.length, random.length);
+        }
+        assertEquals(uncompress(out.toByteArray()), expected);
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "invalid block size in stream header: 23")
+    public void testInvalidStreamHeaderBlockSize()
+            throws Exception
+    {
+        uncompress(new byte[] {'s', 'n', 'a', 'p', 'p', 'y', 1, 23});
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "invalid block size in header: 65537")
+    public void testInvalidLargeBlockSize()
+            throws Exception
+    {
+        // flag = 0, block size = 65537 (varint), crc32c = 0
+        uncompress(new byte[] {'s', 'n', 'a', 'p', 'p', 'y', 1, 16, 0, (byte) 0x81, (byte) 0x80, 0x04, 0, 0, 0, 0});
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBlockSizeNotPowerOfTwo()
+            throws Exception
+    {
+        new SnappyOutputStream(new ByteArrayOutputStream(), 100000);
+    }
+
     @Test
     public void testCloseIsIdempotent()
             throws Exception
@@ -289,6 +400,105 @@ public class SnappyStreamTest
         snappyIn.close();
     }
 
+    @Test
+    public void testAdaptiveCompression()
+            throws Exception
+    {
+        int blocks = 32;
+        byte[] incompressible = getRandom(1, blocks * 32768);
+        byte[] compressible = getRandom(0.5, blocks * 32768);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SnappyOutputStream snappyOut = SnappyOutputStream.newAdaptiveOutputStream(out);
+        snappyOut.write(incompressible);
+        snappyOut.write(compressible);
+        snappyOut.close();
+
+        byte[] uncompressed = uncompress(out.toByteArray());
+        assertEquals(Arrays.copyOfRange(uncompressed, 0, incompressible.length), incompressible);
+        assertEquals(Arrays.copyOfRange(uncompressed, incompressible.length, uncompressed.length), compressible);
+
+        // incompressible blocks are skipped after a few, and a probe ends the back off
+        assertEquals(snappyOut.getCompressedBlocks() + snappyOut.getStoredBlocks(), 2 * blocks);
+        assertTrue(snappyOut.getSkippedBlocks() > blocks / 2, "skipped " + snappyOut.getSkippedBlocks());
+        assertTrue(snappyOut.getProbedBlocks() > 0);
+        assertTrue(snappyOut.getStoredBlocks() < 2 * blocks - blocks / 2, "stored " + snappyOut.getStoredBlocks());
+
+        // without back off every block is compressed
+        out = new ByteArrayOutputStream();
+        snappyOut = new SnappyOutputStream(out);
+        snappyOut.write(incompressible);
+        snappyOut.write(compressible);
+        snappyOut.close();
+        assertEquals(snappyOut.getCompressedBlocks(), blocks);
+        assertEquals(snappyOut.getStoredBlocks(), blocks);
+        assertEquals(snappyOut.getSkippedBlocks(), 0);
+        assertEquals(snappyOut.getProbedBlocks(), 0);
+    }
+
+    @Test
+    public void testThroughputTargetedCompression()
+            throws Exception
+    {
+        int blocks = 32;
+        byte[] compressible = getRandom(0.5, blocks * 32768);
+
+        // the clock only advances while writing, so compressing is free, and pays off
+        // unless writing is free too
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SnappyOutputStream snappyOut = writeThroughputTargeted(compressible, out, 100);
+        assertEquals(uncompress(out.toByteArray()), compressible);
+        assertEquals(snappyOut.getCompressedBlocks(), blocks);
+        assertEquals(snappyOut.getSkippedBlocks(), 0);
+
+        // when writing is free, only the first block and one in every probe interval are compressed
+        out = new ByteArrayOutputStream();
+        snappyOut = writeThroughputTargeted(compressible, out, 0);
+        assertEquals(uncompress(out.toByteArray()), compressible);
+        assertEquals(snappyOut.getCompressedBlocks(), 1 + (blocks - 1) / ThroughputEstimator.PROBE_INTERVAL);
+        assertEquals(snappyOut.getSkippedBlocks(), blocks - snappyOut.getCompressedBlocks());
+        assertEquals(snappyOut.getProbedBlocks(), (blocks - 1) / ThroughputEstimator.PROBE_INTERVAL);
+    }
+
+    /**
+     * Writes the data to a throughput targeted stream whose clock advances by
+     * the given time for each byte written to the underlying stream.
+     */
+    private static SnappyOutputStream writeThroughputTargeted(byte[] data, final OutputStream out, final long nanosPerByte)
+            throws IOException
+    {
+        final long[] time = new long[1];
+        OutputStream link = new OutputStream()
+        {
+            @Override
+            public void write(int b)
+                    throws IOException
+            {
+                out.write(b);
+                time[0] += nanosPerByte;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+                    throws IOException
+            {
+                out.write(b, off, len);
+                time[0] += len * nanosPerByte;
+            }
+        };
+        SnappyOutputStream snappyOut = new SnappyOutputStream(link, true, SnappyOutputStream.MAX_BLOCK_SIZE, true, true)
+        {
+            @Override
+            long nanoTime()
+            {
+                return time[0];
+            }
+        };
+        snappyOut.write(data);
+        snappyOut.close();
+        return snappyOut;
+    }
+
     private static byte[] getRandom(double compressionRatio, int length)
     {
         SnappyTest.RandomGenerator gen = new SnappyTest.RandomGenerator(compressionRatio);
@@ -308,6 +518,16 @@ public class SnappyStreamTest
         return out.toByteArray();
     }
 
+    private static byte[] compress(byte[] original, int blockSize)
+            throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream snappyOut = new SnappyOutputStream(out, blockSize);
+        snappyOut.write(original);
+        snappyOut.close();
+        return out.toByteArray();
+    }
+
     private static byte[] uncompressBlock(byte[] block)
             throws IOException
     {
@@ -18,12 +18,26 @@
 package io.airlift.compress;
 
 import com.google.common.io.Files;
+import io.airlift.compress.SnappyBench.TestData;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class SnappyTest
 {
@@ -60,6 +74,578 @@ public class SnappyTest
         }
     }
 
+    @Test
+    public void testReusedInstances()
+            throws Exception
+    {
+        SnappyCompressor compressor = new SnappyCompressor();
+        SnappyDecompressor decompressor = new SnappyDecompressor();
+
+        // alternate large and small inputs so state left by one call could affect the next
+        for (int pass = 0; pass < 2; pass++) {
+            for (File testFile : getTestFiles()) {
+                for (byte[] data : new byte[][] {Files.toByteArray(testFile), Arrays.copyOf(randomGenerator.data, 100)}) {
+                    byte[] compressed = new byte[SnappyCompressor.maxCompressedLength(data.length)];
+                    int compressedSize = compressor.compress(data, 0, data.length, compressed, 0);
+                    assertEquals(Arrays.copyOf(compressed, compressedSize), Snappy.compress(data), testFile.getName());
+
+                    byte[] uncompressed = new byte[decompressor.getUncompressedLength(compressed, 0)];
+                    assertEquals(decompressor.uncompress(compressed, 0, compressedSize, uncompressed, 0), data.length, testFile.getName());
+                    assertEquals(uncompressed, data, testFile.getName());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCompressionLevels()
+            throws Exception
+    {
+        long[] totalSize = new long[SnappyCompressor.MAX_LEVEL + 1];
+        for (int level = SnappyCompressor.DEFAULT_LEVEL; level <= SnappyCompressor.MAX_LEVEL; level++) {
+            SnappyCompressor compressor = new SnappyCompressor(level);
+            for (File testFile : getTestFiles()) {
+                byte[] data = Files.toByteArray(testFile);
+                byte[] compressed = new byte[SnappyCompressor.maxCompressedLength(data.length)];
+                int compressedSize = compressor.compress(data, 0, data.length, compressed, 0);
+                totalSize[level] += compressedSize;
+
+                // the output is standard Snappy
+                String message = testFile.getName() + " at level " + level;
+                assertEquals(Snappy.uncompress(compressed, 0, compressedSize), data, message);
+                assertEquals(org.xerial.snappy.Snappy.uncompress(Arrays.copyOf(compressed, compressedSize)), data, message);
+
+                ByteBuffer compressedBuffer = ByteBuffer.allocateDirect(compressed.length);
+                assertEquals(compressor.compress(ByteBuffer.wrap(data), compressedBuffer), compressedSize, message);
+                compressedBuffer.flip();
+                assertEquals(toArray(compressedBuffer), Arrays.copyOf(compressed, compressedSize), message);
+            }
+        }
+
+        // on this corpus, each level compresses better than the one below it
+        for (int level = 3; level <= SnappyCompressor.MAX_LEVEL; level++) {
+            assertTrue(totalSize[level] <= totalSize[level - 1], "level " + level);
+        }
+        assertTrue(totalSize[2] < totalSize[SnappyCompressor.DEFAULT_LEVEL]);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidCompressionLevel()
+    {
+        new SnappyCompressor(SnappyCompressor.MAX_LEVEL + 1);
+    }
+
+    @Test
+    public void testAcceleration()
+            throws Exception
+    {
+        int[] accelerations = {1, 2, 8, SnappyCompressor.MAX_ACCELERATION};
+        long[] totalSize = new long[accelerations.length];
+        for (int i = 0; i < accelerations.length; i++) {
+            SnappyCompressor compressor = SnappyCompressor.newAcceleratedCompressor(accelerations[i]);
+            for (File testFile : getTestFiles()) {
+                byte[] data = Files.toByteArray(testFile);
+                byte[] compressed = new byte[SnappyCompressor.maxCompressedLength(data.length)];
+                int compressedSize = compressor.compress(data, 0, data.length, compressed, 0);
+                totalSize[i] += compressedSize;
+
+                String message = testFile.getName() + " with acceleration " + accelerations[i];
+                if (accelerations[i] == 1) {
+                    assertEquals(Arrays.copyOf(compressed, compressedSize), Snappy.compress(data), message);
+                }
+                assertEquals(Snappy.uncompress(compressed, 0, compressedSize), data, message);
+                assertEquals(org.xerial.snappy.Snappy.uncompress(Arrays.copyOf(compressed, compressedSize)), data, message);
+            }
+        }
+
+        for (int i = 1; i < accelerations.length; i++) {
+            assertTrue(totalSize[i] > totalSize[i - 1], "acceleration " + accelerations[i]);
+        }
+    }
+
+    @Test
+    public void testInvalidAcceleration()
+    {
+        for (int acceleration : new int[] {0, SnappyCompressor.MAX_ACCELERATION + 1}) {
+            try {
+                SnappyCompressor.newAcceleratedCompressor(acceleration);
+                Assert.fail("expected IllegalArgumentException for " + acceleration);
+            }
+            catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testFusedChecksum()
+            throws Exception
+    {
+        for (File testFile : getTestFiles()) {
+            byte[] contents = Files.toByteArray(testFile);
+            for (int length : new int[] {0, 1, 100, 4097, 32768, 32769, contents.length}) {
+                if (length > contents.length) {
+                    continue;
+                }
+                byte[] data = Arrays.copyOf(contents, length);
+                int expectedCrc32c = Crc32C.maskedCrc32c(data);
+
+                Crc32C checksum = new Crc32C();
+                byte[] compressed = new byte[Snappy.maxCompressedLength(length) + 1];
+                int compressedSize = Snappy.compress(data, 0, length, compressed, 1, checksum);
+                assertEquals(Arrays.copyOfRange(compressed, 1, 1 + compressedSize), Snappy.compress(data), testFile.getName());
+                assertEquals(checksum.getMaskedValue(), expectedCrc32c, testFile.getName());
+
+                checksum = new Crc32C();
+                byte[] uncompressed = new byte[length + 1];
+                assertEquals(Snappy.uncompress(compressed, 1, compressedSize, uncompressed, 1, checksum), length);
+                assertEquals(Arrays.copyOfRange(uncompressed, 1, length + 1), data, testFile.getName());
+                assertEquals(checksum.getMaskedValue(), expectedCrc32c, testFile.getName());
+            }
+        }
+    }
+
+    @Test
+    public void testCompressWithLimit()
+            throws Exception
+    {
+        short[] table = new short[SnappyRawCompressor.MAX_HASH_TABLE_SIZE];
+        for (File testFile : getTestFiles()) {
+            byte[] contents = Files.toByteArray(testFile);
+            for (int length : new int[] {0, 100, 4097, 32768, 32769, contents.length}) {
+                if (length > contents.length) {
+                    continue;
+                }
+                byte[] data = Arrays.copyOf(contents, length);
+                byte[] expected = Snappy.compress(data);
+                int expectedCrc32c = Crc32C.maskedCrc32c(data);
+
+                // the limit is inclusive
+                Crc32C checksum = new Crc32C();
+                byte[] compressed = new byte[Snappy.maxCompressedLength(length)];
+                int compressedSize = SnappyRawCompressor.compress(data, 0, length, compressed, 0, table, checksum, expected.length);
+                assertEquals(Arrays.copyOf(compressed, compressedSize), expected, testFile.getName());
+                assertEquals(checksum.getMaskedValue(), expectedCrc32c, testFile.getName());
+
+                // the checksum covers the whole input when compression is abandoned
+                for (int limit : new int[] {expected.length - 1, expected.length / 2, 0}) {
+                    checksum = new Crc32C();
+                    assertEquals(SnappyRawCompressor.compress(data, 0, length, compressed, 0, table, checksum, limit), -1, testFile.getName());
+                    assertEquals(checksum.getMaskedValue(), expectedCrc32c, testFile.getName());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUniformByteDistribution()
+            throws Exception
+    {
+        short[] table = new short[SnappyRawCompressor.MAX_HASH_TABLE_SIZE];
+        byte[] random = new byte[100000];
+        new Random(0).nextBytes(random);
+        assertTrue(SnappyRawCompressor.hasUniformByteDistribution(random, 0, 32768, table));
+        assertTrue(SnappyRawCompressor.hasUniformByteDistribution(random, 1000, random.length - 1000, table));
+
+        // too short to sample
+        assertFalse(SnappyRawCompressor.hasUniformByteDistribution(random, 0, 1000, table));
+
+        // text and zeros
+        byte[] text = TestData.txt1.getContents();
+        assertFalse(SnappyRawCompressor.hasUniformByteDistribution(text, 0, 32768, table));
+        assertFalse(SnappyRawCompressor.hasUniformByteDistribution(new byte[32768], 0, 32768, table));
+    }
+
+    @Test
+    public void testCompressParallel()
+            throws Exception
+    {
+        java.io.ByteArrayOutputStream allFiles = new java.io.ByteArrayOutputStream();
+        for (File testFile : getTestFiles()) {
+            allFiles.write(Files.toByteArray(testFile));
+        }
+        byte[] data = allFiles.toByteArray();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            int groupSize = SnappyParallelCompressor.GROUP_SIZE;
+            for (int length : new int[] {0, 1, groupSize, groupSize + 1, 3 * groupSize, 10 * groupSize + 12345, data.length - 7}) {
+                byte[] expected = new byte[Snappy.maxCompressedLength(length)];
+                int expectedSize = Snappy.compress(data, 7, length, expected, 0);
+
+                byte[] compressed = new byte[Snappy.maxCompressedLength(length) + 3];
+                int compressedSize = Snappy.compressParallel(data, 7, length, compressed, 3, executor);
+                assertEquals(Arrays.copyOfRange(compressed, 3, 3 + compressedSize), Arrays.copyOf(expected, expectedSize), "length " + length);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCompressParallelReleasesUnconsumedGroups()
+            throws Exception
+    {
+        int groupSize = SnappyParallelCompressor.GROUP_SIZE;
+        byte[] data = randomGenerator.data;
+        int length = Math.min(data.length, 4 * groupSize);
+        byte[] compressed = new byte[Snappy.maxCompressedLength(length)];
+
+        // runs the first two groups on the calling thread and rejects the rest
+        final AtomicInteger submitted = new AtomicInteger();
+        ExecutorService executor = new InlineExecutor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                if (submitted.incrementAndGet() > 2) {
+                    throw new RejectedExecutionException();
+                }
+                command.run();
+            }
+        };
+
+        BufferRecycler recycler = BufferRecycler.instance();
+        recycler.trim();
+        try {
+            Snappy.compressParallel(data, 0, length, compressed, 0, executor);
+            Assert.fail("expected RejectedExecutionException");
+        }
+        catch (RejectedExecutionException expected) {
+        }
+        assertTrue(recycler.getPooledBytes() >= 2 * SnappyRawCompressor.maxCompressedLength(groupSize));
+    }
+
+    @Test
+    public void testCompressParallelInterruptedReleasesGroups()
+            throws Exception
+    {
+        int groupSize = SnappyParallelCompressor.GROUP_SIZE;
+        byte[] data = randomGenerator.data;
+        int length = Math.min(data.length, 4 * groupSize);
+        byte[] compressed = new byte[Snappy.maxCompressedLength(length)];
+
+        // runs the groups on the calling thread, except the second which is held back,
+        // so the caller is interrupted waiting for it with later groups already done
+        final AtomicInteger submitted = new AtomicInteger();
+        final List<Runnable> heldBack = new ArrayList<Runnable>();
+        ExecutorService executor = new InlineExecutor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                if (submitted.incrementAndGet() == 2) {
+                    heldBack.add(command);
+                }
+                else {
+                    command.run();
+                }
+            }
+        };
+
+        BufferRecycler recycler = new BufferRecycler(1);
+        recycler.setMaxPooledBytes(Long.MAX_VALUE);
+        Thread.currentThread().interrupt();
+        try {
+            SnappyParallelCompressor.compress(data, 0, length, compressed, 0, executor, recycler);
+            Assert.fail("expected InterruptedException");
+        }
+        catch (InterruptedException expected) {
+        }
+        finally {
+            Thread.interrupted();
+        }
+        assertEquals(submitted.get(), 4);
+
+        // the abandoned group does not compress when it finally runs
+        long allocatedBytes = recycler.getAllocatedBytes();
+        for (Runnable command : heldBack) {
+            command.run();
+        }
+        assertEquals(recycler.getAllocatedBytes(), allocatedBytes);
+
+        // every buffer of the finished groups is back in the pool
+        assertTrue(allocatedBytes > 0);
+        assertEquals(recycler.getPooledBytes(), allocatedBytes);
+    }
+
+    @Test
+    public void testByteBufferTestData()
+            throws Exception
+    {
+        for (File testFile : getTestFiles()) {
+            byte[] data = Files.toByteArray(testFile);
+            byte[] expected = Snappy.compress(data);
+
+            for (BufferType inputType : BufferType.values()) {
+                for (BufferType outputType : BufferType.values()) {
+                    String message = testFile.getName() + " from " + inputType + " to " + outputType;
+
+                    ByteBuffer input = inputType.wrap(data, 0);
+                    ByteBuffer compressed = outputType.allocate(Snappy.maxCompressedLength(data.length));
+                    int compressedSize = Snappy.compress(input, compressed);
+                    assertEquals(compressedSize, expected.length, message);
+                    assertEquals(input.remaining(), 0, message);
+                    assertEquals(compressed.position(), compressedSize, message);
+                    compressed.flip();
+                    assertEquals(toArray(compressed.duplicate()), expected, message);
+
+                    compressed = outputType.wrap(expected, 0);
+                    assertEquals(Snappy.getUncompressedLength(compressed), data.length, message);
+                    ByteBuffer uncompressed = inputType.allocate(data.length);
+                    int uncompressedSize = Snappy.uncompress(compressed, uncompressed);
+                    assertEquals(uncompressedSize, data.length, message);
+                    assertEquals(compressed.remaining(), 0, message);
+                    uncompressed.flip();
+                    assertEquals(toArray(uncompressed), data, message);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testByteBufferPositionAndOffset()
+            throws Exception
+    {
+        byte[] data = Arrays.copyOf(randomGenerator.data, 100000);
+        byte[] expected = Snappy.compress(data);
+
+        for (BufferType type : BufferType.values()) {
+            // data starts at a non-zero position
+            ByteBuffer input = type.wrap(data, 13);
+            input.position(13);
+
+            ByteBuffer compressed = type.allocate(Snappy.maxCompressedLength(data.length) + 17);
+            compressed.position(17);
+            assertEquals(Snappy.compress(input, compressed), expected.length, type.toString());
+            compressed.flip();
+            compressed.position(17);
+            assertEquals(toArray(compressed.duplicate()), expected, type.toString());
+
+            ByteBuffer uncompressed = type.allocate(data.length + 5);
+            uncompressed.position(5);
+            assertEquals(Snappy.uncompress(compressed, uncompressed), data.length, type.toString());
+            uncompressed.flip();
+            uncompressed.position(5);
+            assertEquals(toArray(uncompressed), data, type.toString());
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testByteBufferOutputTooSmall()
+    {
+        byte[] data = Arrays.copyOf(randomGenerator.data, 1000);
+        Snappy.compress(ByteBuffer.wrap(data), ByteBuffer.allocateDirect(Snappy.maxCompressedLength(data.length) - 1));
+    }
+
+    @Test(expectedExceptions = CorruptionException.class)
+    public void testByteBufferTruncatedInput()
+    {
+        byte[] data = Arrays.copyOf(randomGenerator.data, 1000);
+        byte[] compressed = Snappy.compress(data);
+
+        ByteBuffer input = ByteBuffer.allocateDirect(compressed.length - 10);
+        input.put(compressed, 0, compressed.length - 10);
+        input.flip();
+        Snappy.uncompress(input, ByteBuffer.allocateDirect(data.length));
+    }
+
+    @Test
+    public void testOffHeapTestData()
+            throws Exception
+    {
+        for (File testFile : getTestFiles()) {
+            byte[] data = Files.toByteArray(testFile);
+            byte[] expected = Snappy.compress(data);
+
+            ByteBuffer input = BufferType.DIRECT.wrap(data, 0);
+            ByteBuffer compressed = ByteBuffer.allocateDirect(Snappy.maxCompressedLength(data.length));
+            long compressedSize = Snappy.compress(
+                    SnappyInternalUtils.getBufferAddress(input),
+                    data.length,
+                    SnappyInternalUtils.getBufferAddress(compressed),
+                    compressed.capacity());
+            assertEquals(compressedSize, expected.length, testFile.getName());
+            compressed.limit((int) compressedSize);
+            assertEquals(toArray(compressed.duplicate()), expected, testFile.getName());
+
+            long compressedAddress = SnappyInternalUtils.getBufferAddress(compressed);
+            assertEquals(Snappy.getUncompressedLength(compressedAddress, compressedSize), data.length, testFile.getName());
+
+            ByteBuffer uncompressed = ByteBuffer.allocateDirect(data.length);
+            long uncompressedSize = Snappy.uncompress(
+                    compressedAddress,
+                    compressedSize,
+                    SnappyInternalUtils.getBufferAddress(uncompressed),
+                    uncompressed.capacity());
+            assertEquals(uncompressedSize, data.length, testFile.getName());
+            assertEquals(toArray(uncompressed), data, testFile.getName());
+        }
+    }
+
+    @Test
+    public void testNegativeLiteralLength()
+    {
+        byte[] frame = new byte[23];
+        frame[0] = 16;
+        // literal with a four byte trailer of 0xFFFFFFF8, so a length of -7
+        frame[1] = (byte) 0xFC;
+        frame[2] = (byte) 0xF8;
+        frame[3] = (byte) 0xFF;
+        frame[4] = (byte) 0xFF;
+        frame[5] = (byte) 0xFF;
+        // literal of 16 bytes
+        frame[6] = 15 << 2;
+        Arrays.fill(frame, 7, 23, (byte) 'a');
+        assertCorruptInputStaysInBounds(frame);
+    }
+
+    @Test
+    public void testNegativeCopyOffset()
+    {
+        byte[] frame = new byte[] {
+                16,
+                // literal of 4 bytes
+                3 << 2, 'a', 'b', 'c', 'd',
+                // copy of 4 bytes with a four byte offset of 0x80000000
+                (3 << 2) | 3, 0, 0, 0, (byte) 0x80,
+                // copy of 8 bytes with an offset of 4
+                (7 << 2) | 2, 4, 0};
+        assertCorruptInputStaysInBounds(frame);
+    }
+
+    /**
+     * Verifies that uncompressing the corrupt frame fails without writing
+     * before the start of the output, through all the entry points.
+     */
+    private static void assertCorruptInputStaysInBounds(byte[] frame)
+    {
+        try {
+            Snappy.uncompress(frame, 0, frame.length, new byte[64], 0);
+            Assert.fail("expected CorruptionException");
+        }
+        catch (CorruptionException expected) {
+        }
+
+        for (boolean addresses : new boolean[] {false, true}) {
+            ByteBuffer memory = ByteBuffer.allocateDirect(2048 + 64);
+            while (memory.hasRemaining()) {
+                memory.put((byte) 0x55);
+            }
+            memory.position(2048);
+            ByteBuffer output = memory.slice();
+            ByteBuffer input = BufferType.DIRECT.wrap(frame, 0);
+            try {
+                if (addresses) {
+                    Snappy.uncompress(SnappyInternalUtils.getBufferAddress(input), frame.length, SnappyInternalUtils.getBufferAddress(output), output.capacity());
+                }
+                else {
+                    Snappy.uncompress(input, output);
+                }
+                Assert.fail("expected CorruptionException");
+            }
+            catch (CorruptionException expected) {
+            }
+            for (int i = 0; i < 2048; i++) {
+                assertEquals(memory.get(i), (byte) 0x55, "byte " + i + " before the output");
+            }
+        }
+    }
+
+    @Test
+    public void testUncompressedLengthAbove2GB()
+    {
+        // 3 GB = 0xC0000000
+        byte[] header = new byte[] {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x0C};
+        ByteBuffer buffer = BufferType.DIRECT.wrap(header, 0);
+        assertEquals(Snappy.getUncompressedLength(SnappyInternalUtils.getBufferAddress(buffer), header.length), 3L * 1024 * 1024 * 1024);
+
+        try {
+            Snappy.getUncompressedLength(header, 0);
+            Assert.fail("expected CorruptionException");
+        }
+        catch (CorruptionException expected) {
+        }
+    }
+
+    @Test(expectedExceptions = CorruptionException.class)
+    public void testUncompressedLengthAbove32Bits()
+    {
+        Snappy.getUncompressedLength(new byte[] {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x10}, 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testOffHeapInputTooLarge()
+    {
+        Snappy.compress(0, 0x100000000L, 0, Long.MAX_VALUE);
+    }
+
+    private enum BufferType
+    {
+        HEAP {
+            @Override
+            ByteBuffer allocate(int size)
+            {
+                return ByteBuffer.allocate(size);
+            }
+        },
+        HEAP_SLICE {
+            @Override
+            ByteBuffer allocate(int size)
+            {
+                ByteBuffer buffer = ByteBuffer.allocate(size + 11);
+                buffer.position(11);
+                return buffer.slice();
+            }
+        },
+        READ_ONLY_HEAP {
+            @Override
+            ByteBuffer allocate(int size)
+            {
+                // read-only buffers are never used for output
+                return ByteBuffer.allocate(size);
+            }
+
+            @Override
+            ByteBuffer wrap(byte[] data, int padding)
+            {
+                return super.wrap(data, padding).asReadOnlyBuffer();
+            }
+        },
+        DIRECT {
+            @Override
+            ByteBuffer allocate(int size)
+            {
+                return ByteBuffer.allocateDirect(size);
+            }
+        };
+
+        abstract ByteBuffer allocate(int size);
+
+        /**
+         * Returns a buffer with {@code padding} garbage bytes followed by the data,
+         * positioned at the start of the data.
+         */
+        ByteBuffer wrap(byte[] data, int padding)
+        {
+            ByteBuffer buffer = allocate(data.length + padding);
+            for (int i = 0; i < padding; i++) {
+                buffer.put((byte) 0xAA);
+            }
+            buffer.put(data);
+            buffer.flip();
+            buffer.position(padding);
+            return buffer;
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
     private void verifyCompression(int size)
             throws Exception
     {
@@ -177,4 +763,40 @@ public class SnappyTest
         Assert.assertTrue(testFiles != null && testFiles.length > 0, "No test files at " + TEST_DATA_DIR.getAbsolutePath());
         return testFiles;
     }
+
+    /**
+     * Executor whose tasks are run or held back by the test, on the thread that submits them.
+     */
+    private abstract static class InlineExecutor
+            extends AbstractExecutorService
+    {
+        @Override
+        public void shutdown()
+        {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            return new ArrayList<Runnable>();
+        }
+
+        @Override
+        public boolean isShutdown()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit)
+        {
+            return true;
+        }
+    }
 }
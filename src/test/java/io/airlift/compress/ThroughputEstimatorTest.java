@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.compress;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class ThroughputEstimatorTest
+{
+    private static final int BLOCK_SIZE = 32768;
+
+    @Test
+    public void testCompressesUntilMeasured()
+    {
+        ThroughputEstimator estimator = new ThroughputEstimator();
+        assertTrue(estimator.shouldCompress());
+
+        // stored blocks do not measure compression
+        estimator.update(false, BLOCK_SIZE, 0, BLOCK_SIZE, 0);
+        assertTrue(estimator.shouldCompress());
+    }
+
+    @Test
+    public void testSlowLink()
+    {
+        // 2ns per byte to compress to half the size saves 5ns per byte on a 10ns per byte link
+        ThroughputEstimator estimator = new ThroughputEstimator();
+        estimator.update(true, BLOCK_SIZE, 2 * BLOCK_SIZE, BLOCK_SIZE / 2, 10 * BLOCK_SIZE / 2);
+        assertTrue(estimator.compressionPaysOff());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(estimator.shouldCompress());
+        }
+    }
+
+    @Test
+    public void testFastLink()
+    {
+        // 2ns per byte to compress to half the size saves 0.5ns per byte on a 1ns per byte link
+        ThroughputEstimator estimator = new ThroughputEstimator();
+        estimator.update(true, BLOCK_SIZE, 2 * BLOCK_SIZE, BLOCK_SIZE / 2, BLOCK_SIZE / 2);
+        assertFalse(estimator.compressionPaysOff());
+
+        // only one block in the probe interval is compressed
+        for (int probe = 0; probe < 3; probe++) {
+            for (int i = 1; i < ThroughputEstimator.PROBE_INTERVAL; i++) {
+                assertFalse(estimator.shouldCompress());
+            }
+            assertTrue(estimator.shouldCompress());
+        }
+    }
+
+    @Test
+    public void testLinkSlowsDown()
+    {
+        ThroughputEstimator estimator = new ThroughputEstimator();
+        estimator.update(true, BLOCK_SIZE, 2 * BLOCK_SIZE, BLOCK_SIZE / 2, BLOCK_SIZE / 2);
+        assertFalse(estimator.shouldCompress());
+
+        // writing stored blocks at 100ns per byte soon makes compression pay off
+        for (int i = 0; i < 3; i++) {
+            estimator.update(false, BLOCK_SIZE, 0, BLOCK_SIZE, 100L * BLOCK_SIZE);
+        }
+        assertTrue(estimator.compressionPaysOff());
+        assertTrue(estimator.shouldCompress());
+    }
+}